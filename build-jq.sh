@@ -1,5 +1,8 @@
 #!/bin/bash
 
+# source of native shim, see src/main/c/jqshim.c
+SHIM_SRC=${SHIM_SRC:-$(cd "$(dirname "$0")" && pwd -P)/src/main/c}
+
 mkdir -p build
 cd build
 
@@ -28,3 +31,12 @@ wget https://github.com/stedolan/jq/releases/download/jq-${JQ_VERSION}/jq-${JQ_V
    make && \
    make install && \
    cd ..
+
+# build native shim next to libjq; it is optional, and java-jq falls back to JNA without it. jq
+# symbols are left undefined, and resolved from the copy of libjq that JNA has already loaded
+if [ "$(uname)" = "Darwin" ]; then
+   gcc -dynamiclib -O2 -undefined dynamic_lookup -I${SHIM_SRC} \
+      -o jq-${JQ_VERSION}/.libs/libjqshim.dylib ${SHIM_SRC}/jqshim.c
+else
+   gcc -shared -fPIC -O2 -I${SHIM_SRC} -o jq-${JQ_VERSION}/.libs/libjqshim.so ${SHIM_SRC}/jqshim.c
+fi
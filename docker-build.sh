@@ -9,7 +9,7 @@ docker build --tag ${PROJECT} ${SCRIPT_PATH}/.
 
 # get file
 mkdir -p src/main/resources/lib/linux-x86_64
-docker run --rm -v $(pwd -P)/src/main/resources/lib/linux-x86_64:/mnt ${PROJECT} cp /root/build/jq-${JQ_VERSION}/.libs/libjq.so /mnt
+docker run --rm -v $(pwd -P)/src/main/resources/lib/linux-x86_64:/mnt ${PROJECT} cp /root/build/jq-${JQ_VERSION}/.libs/libjq.so /root/build/jq-${JQ_VERSION}/.libs/libjqshim.so /mnt
 echo "Linux-x86_64 JQ build successfully."
 
 
@@ -18,5 +18,5 @@ docker build --platform=linux/arm64 --tag ${PROJECT}_aarch64 -f Dockerfile.aarch
 
 # get file
 mkdir -p src/main/resources/lib/linux-aarch64
-docker run --rm -v $(pwd -P)/src/main/resources/lib/linux-aarch64:/mnt ${PROJECT}_aarch64 cp /home/libjq.so /mnt
+docker run --rm -v $(pwd -P)/src/main/resources/lib/linux-aarch64:/mnt ${PROJECT}_aarch64 cp /home/libjq.so /home/libjqshim.so /mnt
 echo "Linux-aarch64 JQ build successfully."
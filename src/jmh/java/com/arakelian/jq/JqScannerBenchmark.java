@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Compares the word-at-a-time scans of {@link JqScanner} with a byte-at-a-time scan, on heap and
+ * direct buffers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class JqScannerBenchmark {
+    @Param({ "true", "false" })
+    public boolean swar;
+
+    @Param({ "true", "false" })
+    public boolean direct;
+
+    private ByteBuffer array;
+
+    private ByteBuffer lines;
+
+    @Benchmark
+    public int[] elements() {
+        return JqScanner.elements(array, swar);
+    }
+
+    @Benchmark
+    public int newlines() {
+        int count = 0;
+        for (int i = JqScanner.indexOfNewline(lines, 0, swar); i != -1; i = JqScanner
+                .indexOfNewline(lines, i + 1, swar)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Setup
+    public void setup() {
+        final StringBuilder array = new StringBuilder("[");
+        final StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            final String document = "{\"id\":" + i + ",\"name\":\"item \\\"" + i
+                    + "\\\"\",\"tags\":[\"a\",\"b\",\"c\"],\"nested\":{\"price\":" + i * 1.5
+                    + ",\"text\":\"" + "lorem ipsum, dolor sit amet. ".repeat(i % 4) + "\"}}";
+            array.append(i == 0 ? "" : ",").append(document);
+            lines.append(document).append('\n');
+        }
+        this.array = buffer(array.append(']').toString());
+        this.lines = buffer(lines.toString());
+    }
+
+    private ByteBuffer buffer(final String text) {
+        final byte[] bytes = text.getBytes(Charsets.UTF_8);
+        if (!direct) {
+            return ByteBuffer.wrap(bytes);
+        }
+        final ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+        buf.put(bytes).flip();
+        return buf;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Runs the parse / execute / dump loop of a jq request in a single native call, so that Java
+ * crosses into native code once per request rather than several times per input and result.
+ * Also accounts for the native memory that libjq allocates. See com.arakelian.jq.JqShim.
+ */
+
+#include <setjmp.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#ifdef __APPLE__
+#include <malloc/malloc.h>
+#define usable_size(p) malloc_size(p)
+#else
+#include <malloc.h>
+#define usable_size(p) malloc_usable_size(p)
+#endif
+
+#include "jv.h"
+#include "jq.h"
+
+#define JQSHIM_OK 0
+#define JQSHIM_NOMEM -1
+#define JQSHIM_LIMIT -2
+#define JQSHIM_EXHAUSTED -3
+
+/*
+ * libjq calls its jv_mem_* allocators through the PLT, so when the shim is loaded before libjq,
+ * the definitions below take precedence and every value, parser and program that libjq allocates
+ * is counted. libjq is only called while the jq lock is held, so the counters are not
+ * synchronized.
+ *
+ * libjq aborts the process when an allocation fails. While jqshim_execute runs, an allocation
+ * that fails or that exceeds the limit instead jumps back to jqshim_execute, abandoning the state
+ * of jq and the parser; both are leaked, and the caller must not use the jq state again. Memory
+ * that libjq allocated during the execution cannot be released safely, because libjq also
+ * allocates per-thread state lazily through the same allocators, so each abandoned execution
+ * leaks up to its limit, as well as the compiled program.
+ */
+static long long mem_allocated;
+static long long mem_base;
+static long long mem_peak;
+static long long mem_limit;
+static int mem_tracked;
+static jmp_buf *mem_guard;
+
+static void exhausted(void) {
+  if (mem_guard != NULL) {
+    longjmp(*mem_guard, JQSHIM_EXHAUSTED);
+  }
+  fprintf(stderr, "error: cannot allocate memory\n");
+  abort();
+}
+
+static void *track(void *p) {
+  if (p != NULL) {
+    mem_tracked = 1;
+    mem_allocated += usable_size(p);
+    if (mem_allocated > mem_peak) {
+      mem_peak = mem_allocated;
+    }
+    if (mem_limit != 0 && mem_allocated > mem_limit && mem_guard != NULL) {
+      longjmp(*mem_guard, JQSHIM_LIMIT);
+    }
+  }
+  return p;
+}
+
+static void *guarded(void *p) {
+  if (p == NULL) {
+    exhausted();
+  }
+  return track(p);
+}
+
+void *jv_mem_alloc(size_t size) {
+  return guarded(malloc(size));
+}
+
+void *jv_mem_alloc_unguarded(size_t size) {
+  return track(malloc(size));
+}
+
+void *jv_mem_calloc(size_t count, size_t size) {
+  return guarded(calloc(count, size));
+}
+
+void *jv_mem_calloc_unguarded(size_t count, size_t size) {
+  return track(calloc(count, size));
+}
+
+char *jv_mem_strdup(const char *s) {
+  return guarded(strdup(s));
+}
+
+char *jv_mem_strdup_unguarded(const char *s) {
+  return track(strdup(s));
+}
+
+void jv_mem_free(void *p) {
+  if (p != NULL) {
+    mem_allocated -= usable_size(p);
+  }
+  free(p);
+}
+
+void *jv_mem_realloc(void *p, size_t size) {
+  size_t previous = p != NULL ? usable_size(p) : 0;
+  void *q = realloc(p, size);
+  if (q == NULL) {
+    exhausted();
+  }
+  mem_allocated -= previous;
+  return track(q);
+}
+
+/* Returns true if libjq allocates memory through the shim */
+int jqshim_memory_tracked(void) {
+  return mem_tracked;
+}
+
+/* Starts accounting for an execution that may allocate at most limit bytes, or any if 0 */
+void jqshim_memory_begin(long long limit) {
+  mem_base = mem_allocated;
+  mem_peak = mem_allocated;
+  mem_limit = limit > 0 ? mem_allocated + limit : 0;
+}
+
+/*
+ * Saves the accounting of an execution that releases the jq lock before it finishes, such as a
+ * cursor, so that other executions may begin in the meantime. state must hold three values.
+ */
+void jqshim_memory_save(long long *state) {
+  state[0] = mem_allocated - mem_base;
+  state[1] = mem_peak - mem_base;
+  state[2] = mem_limit != 0 ? mem_limit - mem_base : 0;
+}
+
+/*
+ * Resumes the accounting of an execution that was saved by jqshim_memory_save. Memory that other
+ * executions allocated or released in the meantime is not attributed to it.
+ */
+void jqshim_memory_restore(const long long *state) {
+  mem_base = mem_allocated - state[0];
+  mem_peak = mem_base + state[1];
+  mem_limit = state[2] != 0 ? mem_base + state[2] : 0;
+}
+
+/* Finishes accounting, returning the peak number of bytes allocated during the execution */
+long long jqshim_memory_end(void) {
+  mem_limit = 0;
+  return mem_peak - mem_base;
+}
+
+/* Must match the field order of JqShim.Result */
+typedef struct {
+  char *output;
+  int output_length;
+  int output_capacity;
+  char *errors;
+  int errors_length;
+  int errors_capacity;
+  int result_count;
+  int error_count;
+} jqshim_result;
+
+static int append(char **data, int *length, int *capacity, const char *bytes, int n) {
+  if (*length + n > *capacity) {
+    int grow = *capacity < 4096 ? 4096 : *capacity;
+    while (*length + n > grow) {
+      grow *= 2;
+    }
+    char *grown = realloc(*data, grow);
+    if (grown == NULL) {
+      return JQSHIM_NOMEM;
+    }
+    *data = grown;
+    *capacity = grow;
+  }
+  memcpy(*data + *length, bytes, n);
+  *length += n;
+  return JQSHIM_OK;
+}
+
+/* Records the message of an invalid value, if it has one; the value is consumed */
+static int add_error(jqshim_result *result, jv value) {
+  if (!jv_invalid_has_msg(jv_copy(value))) {
+    jv_free(value);
+    return JQSHIM_OK;
+  }
+
+  jv msg = jv_invalid_get_msg(value);
+  if (jv_get_kind(msg) != JV_KIND_STRING) {
+    msg = jv_dump_string(msg, 0);
+  }
+  int status = append(&result->errors, &result->errors_length, &result->errors_capacity,
+                      jv_string_value(msg), jv_string_length_bytes(jv_copy(msg)) + 1);
+  jv_free(msg);
+  result->error_count++;
+  return status;
+}
+
+/* Appends the text of a result; the value is consumed */
+static int add_result(jqshim_result *result, jv value, int flags, int raw) {
+  if (!(raw && jv_get_kind(value) == JV_KIND_STRING)) {
+    value = jv_dump_string(value, flags);
+  }
+  int status = append(&result->output, &result->output_length, &result->output_capacity,
+                      jv_string_value(value), jv_string_length_bytes(jv_copy(value)));
+  jv_free(value);
+  result->result_count++;
+  return status;
+}
+
+/*
+ * Executes a compiled program against every value of the given UTF-8 input. Results are written
+ * to result->output, joined by the given separator; error messages are written to result->errors,
+ * each followed by a NUL. Stops at the first value that cannot be parsed, like the Java
+ * implementation. Returns JQSHIM_NOMEM if the output could not be allocated, and JQSHIM_LIMIT or
+ * JQSHIM_EXHAUSTED if the execution was abandoned because jq exceeded the memory limit or could
+ * not allocate memory.
+ *
+ * The result must be released with jqshim_free, whether or not this function succeeds.
+ */
+int jqshim_execute(jq_state *jq, const char *input, int length, int flags, int raw,
+                   const char *separator, jqshim_result *result) {
+  memset(result, 0, sizeof(*result));
+  int separator_length = (int) strlen(separator);
+
+  jmp_buf guard;
+  int abandoned = setjmp(guard);
+  if (abandoned != 0) {
+    mem_guard = NULL;
+    return abandoned;
+  }
+  mem_guard = &guard;
+
+  jv_parser *parser = jv_parser_new(0);
+  if (parser == NULL) {
+    mem_guard = NULL;
+    return JQSHIM_NOMEM;
+  }
+  jv_parser_set_buf(parser, input, length, 0);
+
+  int status = JQSHIM_OK;
+  while (status == JQSHIM_OK) {
+    jv value = jv_parser_next(parser);
+    if (!jv_is_valid(value)) {
+      /* end of input, or input that cannot be parsed */
+      status = add_error(result, value);
+      break;
+    }
+
+    jq_start(jq, value, 0);
+    while (status == JQSHIM_OK) {
+      jv next = jq_next(jq);
+      if (!jv_is_valid(next)) {
+        status = add_error(result, next);
+        break;
+      }
+      if (result->result_count != 0) {
+        status = append(&result->output, &result->output_length, &result->output_capacity,
+                        separator, separator_length);
+      }
+      if (status == JQSHIM_OK) {
+        status = add_result(result, next, flags, raw);
+      } else {
+        jv_free(next);
+      }
+    }
+  }
+
+  jv_parser_free(parser);
+  mem_guard = NULL;
+  return status;
+}
+
+void jqshim_free(jqshim_result *result) {
+  free(result->output);
+  free(result->errors);
+  memset(result, 0, sizeof(*result));
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import org.immutables.value.Value;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Controls how threads are admitted to libjq, which can only be used by one thread at a time.
+ *
+ * By default, any number of threads may wait for as long as necessary. When traffic spikes, it is
+ * usually better to limit the number of waiting threads and the time that they wait, and to fail
+ * quickly with a {@link java.util.concurrent.RejectedExecutionException} instead.
+ *
+ * @see JqLock#configure(JqAdmissionPolicy)
+ */
+@Value.Immutable
+public abstract class JqAdmissionPolicy {
+    /**
+     * Returns the maximum number of threads that may wait for libjq at the same time; additional
+     * threads are rejected immediately.
+     *
+     * @return the maximum number of threads that may wait for libjq
+     */
+    @Value.Default
+    public int getMaxWaiters() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the maximum amount of time that a thread may wait for libjq before it is rejected.
+     * Threads wait indefinitely if not specified.
+     *
+     * @return the maximum amount of time that a thread may wait for libjq
+     */
+    public abstract Optional<Duration> getMaxWait();
+
+    /**
+     * Returns true if waiting threads are admitted in the order they arrived. By default, a thread
+     * that arrives when libjq becomes available may "barge" ahead of waiting threads, which has
+     * higher throughput.
+     *
+     * @return true if waiting threads are admitted in the order they arrived
+     */
+    @Value.Default
+    public boolean isFair() {
+        return false;
+    }
+
+    @Value.Check
+    protected void checkPolicy() {
+        Preconditions.checkState(getMaxWaiters() >= 0, "maxWaiters must be non-negative");
+        Preconditions.checkState(
+                !getMaxWait().isPresent() || !getMaxWait().get().isNegative(),
+                "maxWait must be non-negative");
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.Semaphore;
+
+import org.immutables.value.Value;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Aggregates a very large number of JSON documents in parallel, with a map filter that reduces a
+ * slice of documents to a partial result, and a combine filter that merges two partial results.
+ *
+ * Documents are read one slice at a time, so the whole input is never held in memory. The map
+ * filter is executed against an array of the documents of each slice, e.g.
+ * <code>map(.bytes) | add</code> or <code>reduce .[] as $e ({}; .[$e.user] += 1)</code>; every
+ * result it produces is a partial result. Partial results are then merged in a tree reduction,
+ * by executing the combine filter against an array of two adjacent partial results, e.g.
+ * <code>.[0] + .[1]</code> or <code>reduce .[] as $m ({}; . * $m)</code>. The combine filter must
+ * produce exactly one result, and must be associative, since the shape of the tree is not
+ * defined; partial results are always combined in the order of the documents.
+ *
+ * Each worker thread compiles its own copies of the filters. Filters that qualify for the
+ * pure-Java fast path (see {@link JqRequest#isFastPath()}) run fully in parallel; calls into
+ * libjq itself are serialized by the jq lock, since libjq is not thread-safe.
+ *
+ * <pre>
+ * JqResponse total = ImmutableJqAggregate.builder() //
+ *         .request(request) //
+ *         .mapFilter("map(.bytes) | add") //
+ *         .combineFilter(".[0] + .[1]") //
+ *         .build() //
+ *         .run(documents);
+ * </pre>
+ */
+@Value.Immutable
+public abstract class JqAggregate {
+    /**
+     * State of a single call to {@link JqAggregate#run(Iterable)}.
+     */
+    private final class Execution {
+        private final JqRequest mapRequest = partialRequest(getMapFilter());
+
+        private final JqRequest combineRequest = partialRequest(getCombineFilter());
+
+        /** Programs compiled by worker threads, which are closed when the aggregation finishes **/
+        private final List<JqProgram> programs = Collections.synchronizedList(Lists.newArrayList());
+
+        private final ThreadLocal<JqProgram> map = ThreadLocal.withInitial(() -> compile(mapRequest));
+
+        private final ThreadLocal<JqProgram> combine = ThreadLocal.withInitial(() -> compile(combineRequest));
+
+        /** Errors reported by either filter **/
+        private final List<String> errors = Collections.synchronizedList(Lists.newArrayList());
+
+        private void close() {
+            for (final JqProgram compiled : programs) {
+                compiled.close();
+            }
+        }
+
+        /**
+         * Returns the combination of two partial results, or null if the combine filter failed.
+         */
+        private String combine(final String left, final String right) {
+            final List<String> results = execute(combineRequest, combine, "[" + left + "," + right + "]");
+            if (results == null) {
+                return null;
+            }
+            if (results.size() != 1) {
+                errors.add("Combine filter must produce exactly one result, not " + results.size());
+                return null;
+            }
+            return results.get(0);
+        }
+
+        private JqProgram compile(final JqRequest request) {
+            final JqProgram compiled = request.compile();
+            programs.add(compiled);
+            return compiled;
+        }
+
+        /**
+         * Returns the compact JSON text of each result, or null if the filter reported errors.
+         */
+        private List<String> execute(final JqRequest request, final ThreadLocal<JqProgram> program, final String text) {
+            JqResponse response = null;
+            if (request.isFastPath()) {
+                response = JqFastPath.execute(ImmutableJqRequest.copyOf(request).withInput(text));
+            }
+            if (response == null) {
+                response = program.get().execute(text);
+            }
+            if (response.hasErrors()) {
+                errors.addAll(response.getErrors());
+                return null;
+            }
+
+            // compact JSON text never contains a newline
+            final String output = response.getOutput();
+            return output.isEmpty() ? ImmutableList.of() : Splitter.on('\n').splitToList(output);
+        }
+
+        private List<String> map(final List<String> documents) {
+            final StringBuilder text = new StringBuilder("[");
+            for (int i = 0, size = documents.size(); i < size; i++) {
+                text.append(i == 0 ? "" : ",").append(documents.get(i));
+            }
+            text.append(']');
+            return execute(mapRequest, map, text.toString());
+        }
+    }
+
+    /**
+     * Combines a range of partial results.
+     */
+    private final class CombineTask extends RecursiveTask<String> {
+        private static final long serialVersionUID = 1L;
+
+        private final Execution execution;
+        private final List<String> partials;
+
+        private CombineTask(final Execution execution, final List<String> partials) {
+            this.execution = execution;
+            this.partials = partials;
+        }
+
+        @Override
+        protected String compute() {
+            final int size = partials.size();
+            if (size == 1) {
+                return partials.get(0);
+            }
+
+            final int middle = size / 2;
+            final CombineTask left = new CombineTask(execution, partials.subList(0, middle));
+            left.fork();
+            final String right = new CombineTask(execution, partials.subList(middle, size)).compute();
+            final String combined = left.join();
+            if (combined == null || right == null) {
+                return null;
+            }
+            return execution.combine(combined, right);
+        }
+    }
+
+    /**
+     * Returns the filter that merges two partial results. It is executed against an array of two
+     * partial results, and must produce exactly one result.
+     *
+     * @return the filter that merges two partial results
+     */
+    public abstract String getCombineFilter();
+
+    /**
+     * Returns the filter that reduces a slice of documents to partial results. It is executed
+     * against an array of the documents of a slice.
+     *
+     * @return the filter that reduces a slice of documents to partial results
+     */
+    public abstract String getMapFilter();
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return the number of worker threads
+     */
+    @Value.Default
+    public int getParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns the request whose options and library are used for the aggregation; its filter and
+     * input are ignored. Options that affect how results are written apply only to the final
+     * result.
+     *
+     * @return the request whose options and library are used for the aggregation
+     */
+    public abstract JqRequest getRequest();
+
+    /**
+     * Returns the number of documents in each slice.
+     *
+     * @return the number of documents in each slice
+     */
+    @Value.Default
+    public int getSliceSize() {
+        return 10000;
+    }
+
+    /**
+     * Aggregates the given documents.
+     *
+     * @param documents
+     *            JSON text of each document; each must contain exactly one JSON value. Documents
+     *            are read by the calling thread, one slice at a time.
+     * @return response whose output is the aggregate, or that contains the errors reported by the
+     *         filters; the output is empty if there are no partial results
+     */
+    public JqResponse run(final Iterable<String> documents) {
+        Preconditions.checkArgument(documents != null, "documents must be non-null");
+
+        final Execution execution = new Execution();
+        final ForkJoinPool pool = new ForkJoinPool(getParallelism());
+        try {
+            // limit the number of slices that are held in memory
+            final Semaphore slots = new Semaphore(2 * getParallelism());
+            final List<Future<List<String>>> slices = Lists.newArrayList();
+            final Iterator<String> it = documents.iterator();
+            while (it.hasNext() && execution.errors.isEmpty()) {
+                final List<String> slice = Lists.newArrayListWithCapacity(getSliceSize());
+                while (it.hasNext() && slice.size() < getSliceSize()) {
+                    slice.add(it.next());
+                }
+                slots.acquireUninterruptibly();
+                slices.add(pool.submit(() -> {
+                    try {
+                        return execution.map(slice);
+                    } finally {
+                        slots.release();
+                    }
+                }));
+            }
+
+            final List<String> partials = Lists.newArrayList();
+            for (final Future<List<String>> slice : slices) {
+                final List<String> results = slice.get();
+                if (results != null) {
+                    partials.addAll(results);
+                }
+            }
+            if (!execution.errors.isEmpty()) {
+                return ImmutableJqResponse.builder().addAllErrors(execution.errors).build();
+            }
+            if (partials.isEmpty()) {
+                return ImmutableJqResponse.builder().build();
+            }
+
+            final String aggregate = pool.invoke(new CombineTask(execution, partials));
+            if (aggregate == null) {
+                return ImmutableJqResponse.builder().addAllErrors(execution.errors).build();
+            }
+
+            // write final result with the options of the request
+            return ImmutableJqRequest.copyOf(getRequest()) //
+                    .withFilter(".") //
+                    .withInput(aggregate) //
+                    .execute();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while aggregating", e);
+        } catch (final ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new IllegalStateException("Unable to aggregate", e.getCause());
+        } finally {
+            pool.shutdownNow();
+            execution.close();
+        }
+    }
+
+    @Value.Check
+    protected void checkAggregate() {
+        Preconditions.checkState(getParallelism() > 0, "parallelism must be greater than zero");
+        Preconditions.checkState(getSliceSize() > 0, "sliceSize must be greater than zero");
+    }
+
+    /**
+     * Returns a request that writes results as compact JSON text, one per line, so that they can
+     * be combined.
+     */
+    private JqRequest partialRequest(final String filter) {
+        return ImmutableJqRequest.copyOf(getRequest()) //
+                .withFilter(filter) //
+                .withInput("") //
+                .withPretty(false) //
+                .withIndent(JqRequest.Indent.NONE) //
+                .withRawOutput(false) //
+                .withJoinOutput(false) //
+                .withStreamSeparator("\n");
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.immutables.value.Value;
+
+import com.google.common.base.Preconditions;
+import com.sun.jna.Memory;
+
+/**
+ * Pool of native memory buffers that are used to pass input text to libjq.
+ *
+ * Buffers are grouped into size classes that are powers of two, between
+ * {@link #getMinBufferSize()} and {@link #getMaxBufferSize()}. Buffers are returned to the pool
+ * explicitly once the parser that reads them has been freed, instead of waiting for garbage
+ * collection. Buffers that are larger than the largest size class, or that would cause the pool
+ * to retain more than {@link #getMaxPooledBytes()}, are freed immediately when released.
+ */
+@Value.Immutable
+public abstract class JqBufferPool {
+    /**
+     * Returns a buffer of at least the given size. The buffer must be returned with
+     * {@link #release(Memory)}.
+     *
+     * @param size
+     *            minimum size of buffer
+     * @return a buffer of at least the given size
+     */
+    public Memory acquire(final long size) {
+        Preconditions.checkArgument(size >= 0, "size must be non-negative");
+        getAcquireCount().incrementAndGet();
+
+        final int sizeClass = sizeClass(size);
+        if (sizeClass == -1) {
+            getAllocationCount().incrementAndGet();
+            return new Memory(Math.max(1, size));
+        }
+
+        final Memory memory = getBuffers()[sizeClass].poll();
+        if (memory != null) {
+            getPooledByteCount().addAndGet(-memory.size());
+            return memory;
+        }
+
+        getAllocationCount().incrementAndGet();
+        return new Memory(getMinBufferSize() << sizeClass);
+    }
+
+    /**
+     * Returns the number of buffers that have been requested.
+     *
+     * @return the number of buffers that have been requested
+     */
+    public long getAcquired() {
+        return getAcquireCount().get();
+    }
+
+    /**
+     * Returns the number of buffers that have been allocated because no pooled buffer was
+     * available.
+     *
+     * @return the number of buffers that have been allocated
+     */
+    public long getAllocated() {
+        return getAllocationCount().get();
+    }
+
+    /**
+     * Returns the number of released buffers that were freed rather than pooled.
+     *
+     * @return the number of released buffers that were freed rather than pooled
+     */
+    public long getFreed() {
+        return getFreeCount().get();
+    }
+
+    /**
+     * Returns the size of the largest pooled buffer; larger buffers are never pooled.
+     *
+     * @return the size of the largest pooled buffer
+     */
+    @Value.Default
+    public int getMaxBufferSize() {
+        return 16 * 1024 * 1024;
+    }
+
+    /**
+     * Returns the maximum number of bytes retained by idle buffers in the pool.
+     *
+     * @return the maximum number of bytes retained by idle buffers in the pool
+     */
+    @Value.Default
+    public long getMaxPooledBytes() {
+        return 64L * 1024 * 1024;
+    }
+
+    /**
+     * Returns the size of the smallest buffer.
+     *
+     * @return the size of the smallest buffer
+     */
+    @Value.Default
+    public int getMinBufferSize() {
+        return 4 * 1024;
+    }
+
+    /**
+     * Returns the number of bytes currently retained by idle buffers in the pool.
+     *
+     * @return the number of bytes currently retained by idle buffers in the pool
+     */
+    public long getPooledBytes() {
+        return getPooledByteCount().get();
+    }
+
+    /**
+     * Returns a buffer to the pool, or frees it if it cannot be pooled. The buffer must not be
+     * used after it is released.
+     *
+     * @param memory
+     *            buffer returned by {@link #acquire(long)}
+     */
+    public void release(final Memory memory) {
+        if (memory == null) {
+            return;
+        }
+
+        final long size = memory.size();
+        final int sizeClass = sizeClass(size);
+        if (sizeClass != -1 && getMinBufferSize() << sizeClass == size) {
+            final AtomicLong pooled = getPooledByteCount();
+            for (;;) {
+                final long current = pooled.get();
+                if (current + size > getMaxPooledBytes()) {
+                    break;
+                }
+                if (pooled.compareAndSet(current, current + size)) {
+                    getBuffers()[sizeClass].offer(memory);
+                    return;
+                }
+            }
+        }
+
+        getFreeCount().incrementAndGet();
+        memory.close();
+    }
+
+    @Value.Check
+    protected void checkPool() {
+        Preconditions.checkState(
+                Integer.bitCount(getMinBufferSize()) == 1,
+                "minBufferSize must be a power of two");
+        Preconditions.checkState(
+                Integer.bitCount(getMaxBufferSize()) == 1,
+                "maxBufferSize must be a power of two");
+        Preconditions.checkState(
+                getMaxBufferSize() >= getMinBufferSize(),
+                "maxBufferSize must be at least minBufferSize");
+        Preconditions.checkState(getMaxPooledBytes() >= 0, "maxPooledBytes must be non-negative");
+    }
+
+    @Value.Lazy
+    @Value.Auxiliary
+    AtomicLong getAcquireCount() {
+        return new AtomicLong();
+    }
+
+    @Value.Lazy
+    @Value.Auxiliary
+    AtomicLong getAllocationCount() {
+        return new AtomicLong();
+    }
+
+    @Value.Lazy
+    @Value.Auxiliary
+    Queue<Memory>[] getBuffers() {
+        final int classes = sizeClass(getMaxBufferSize()) + 1;
+        @SuppressWarnings("unchecked")
+        final Queue<Memory>[] buffers = new Queue[classes];
+        for (int i = 0; i < classes; i++) {
+            buffers[i] = new ConcurrentLinkedQueue<>();
+        }
+        return buffers;
+    }
+
+    @Value.Lazy
+    @Value.Auxiliary
+    AtomicLong getFreeCount() {
+        return new AtomicLong();
+    }
+
+    @Value.Lazy
+    @Value.Auxiliary
+    AtomicLong getPooledByteCount() {
+        return new AtomicLong();
+    }
+
+    /**
+     * Returns the index of the smallest size class that can hold the given number of bytes, or -1
+     * if the size exceeds the largest size class.
+     */
+    private int sizeClass(final long size) {
+        if (size > getMaxBufferSize()) {
+            return -1;
+        }
+        final long min = getMinBufferSize();
+        if (size <= min) {
+            return 0;
+        }
+        // number of doublings needed to go from min to a value >= size
+        final int shift = 64 - Long.numberOfLeadingZeros(size - 1) - Long.numberOfTrailingZeros(min);
+        return (min << shift) > getMaxBufferSize() ? -1 : shift;
+    }
+}
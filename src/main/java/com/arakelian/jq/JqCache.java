@@ -0,0 +1,258 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.immutables.value.Value;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Optional cache of {@link JqResponse} values that sits in front of {@link JqRequest#execute()}.
+ *
+ * Responses are keyed by a digest of everything that can influence the output of a request: the
+ * filter, the <code>--argjson</code> values, the module paths, the dump flags, the stream
+ * separator and the input text. The cache is bounded by the approximate number of bytes retained,
+ * and least-recently used entries are evicted first. Outputs larger than
+ * {@link #getOffHeapThreshold()} are stored outside of the Java heap.
+ *
+ * Filters that are not deterministic (e.g. that use <code>now</code>, <code>$ENV</code> or
+ * <code>input_filename</code>) should not be executed with a cache.
+ */
+@Value.Immutable
+public abstract class JqCache {
+    static final class Entry {
+        private final List<String> errors;
+        private final String output;
+        private final ByteBuffer offHeap;
+        private final int weight;
+
+        private Entry(final JqResponse response, final int offHeapThreshold) {
+            this.errors = ImmutableList.copyOf(response.getErrors());
+
+            final String out = response.getOutput();
+            int size = ENTRY_OVERHEAD;
+            for (final String error : errors) {
+                size = saturatedAdd(size, 2 * error.length());
+            }
+            if (out.length() >= offHeapThreshold) {
+                final byte[] bytes = out.getBytes(Charsets.UTF_8);
+                this.offHeap = ByteBuffer.allocateDirect(bytes.length);
+                this.offHeap.put(bytes).flip();
+                this.output = null;
+                size = saturatedAdd(size, bytes.length);
+            } else {
+                this.offHeap = null;
+                this.output = out;
+                size = saturatedAdd(size, 2 * out.length());
+            }
+            this.weight = size;
+        }
+
+        private JqResponse toResponse() {
+            final String out;
+            if (offHeap != null) {
+                final ByteBuffer buf = offHeap.duplicate();
+                final byte[] bytes = new byte[buf.remaining()];
+                buf.get(bytes);
+                out = new String(bytes, Charsets.UTF_8);
+            } else {
+                out = output;
+            }
+            return ImmutableJqResponse.builder() //
+                    .errors(errors) //
+                    .output(out) //
+                    .build();
+        }
+    }
+
+    /** Approximate number of bytes used by a cache entry, excluding its content **/
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private static int saturatedAdd(final int a, final int b) {
+        final long sum = (long) a + b;
+        return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) sum;
+    }
+
+    /**
+     * Returns the cached response for the given request, executing the request if there is no
+     * cached response.
+     *
+     * @param request
+     *            request to execute
+     * @return response for the given request
+     */
+    public JqResponse execute(final JqRequest request) {
+        final HashCode key = keyOf(request);
+        try {
+            final Entry entry = getCache().get(key, () -> {
+                final Entry loaded = new Entry(request.executeUncached(), getOffHeapThreshold());
+                getRetainedBytesCounter().addAndGet(loaded.weight);
+                return loaded;
+            });
+            return entry.toResponse();
+        } catch (final ExecutionException | UncheckedExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Unable to execute jq request", cause);
+        }
+    }
+
+    @Value.Lazy
+    @Value.Auxiliary
+    Cache<HashCode, Entry> getCache() {
+        return CacheBuilder.newBuilder() //
+                .maximumWeight(getMaximumBytes()) //
+                .weigher((final HashCode key, final Entry value) -> value.weight) //
+                .removalListener(notification -> {
+                    final Entry entry = notification.getValue();
+                    if (entry != null) {
+                        getRetainedBytesCounter().addAndGet(-entry.weight);
+                    }
+                }) //
+                .recordStats() //
+                .build();
+    }
+
+    /**
+     * Returns the maximum number of bytes retained by the cache before least-recently used entries
+     * are evicted.
+     *
+     * @return maximum number of bytes retained by the cache
+     */
+    @Value.Default
+    public long getMaximumBytes() {
+        return 64L * 1024 * 1024;
+    }
+
+    /**
+     * Returns the output length, in characters, at which cached output is stored off-heap.
+     *
+     * @return output length at which cached output is stored off-heap
+     */
+    @Value.Default
+    public int getOffHeapThreshold() {
+        return 64 * 1024;
+    }
+
+    /**
+     * Returns the approximate number of bytes currently retained by the cache.
+     *
+     * @return approximate number of bytes currently retained by the cache
+     */
+    public long getRetainedBytes() {
+        return getRetainedBytesCounter().get();
+    }
+
+    @Value.Lazy
+    @Value.Auxiliary
+    AtomicLong getRetainedBytesCounter() {
+        return new AtomicLong();
+    }
+
+    /**
+     * Returns hit, miss and eviction counts for this cache.
+     *
+     * @return hit, miss and eviction counts for this cache
+     */
+    public CacheStats getStats() {
+        return getCache().stats();
+    }
+
+    /**
+     * Discards all cached responses.
+     */
+    public void invalidateAll() {
+        getCache().invalidateAll();
+    }
+
+    @Value.Check
+    protected void checkCache() {
+        Preconditions.checkState(getMaximumBytes() > 0, "maximumBytes must be greater than zero");
+        Preconditions.checkState(getOffHeapThreshold() >= 0, "offHeapThreshold must be non-negative");
+    }
+
+    private HashCode keyOf(final JqRequest request) {
+        final Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, request.getFilter());
+
+        final Map<String, String> argJson = new TreeMap<>(request.getArgJson());
+        hasher.putInt(argJson.size());
+        for (final Map.Entry<String, String> arg : argJson.entrySet()) {
+            putString(hasher, arg.getKey());
+            putString(hasher, arg.getValue());
+        }
+
+        final List<File> modulePaths = request.getModulePaths();
+        hasher.putInt(modulePaths.size());
+        for (final File file : modulePaths) {
+            putString(hasher, file.getPath());
+        }
+
+        final List<JqModuleBundle> bundles = request.getModuleBundles();
+        hasher.putInt(bundles.size());
+        for (final JqModuleBundle bundle : bundles) {
+            putString(hasher, bundle.getResourcePath());
+            hasher.putInt(bundle.getModules().size());
+            for (final String module : bundle.getModules()) {
+                putString(hasher, module);
+            }
+            final Map<String, String> sources = new TreeMap<>(bundle.getSources());
+            hasher.putInt(sources.size());
+            for (final Map.Entry<String, String> source : sources.entrySet()) {
+                putString(hasher, source.getKey());
+                putString(hasher, source.getValue());
+            }
+        }
+
+        hasher.putInt(request.getDumpFlags());
+        hasher.putBoolean(request.isRawOutput());
+        hasher.putBoolean(request.isJoinOutput());
+        putString(hasher, request.getStreamSeparator());
+        hasher.putLong(request.getMaxNativeBytes().orElse(0));
+        putString(hasher, request.getInput());
+        return hasher.hash();
+    }
+
+    private void putString(final Hasher hasher, final String value) {
+        // length prefix prevents ambiguity between adjacent values
+        hasher.putInt(value.length());
+        hasher.putString(value, Charsets.UTF_8);
+    }
+}
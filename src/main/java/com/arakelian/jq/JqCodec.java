@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import java.util.ServiceLoader;
+
+/**
+ * Decodes a compressed input stream before it is parsed by jq.
+ *
+ * Codecs other than the standard ones can be registered with {@link ServiceLoader}, by listing
+ * them in <code>META-INF/services/com.arakelian.jq.JqCodec</code>, and are then found by
+ * {@link #forName(String)}.
+ */
+public interface JqCodec {
+    /** Input that is not compressed **/
+    JqCodec NONE = StandardCodec.NONE;
+
+    /** Input that is compressed with gzip **/
+    JqCodec GZIP = StandardCodec.GZIP;
+
+    /**
+     * Returns the codec with the given name, such as <code>gzip</code>, if one is available.
+     *
+     * @param name
+     *            codec name, which is not case-sensitive
+     * @return the codec with the given name
+     */
+    public static Optional<JqCodec> forName(final String name) {
+        for (final JqCodec codec : StandardCodec.values()) {
+            if (codec.getName().equalsIgnoreCase(name)) {
+                return Optional.of(codec);
+            }
+        }
+        for (final JqCodec codec : ServiceLoader.load(JqCodec.class)) {
+            if (codec.getName().equalsIgnoreCase(name)) {
+                return Optional.of(codec);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Returns a stream that decodes the given stream. Closing the returned stream must close the
+     * given stream.
+     *
+     * @param in
+     *            encoded stream
+     * @return decoded stream
+     * @throws IOException
+     *             if the stream cannot be decoded
+     */
+    public InputStream decode(InputStream in) throws IOException;
+
+    /**
+     * Returns the name of this codec, e.g. <code>gzip</code>.
+     *
+     * @return the name of this codec
+     */
+    public String getName();
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import org.immutables.value.Value;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A typed column that is extracted from each result by a {@link JqExtractor}.
+ */
+@Value.Immutable
+public abstract class JqColumn {
+    /**
+     * Type of the values of a column. Values of any other JSON type are stored as nulls.
+     */
+    public enum Type {
+        /** <code>true</code> and <code>false</code> **/
+        BOOLEAN,
+
+        /** Numbers **/
+        DOUBLE,
+
+        /** Numbers that are integers within the range of a <code>long</code> **/
+        LONG,
+
+        /** Strings **/
+        STRING;
+    }
+
+    /**
+     * Returns a column whose values are extracted by the filter <code>.name</code>.
+     *
+     * @param name
+     *            name of column, which must be a valid jq identifier
+     * @param type
+     *            type of column
+     * @return a column whose values are extracted by the filter <code>.name</code>
+     */
+    public static JqColumn of(final String name, final Type type) {
+        return ImmutableJqColumn.builder() //
+                .name(name) //
+                .type(type) //
+                .build();
+    }
+
+    /**
+     * Returns a column whose values are extracted by the given filter.
+     *
+     * @param name
+     *            name of column
+     * @param type
+     *            type of column
+     * @param path
+     *            jq filter that is applied to each result; the first value it produces is stored
+     * @return a column whose values are extracted by the given filter
+     */
+    public static JqColumn of(final String name, final Type type, final String path) {
+        return ImmutableJqColumn.builder() //
+                .name(name) //
+                .type(type) //
+                .path(path) //
+                .build();
+    }
+
+    public abstract String getName();
+
+    /**
+     * Returns the jq filter that is applied to each result to produce the value of this column.
+     * Only the first value that the filter produces is stored; if it produces no values, a null
+     * is stored.
+     *
+     * @return the jq filter that produces the value of this column
+     */
+    @Value.Default
+    public String getPath() {
+        return "." + getName();
+    }
+
+    public abstract Type getType();
+
+    @Value.Check
+    protected void checkColumn() {
+        Preconditions.checkState(!getName().isEmpty(), "name must be non-empty");
+        Preconditions.checkState(!getPath().trim().isEmpty(), "path must be non-empty");
+    }
+}
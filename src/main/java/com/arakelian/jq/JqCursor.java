@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static java.util.logging.Level.FINE;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+
+import com.arakelian.jq.JqLibrary.Jv;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Utf8;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Pulls the results of a jq program one at a time.
+ *
+ * Results are only computed when requested: <code>jq_next</code> is not called until the caller
+ * asks for the next result, and input documents are not parsed until the results of the previous
+ * document are consumed. Closing a cursor stops execution immediately and releases all native
+ * resources, so callers that only need the first few results do not pay for the rest.
+ *
+ * <pre>
+ * try (JqCursor cursor = request.open()) {
+ *     if (cursor.hasNext()) {
+ *         String first = cursor.next();
+ *     }
+ * }
+ * </pre>
+ *
+ * A cursor must be closed, and must not be used by more than one thread at a time.
+ */
+public final class JqCursor implements Closeable, Iterator<String> {
+    private static final Logger LOGGER = Logger.getLogger(JqCursor.class.getName());
+
+    private final JqProgram program;
+
+    private final JqLibrary lib;
+
+    /** True if the program should be closed with the cursor **/
+    private final boolean ownsProgram;
+
+    /** Program errors, or null if the cursor is open **/
+    private List<String> errors;
+
+    private JqParser parser;
+
+    /** Input JSON, which is recorded by the profiler when the cursor is released **/
+    private String input;
+
+    /** Execution event, or null if the program did not compile **/
+    private JqEvents.Execute event;
+
+    private long inputBytes;
+
+    private long outputBytes;
+
+    /** True if results of the current input document are being consumed **/
+    private boolean started;
+
+    /** Next result, or null if it has not been computed yet **/
+    private String pending;
+
+    private boolean done;
+
+    /**
+     * Opens a cursor over the results of the given program. Caller must hold the jq lock.
+     */
+    JqCursor(final JqProgram program, final String input, final boolean ownsProgram) {
+        this.program = program;
+        this.lib = program.getLib();
+        this.ownsProgram = ownsProgram;
+
+        if (program.begin() == null) {
+            // program did not compile
+            errors = program.getCompileErrors();
+            done = true;
+            return;
+        }
+        program.attach();
+        event = new JqEvents.Execute();
+        event.begin();
+
+        final byte[] bytes = input.getBytes(Charsets.UTF_8);
+        this.input = input;
+        this.inputBytes = bytes.length;
+        parser = new JqParser(lib);
+        parser.setBuf(bytes, 0, bytes.length, true);
+        program.suspend();
+    }
+
+    @Override
+    public void close() {
+        JqLock.lockForRelease();
+        try {
+            release();
+            if (ownsProgram) {
+                program.close();
+            }
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the errors reported so far. Errors are not reported until the results that follow
+     * them have been requested.
+     *
+     * @return the errors reported so far
+     */
+    public List<String> getErrors() {
+        JqLock.lock();
+        try {
+            return errors != null ? errors : ImmutableList.copyOf(program.getErrors());
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (pending == null && !done) {
+            JqLock.lock();
+            try {
+                program.resume();
+                advance();
+            } finally {
+                if (!done) {
+                    // other executions may run before the next result is requested
+                    program.suspend();
+                }
+                JqLock.unlock();
+            }
+        }
+        return pending != null;
+    }
+
+    @Override
+    public String next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final String next = pending;
+        pending = null;
+        return next;
+    }
+
+    private void advance() {
+        Preconditions.checkState(parser != null, "Cursor has been closed");
+        for (;;) {
+            if (started) {
+                final Jv next = program.next();
+                if (next != null) {
+                    pending = program.dump(next);
+                    program.addResult();
+                    outputBytes += Utf8.encodedLength(pending);
+                    return;
+                }
+                started = false;
+            }
+
+            final Jv parsed = program.nextInput(parser.getPointer());
+            if (parsed == null) {
+                // release native resources as soon as input is exhausted
+                LOGGER.log(FINE, "Finishing with parser");
+                release();
+                return;
+            }
+            program.start(parsed, JqProgram.NO_BINDINGS);
+            started = true;
+        }
+    }
+
+    private void release() {
+        done = true;
+        if (parser != null) {
+            parser.close();
+            parser = null;
+            errors = ImmutableList.copyOf(program.getErrors());
+            program.commit(event, input, inputBytes, outputBytes);
+            program.detach();
+            input = null;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.util.Collection;
+import java.util.Map;
+
+import com.arakelian.jq.JqLibrary.Jv;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * A JSON document that is parsed once and can then be transformed by any number of filters.
+ *
+ * Parsing a large document can be more expensive than running a simple filter against it. A
+ * document keeps the parsed native value alive, and each execution takes its own reference to it,
+ * so the parse cost is paid once no matter how many filters are run.
+ *
+ * <pre>
+ * try (JqDocument document = JqDocument.parse(library, json)) {
+ *     Map&lt;String, JqResponse&gt; results = document.runAll(ImmutableList.of(".id", ".user.name"));
+ * }
+ * </pre>
+ */
+public final class JqDocument extends JqValue {
+    /**
+     * Parses the given JSON text.
+     *
+     * @param lib
+     *            jq library
+     * @param json
+     *            JSON text
+     * @return parsed document, which must be closed
+     * @throws IllegalArgumentException
+     *             if the text is not valid JSON
+     */
+    public static JqDocument parse(final JqLibrary lib, final String json) throws IllegalArgumentException {
+        Preconditions.checkArgument(lib != null, "lib must be non-null");
+        Preconditions.checkArgument(json != null, "json must be non-null");
+        JqLock.lock();
+        try {
+            return new JqDocument(lib, parseJv(lib, json));
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    private JqDocument(final JqLibrary lib, final Jv value) {
+        super(lib, value);
+    }
+
+    /**
+     * Runs a compiled program against this document.
+     *
+     * @param program
+     *            compiled program
+     * @return response
+     */
+    public JqResponse run(final JqProgram program) {
+        return program.execute(this, ImmutableMap.of());
+    }
+
+    /**
+     * Runs each of the given filters against this document, using default request options.
+     *
+     * @param filters
+     *            jq filters
+     * @return responses keyed by filter, in the same order as the filters
+     */
+    public Map<String, JqResponse> runAll(final Collection<String> filters) {
+        return runAll(ImmutableJqRequest.builder().lib(getLib()).input("").build(), filters);
+    }
+
+    /**
+     * Runs each of the given filters against this document, using the options of the given
+     * request, e.g. module paths and output formatting.
+     *
+     * @param template
+     *            request whose options are used; its filter and input are ignored
+     * @param filters
+     *            jq filters
+     * @return responses keyed by filter, in the same order as the filters
+     */
+    public Map<String, JqResponse> runAll(final JqRequest template, final Collection<String> filters) {
+        final Map<String, JqResponse> responses = Maps.newLinkedHashMap();
+        JqLock.lock();
+        try {
+            for (final String filter : filters) {
+                final JqRequest request = ImmutableJqRequest.copyOf(template).withFilter(filter);
+                try (JqProgram program = request.compile()) {
+                    responses.put(filter, run(program));
+                }
+            }
+        } finally {
+            JqLock.unlock();
+        }
+        return responses;
+    }
+
+    /**
+     * Runs each of the given programs against this document.
+     *
+     * @param programs
+     *            compiled programs, keyed by name
+     * @return responses keyed by name, in the same order as the programs
+     */
+    public Map<String, JqResponse> runAll(final Map<String, JqProgram> programs) {
+        final Map<String, JqResponse> responses = Maps.newLinkedHashMap();
+        JqLock.lock();
+        try {
+            for (final Map.Entry<String, JqProgram> entry : programs.entrySet()) {
+                responses.put(entry.getKey(), run(entry.getValue()));
+            }
+        } finally {
+            JqLock.unlock();
+        }
+        return responses;
+    }
+}
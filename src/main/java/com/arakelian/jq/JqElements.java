@@ -0,0 +1,301 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Supplier;
+
+import org.immutables.value.Value;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Runs a filter against every element of a large top-level JSON array, splitting the array into
+ * ranges of elements that are processed in parallel; equivalent to <code>.[] | f</code>, where
+ * <code>f</code> is the filter of {@link #getRequest()}. Results are returned in the order of the
+ * elements.
+ *
+ * The boundaries of the elements are found by a single scan in Java with {@link JqScanner},
+ * without parsing the elements themselves. Each range is then handed to a worker thread of
+ * {@link #getPool()} with its own copy of the program. Filters that qualify for the pure-Java fast
+ * path (see {@link JqRequest#isFastPath()}) run fully in parallel; calls into libjq itself are
+ * serialized by the jq lock, since libjq is not thread-safe, but still overlap with the
+ * preparation of other ranges.
+ *
+ * Because each element is a separate input of the filter, execution continues with the next
+ * element after an error, as it does for a stream of values, rather than stopping at the first
+ * error like <code>.[] | f</code>. Input that is not a single array is executed as
+ * <code>.[] | f</code> by a single thread.
+ *
+ * <pre>
+ * JqResponse response = ImmutableJqElements.builder() //
+ *         .request(request) //
+ *         .build() //
+ *         .execute(input);
+ * </pre>
+ */
+@Value.Immutable
+public abstract class JqElements {
+    /**
+     * State of a single execution of the filter against the elements of an array.
+     */
+    private final class Execution {
+        /** Programs compiled by worker threads, which are closed when execution finishes **/
+        private final List<JqProgram> programs = Collections.synchronizedList(Lists.newArrayList());
+
+        private final ThreadLocal<JqProgram> program = ThreadLocal.withInitial(() -> {
+            final JqProgram compiled = getRequest().compile();
+            programs.add(compiled);
+            return compiled;
+        });
+
+        private void close() {
+            for (final JqProgram compiled : programs) {
+                compiled.close();
+            }
+        }
+
+        private JqResponse execute(final String text) {
+            final JqRequest request = getRequest();
+            if (request.isFastPath()) {
+                final JqResponse response = JqFastPath.execute(ImmutableJqRequest.copyOf(request).withInput(text));
+                if (response != null) {
+                    return response;
+                }
+            }
+            return program.get().execute(text);
+        }
+    }
+
+    /**
+     * Processes a range of elements, whose text is built by the worker thread.
+     */
+    private final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Execution execution;
+        private final Supplier<String> text;
+        private JqResponse response;
+
+        private RangeTask(final Execution execution, final Supplier<String> text) {
+            this.execution = execution;
+            this.text = text;
+        }
+
+        @Override
+        protected void compute() {
+            response = execution.execute(text.get());
+        }
+    }
+
+    /**
+     * Returns the text of the given elements, as a stream of values, one per line.
+     *
+     * @param offsets
+     *            start and end offsets of elements, in pairs
+     * @param from
+     *            index of the start offset of the first element
+     * @param to
+     *            index that follows the end offset of the last element
+     */
+    private static String text(final ByteBuffer input, final int[] offsets, final int from, final int to) {
+        int length = 0;
+        for (int i = from; i < to; i += 2) {
+            length += offsets[i + 1] - offsets[i] + 1;
+        }
+        final byte[] bytes = new byte[length];
+        final ByteBuffer buf = input.duplicate();
+        int pos = 0;
+        for (int i = from; i < to; i += 2) {
+            final int size = offsets[i + 1] - offsets[i];
+            buf.limit(offsets[i + 1]).position(offsets[i]);
+            buf.get(bytes, pos, size);
+            pos += size;
+            bytes[pos++] = '\n';
+        }
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    /**
+     * Executes the filter against every element of the given array.
+     *
+     * @param input
+     *            JSON text of an array
+     * @return response that contains the results of all elements, in order
+     */
+    public JqResponse execute(final String input) {
+        Preconditions.checkArgument(input != null, "input must be non-null");
+        final ByteBuffer bytes = ByteBuffer.wrap(input.getBytes(Charsets.UTF_8));
+        final int[] elements = JqScanner.elements(bytes);
+        return elements == null ? executeSerially(input) : execute(bytes, elements);
+    }
+
+    /**
+     * Executes the filter against every element of the given array. Unlike
+     * {@link #execute(String)}, the input does not need to be encoded, and only the elements of
+     * each range are decoded, by the thread that processes it. The position of the buffer is not
+     * changed.
+     *
+     * @param input
+     *            UTF-8 encoded JSON text of an array, between the position and limit of the
+     *            buffer, e.g. a memory-mapped file
+     * @return response that contains the results of all elements, in order
+     */
+    public JqResponse execute(final ByteBuffer input) {
+        Preconditions.checkArgument(input != null, "input must be non-null");
+        final int[] elements = JqScanner.elements(input);
+        if (elements == null) {
+            return executeSerially(text(input, new int[] { input.position(), input.limit() }, 0, 2));
+        }
+        return execute(input, elements);
+    }
+
+    /**
+     * Returns the number of worker threads of the default {@link #getPool()}.
+     *
+     * @return the number of worker threads
+     */
+    @Value.Default
+    public int getParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns the pool that processes ranges of elements in parallel. By default, a pool with
+     * {@link #getParallelism()} threads is shared by every execution of this instance; its threads
+     * are daemons that exit when they are idle. The pool is never shut down by this class.
+     *
+     * @return the pool that processes ranges of elements
+     */
+    @Value.Default
+    @Value.Auxiliary
+    public ForkJoinPool getPool() {
+        return new ForkJoinPool(getParallelism());
+    }
+
+    /**
+     * Returns the approximate size, in bytes of UTF-8 encoded text, of the ranges of elements that
+     * are processed separately.
+     *
+     * @return the approximate size of each range of elements
+     */
+    @Value.Default
+    public int getRangeSize() {
+        return 1024 * 1024;
+    }
+
+    /**
+     * Returns the request whose filter, options and library are used for every element; its
+     * input is ignored.
+     *
+     * @return the request that is used for every element
+     */
+    public abstract JqRequest getRequest();
+
+    @Value.Check
+    protected void checkElements() {
+        Preconditions.checkState(getParallelism() > 0, "parallelism must be greater than zero");
+        Preconditions.checkState(getRangeSize() > 0, "rangeSize must be greater than zero");
+    }
+
+    /**
+     * Executes the filter against the given elements of the given array, in ranges.
+     *
+     * @param elements
+     *            start and end offsets of elements, in pairs
+     */
+    private JqResponse execute(final ByteBuffer input, final int[] elements) {
+        final Execution execution = new Execution();
+        try {
+            final List<RangeTask> ranges = Lists.newArrayList();
+            int from = 0;
+            int size = 0;
+            for (int i = 0; i < elements.length; i += 2) {
+                size += elements[i + 1] - elements[i];
+                if (size >= getRangeSize() || i == elements.length - 2) {
+                    final int start = from;
+                    final int end = i + 2;
+                    ranges.add(new RangeTask(execution, () -> text(input, elements, start, end)));
+                    from = end;
+                    size = 0;
+                }
+            }
+            return invoke(ranges);
+        } finally {
+            execution.close();
+        }
+    }
+
+    /**
+     * Executes <code>.[] | f</code> against the given input on the calling thread.
+     */
+    private JqResponse executeSerially(final String input) {
+        final String filter = getRequest().getFilter();
+        final int body = JqProgram.skipDirectives(filter);
+        final StringBuilder buf = new StringBuilder(filter.length() + 16);
+        buf.append(filter, 0, body).append(".[] | (").append(filter, body, filter.length()).append("\n)");
+        return ImmutableJqRequest.copyOf(getRequest()) //
+                .withFilter(buf.toString()) //
+                .withInput(input) //
+                .execute();
+    }
+
+    private JqResponse invoke(final List<RangeTask> ranges) {
+        if (ranges.size() <= 1) {
+            // nothing to do in parallel
+            for (final RangeTask range : ranges) {
+                range.compute();
+            }
+        } else {
+            getPool().invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(ranges);
+                }
+            });
+        }
+        return merge(ranges);
+    }
+
+    private JqResponse merge(final List<RangeTask> ranges) {
+        final JqRequest request = getRequest();
+        final String separator = request.isJoinOutput() ? "" : request.getStreamSeparator();
+        final ImmutableJqResponse.Builder response = ImmutableJqResponse.builder();
+        final StringBuilder output = new StringBuilder();
+        for (final RangeTask range : ranges) {
+            response.addAllErrors(range.response.getErrors());
+            final String out = range.response.getOutput();
+            if (out.isEmpty()) {
+                continue;
+            }
+            if (output.length() != 0) {
+                output.append(separator);
+            }
+            output.append(out);
+        }
+        return response.output(output.toString()).build();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events that are emitted by java-jq. Events are only committed when they are
+ * enabled in a recording, e.g. with <code>-XX:StartFlightRecording</code>.
+ */
+final class JqEvents {
+    @Name("jq.Compile")
+    @Label("jq Compile")
+    @Category("jq")
+    @Description("Compilation of a jq filter")
+    static final class Compile extends Event {
+        @Label("Filter")
+        String filter;
+
+        @Label("Success")
+        boolean success;
+
+        @Label("Error Count")
+        int errorCount;
+    }
+
+    @Name("jq.Dump")
+    @Label("jq Dump")
+    @Category("jq")
+    @Description("Conversion of a single jq result to text")
+    @StackTrace(false)
+    static final class Dump extends Event {
+        @Label("Output Size")
+        @DataAmount
+        long outputBytes;
+
+        @Label("Raw")
+        boolean raw;
+    }
+
+    @Name("jq.Execute")
+    @Label("jq Execute")
+    @Category("jq")
+    @Description("Execution of a compiled jq filter against input")
+    static final class Execute extends Event {
+        @Label("Filter")
+        String filter;
+
+        @Label("Input Size")
+        @DataAmount
+        long inputBytes;
+
+        @Label("Output Size")
+        @DataAmount
+        long outputBytes;
+
+        @Label("Result Count")
+        int resultCount;
+
+        @Label("Error Count")
+        int errorCount;
+
+        @Label("Fast Path")
+        @Description("True if the filter was evaluated in Java without calling libjq")
+        boolean fastPath;
+    }
+
+    @Name("jq.LockWait")
+    @Label("jq Lock Wait")
+    @Category("jq")
+    @Description("Time spent waiting for another thread to finish calling libjq")
+    static final class LockWait extends Event {
+        @Label("Queue Length")
+        int queueLength;
+    }
+
+    /** Maximum number of characters of filter text that are recorded **/
+    private static final int MAX_FILTER_LENGTH = 256;
+
+    static String truncate(final String filter) {
+        if (filter.length() <= MAX_FILTER_LENGTH) {
+            return filter;
+        }
+        return filter.substring(0, MAX_FILTER_LENGTH) + "...";
+    }
+
+    private JqEvents() {
+        // utility class
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+
+import com.arakelian.jq.JqLibrary.Jv;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Extracts typed columns from the results of a jq filter into a {@link JqTable}.
+ *
+ * Each result of the filter of the request becomes a row, and each column is computed by applying
+ * the path of the column to the result. Values are read directly from the native results: numbers
+ * and booleans are never formatted as text, and strings are decoded from their UTF-8 bytes without
+ * being JSON encoded, which makes extraction much cheaper than parsing the output of
+ * {@link JqProgram#execute(String)}.
+ *
+ * <pre>
+ * try (JqExtractor extractor = request.compileExtractor(ImmutableList.of( //
+ *         JqColumn.of("latency_ms", JqColumn.Type.DOUBLE), //
+ *         JqColumn.of("host", JqColumn.Type.STRING)))) {
+ *     JqTable table = extractor.extract(input);
+ *     double[] latencies = table.getDoubles("latency_ms");
+ * }
+ * </pre>
+ *
+ * Extractors must be closed to release native resources.
+ */
+public final class JqExtractor implements Closeable {
+    /** Bits of <code>kind_flags</code> that hold the kind of a value, see jv.c **/
+    private static final int KIND_MASK = 0x0F;
+
+    /**
+     * Compiles an extractor for the filter of the given request. Caller must hold the jq lock.
+     */
+    static JqExtractor compile(final JqRequest request, final Collection<JqColumn> columns) {
+        Preconditions.checkArgument(columns != null && columns.size() != 0, "columns must be non-empty");
+        final String filter = request.getFilter();
+        final int body = JqProgram.skipDirectives(filter);
+
+        // each result becomes an array with the first value of each column, or null
+        final StringBuilder buf = new StringBuilder(filter.length() + 64);
+        buf.append(filter, 0, body).append('(').append(filter, body, filter.length()).append("\n) | [");
+        int i = 0;
+        for (final JqColumn column : columns) {
+            if (i++ != 0) {
+                buf.append(", ");
+            }
+            buf.append("[first(").append(column.getPath()).append("\n)][0]");
+        }
+        buf.append(']');
+
+        final JqRequest rows = ImmutableJqRequest.copyOf(request).withFilter(buf.toString());
+        return new JqExtractor(JqProgram.compile(rows, ImmutableList.of()), columns);
+    }
+
+    private static int getKind(final Jv jv) {
+        return jv.kind_flags & KIND_MASK;
+    }
+
+    private final JqProgram program;
+
+    private final JqLibrary lib;
+
+    private final List<JqColumn> columns;
+
+    private final JqColumn.Type[] types;
+
+    private JqExtractor(final JqProgram program, final Collection<JqColumn> columns) {
+        this.program = program;
+        this.lib = program.getLib();
+        this.columns = ImmutableList.copyOf(columns);
+        this.types = new JqColumn.Type[this.columns.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = this.columns.get(i).getType();
+        }
+    }
+
+    @Override
+    public void close() {
+        program.close();
+    }
+
+    /**
+     * Returns a new table that contains the values extracted from the given JSON text, which may
+     * contain any number of JSON values.
+     *
+     * @param input
+     *            input JSON
+     * @return a new table that contains the extracted values
+     */
+    public JqTable extract(final String input) {
+        final JqTable table = new JqTable(columns);
+        extract(input, table);
+        return table;
+    }
+
+    /**
+     * Appends the values extracted from the given JSON text, which may contain any number of JSON
+     * values, to the given table. Errors are added to the table.
+     *
+     * @param input
+     *            input JSON
+     * @param table
+     *            table that was created with the columns of this extractor
+     */
+    public void extract(final String input, final JqTable table) {
+        Preconditions.checkArgument(input != null, "input must be non-null");
+        Preconditions.checkArgument(table != null, "table must be non-null");
+        Preconditions.checkArgument(table.getColumns().equals(columns), "table columns must match extractor");
+
+        JqLock.lock();
+        try {
+            if (program.begin() == null) {
+                table.addErrors(program.getCompileErrors());
+                return;
+            }
+
+            final JqEvents.Execute event = new JqEvents.Execute();
+            event.begin();
+            final byte[] bytes = input.getBytes(Charsets.UTF_8);
+            try (JqParser parser = new JqParser(lib)) {
+                parser.setBuf(bytes, 0, bytes.length, true);
+                for (;;) {
+                    final Jv parsed = program.nextInput(parser.getPointer());
+                    if (parsed == null) {
+                        break;
+                    }
+                    program.start(parsed, JqProgram.NO_BINDINGS);
+                    for (;;) {
+                        final Jv row = program.next();
+                        if (row == null) {
+                            break;
+                        }
+                        try {
+                            addRow(row, table);
+                            program.addResult();
+                        } finally {
+                            lib.jv_free(row);
+                        }
+                    }
+                }
+            }
+            program.commit(event, input, bytes.length, 0);
+            table.addErrors(program.getErrors());
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    public List<JqColumn> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the errors reported when the filter was compiled.
+     *
+     * @return the errors reported when the filter was compiled
+     */
+    public List<String> getCompileErrors() {
+        return program.getCompileErrors();
+    }
+
+    /**
+     * Returns true if the filter compiled successfully.
+     *
+     * @return true if the filter compiled successfully
+     */
+    public boolean isValid() {
+        return program.isValid();
+    }
+
+    /**
+     * Appends a row with the elements of the given array, which is not consumed. Kinds and numbers
+     * are read from the fields of each element, rather than with <code>jv_get_kind</code> and
+     * <code>jv_number_value</code>, to avoid two native calls per value. Caller must hold the jq
+     * lock.
+     */
+    private void addRow(final Jv row, final JqTable table) {
+        table.addRow();
+        for (int i = 0; i < types.length; i++) {
+            final Jv value = lib.jv_array_get(lib.jv_copy(row), i);
+            final int kind = getKind(value);
+            switch (types[i]) {
+            case BOOLEAN:
+                if (kind == JqLibrary.JV_KIND_TRUE || kind == JqLibrary.JV_KIND_FALSE) {
+                    table.setBoolean(i, kind == JqLibrary.JV_KIND_TRUE);
+                }
+                break;
+            case DOUBLE:
+                if (kind == JqLibrary.JV_KIND_NUMBER) {
+                    table.setDouble(i, value.u.number);
+                }
+                break;
+            case LONG:
+                if (kind == JqLibrary.JV_KIND_NUMBER) {
+                    final double number = value.u.number;
+                    if (number >= -0x1p63 && number < 0x1p63 && number == Math.rint(number)) {
+                        table.setLong(i, (long) number);
+                    }
+                }
+                break;
+            case STRING:
+                if (kind == JqLibrary.JV_KIND_STRING) {
+                    table.setString(i, new String(lib.jv_string_bytes(value), Charsets.UTF_8));
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unsupported column type: " + types[i]);
+            }
+
+            // numbers, booleans and nulls are not reference counted
+            if (kind >= JqLibrary.JV_KIND_STRING) {
+                lib.jv_free(value);
+            }
+        }
+    }
+}
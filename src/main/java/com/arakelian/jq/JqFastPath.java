@@ -0,0 +1,1019 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Utf8;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Evaluates trivial filters, such as <code>.</code>, <code>.foo</code>, <code>.a.b[0]</code> and
+ * <code>{a: .x, b: .y}</code>, in pure Java without calling libjq.
+ *
+ * The input is scanned without building the subtrees that the filter does not need, and selected
+ * values are written exactly as libjq would write them. Whenever the output could differ from
+ * libjq, e.g. because the input is not valid JSON, because a path cannot be applied to a value, or
+ * because a number cannot be formatted identically, evaluation is abandoned and the request is
+ * executed by libjq instead.
+ */
+final class JqFastPath {
+    /**
+     * Thrown when a filter or input cannot be handled by the fast path.
+     */
+    private static final class UnsupportedException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private static final UnsupportedException INSTANCE = new UnsupportedException();
+
+        private UnsupportedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Parses the supported subset of jq filter syntax.
+     */
+    private static final class FilterParser {
+        private final String filter;
+        private int pos;
+
+        private FilterParser(final String filter) {
+            this.filter = filter;
+        }
+
+        private JqFastPath parse() throws UnsupportedException {
+            skipWhitespace();
+            final JqFastPath fastPath;
+            if (peek() == '{') {
+                fastPath = parseObject();
+            } else {
+                fastPath = new JqFastPath(null, ImmutableList.of(parsePath()));
+            }
+            skipWhitespace();
+            if (pos != filter.length()) {
+                throw UnsupportedException.INSTANCE;
+            }
+            return fastPath;
+        }
+
+        private int parseIndex() throws UnsupportedException {
+            final int start = pos;
+            while (pos < filter.length() && isDigit(filter.charAt(pos))) {
+                pos++;
+            }
+            final int length = pos - start;
+            if (length == 0 || length > 9 || length > 1 && filter.charAt(start) == '0') {
+                throw UnsupportedException.INSTANCE;
+            }
+            return Integer.parseInt(filter.substring(start, pos));
+        }
+
+        private String parseIdentifier() throws UnsupportedException {
+            final int start = pos;
+            if (!isIdentifierStart(peek())) {
+                throw UnsupportedException.INSTANCE;
+            }
+            pos++;
+            while (pos < filter.length() && isIdentifierPart(filter.charAt(pos))) {
+                pos++;
+            }
+            return filter.substring(start, pos);
+        }
+
+        private JqFastPath parseObject() throws UnsupportedException {
+            expect('{');
+            final List<String> keys = Lists.newArrayList();
+            final List<Object[]> paths = Lists.newArrayList();
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return new JqFastPath(keys, paths);
+            }
+
+            for (;;) {
+                skipWhitespace();
+                final String key;
+                final boolean identifier;
+                if (peek() == '"') {
+                    key = parseString();
+                    identifier = false;
+                } else {
+                    key = parseIdentifier();
+                    identifier = true;
+                }
+                if (keys.contains(key)) {
+                    throw UnsupportedException.INSTANCE;
+                }
+                keys.add(key);
+
+                skipWhitespace();
+                if (peek() == ':') {
+                    pos++;
+                    skipWhitespace();
+                    paths.add(parsePath());
+                } else if (!identifier || !KEYWORDS.contains(key)) {
+                    // {a} is shorthand for {a: .a}
+                    paths.add(new Object[] { key });
+                } else {
+                    throw UnsupportedException.INSTANCE;
+                }
+
+                skipWhitespace();
+                final char ch = peek();
+                pos++;
+                if (ch == '}') {
+                    return new JqFastPath(keys, paths);
+                } else if (ch != ',') {
+                    throw UnsupportedException.INSTANCE;
+                }
+            }
+        }
+
+        private Object[] parsePath() throws UnsupportedException {
+            expect('.');
+            final List<Object> steps = Lists.newArrayList();
+
+            // first step may follow the leading dot directly
+            char ch = peek();
+            if (isIdentifierStart(ch)) {
+                steps.add(parseIdentifier());
+            } else if (ch == '"') {
+                steps.add(parseString());
+            } else if (ch == '[') {
+                steps.add(parseSubscript());
+            }
+
+            for (;;) {
+                ch = peek();
+                if (ch == '[') {
+                    steps.add(parseSubscript());
+                } else if (ch == '.') {
+                    pos++;
+                    ch = peek();
+                    if (isIdentifierStart(ch)) {
+                        steps.add(parseIdentifier());
+                    } else if (ch == '"') {
+                        steps.add(parseString());
+                    } else {
+                        throw UnsupportedException.INSTANCE;
+                    }
+                } else {
+                    return steps.toArray();
+                }
+            }
+        }
+
+        private String parseString() throws UnsupportedException {
+            expect('"');
+            final int start = pos;
+            for (;;) {
+                final char ch = peek();
+                if (ch == '"') {
+                    break;
+                }
+                // escapes and string interpolation are not supported, and filters are passed to libjq
+                // in the platform encoding, so we only support ASCII
+                if (ch == '\\' || ch < 0x20 || ch > 0x7e) {
+                    throw UnsupportedException.INSTANCE;
+                }
+                pos++;
+            }
+            final String value = filter.substring(start, pos);
+            pos++;
+            return value;
+        }
+
+        private Object parseSubscript() throws UnsupportedException {
+            expect('[');
+            skipWhitespace();
+            final Object step = peek() == '"' ? parseString() : Integer.valueOf(parseIndex());
+            skipWhitespace();
+            expect(']');
+            return step;
+        }
+
+        private void expect(final char expected) throws UnsupportedException {
+            if (peek() != expected) {
+                throw UnsupportedException.INSTANCE;
+            }
+            pos++;
+        }
+
+        private char peek() {
+            return pos < filter.length() ? filter.charAt(pos) : 0;
+        }
+
+        private void skipWhitespace() {
+            while (pos < filter.length() && isWhitespace(filter.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+
+    /**
+     * Position of a value that does not exist, e.g. the value of a missing key.
+     */
+    private static final int NULL = -1;
+
+    /**
+     * libjq refuses to parse documents nested deeper than 256 levels; we leave those to libjq.
+     */
+    private static final int MAX_DEPTH = 200;
+
+    /**
+     * libjq formats numbers with at most 17 significant digits; with 15 or fewer, the shortest
+     * representation of a number is exactly its significant digits.
+     */
+    private static final int MAX_SIGNIFICANT_DIGITS = 15;
+
+    /**
+     * Dump flags that do not affect compact output.
+     */
+    private static final int SUPPORTED_FLAGS = JqLibrary.JV_PRINT_SORTED | JqLibrary.JV_PRINT_TAB
+            | JqLibrary.JV_PRINT_SPACE0 | JqLibrary.JV_PRINT_SPACE1 | JqLibrary.JV_PRINT_SPACE2;
+
+    private static final Set<String> KEYWORDS = Sets.newHashSet(
+            "__loc__",
+            "and",
+            "as",
+            "catch",
+            "def",
+            "elif",
+            "else",
+            "end",
+            "foreach",
+            "if",
+            "import",
+            "include",
+            "label",
+            "module",
+            "or",
+            "reduce",
+            "then",
+            "try");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Orders object keys the way libjq does, by UTF-8 bytes, which is code point order **/
+    private static final Comparator<String> KEY_ORDER = (a, b) -> {
+        final int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; i++) {
+            final char ca = a.charAt(i);
+            final char cb = b.charAt(i);
+            if (ca != cb) {
+                // surrogates encode code points above every other UTF-16 unit
+                final boolean sa = Character.isSurrogate(ca);
+                final boolean sb = Character.isSurrogate(cb);
+                if (sa != sb) {
+                    return sa ? 1 : -1;
+                }
+                return ca - cb;
+            }
+        }
+        return a.length() - b.length();
+    };
+
+    /**
+     * Returns the fast path for the given filter, or null if the filter is not supported.
+     *
+     * @param filter
+     *            jq filter
+     * @return the fast path for the given filter, or null
+     */
+    static JqFastPath compile(final String filter) {
+        try {
+            return new FilterParser(filter).parse();
+        } catch (final UnsupportedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the response to the given request, or null if the request must be executed by libjq.
+     *
+     * @param request
+     *            request
+     * @return the response to the given request, or null
+     */
+    static JqResponse execute(final JqRequest request) {
+        if (request.getArgJson().size() != 0) {
+            return null;
+        }
+        final int flags = request.getDumpFlags();
+        if ((flags & ~SUPPORTED_FLAGS) != 0) {
+            return null;
+        }
+        final JqFastPath fastPath = compile(request.getFilter());
+        if (fastPath == null) {
+            return null;
+        }
+
+        final JqEvents.Execute event = new JqEvents.Execute();
+        event.begin();
+        final long cpuStart = JqProfiler.isEnabled() ? JqProfiler.cpuTime() : -1;
+
+        final String input = request.getInput();
+        final String separator = request.isJoinOutput() ? "" : request.getStreamSeparator();
+        final boolean sorted = (flags & JqLibrary.JV_PRINT_SORTED) != 0;
+        final String output = fastPath.execute(input, separator, sorted, request.isRawOutput());
+        if (output == null) {
+            // libjq executes the request, and reports it instead
+            return null;
+        }
+
+        // fast path executions are observable like executions by libjq
+        if (cpuStart != -1) {
+            final long cpuNanos = JqProfiler.cpuTime() - cpuStart;
+            JqProfiler.record(
+                    request,
+                    ImmutableList.of(),
+                    input,
+                    cpuNanos,
+                    Utf8.encodedLength(input),
+                    Utf8.encodedLength(output),
+                    fastPath.resultCount,
+                    0);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.filter = JqEvents.truncate(request.getFilter());
+            event.inputBytes = Utf8.encodedLength(input);
+            event.outputBytes = Utf8.encodedLength(output);
+            event.resultCount = fastPath.resultCount;
+            event.fastPath = true;
+            event.commit();
+        }
+        return ImmutableJqResponse.builder() //
+                .output(output) //
+                .build();
+    }
+
+    private static void appendQuoted(final StringBuilder out, final String value) {
+        out.append('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            final char ch = value.charAt(i);
+            if (ch >= 0x20 && ch <= 0x7e) {
+                if (ch == '"' || ch == '\\') {
+                    out.append('\\');
+                }
+                out.append(ch);
+            } else if (ch < 0x20 || ch == 0x7f) {
+                switch (ch) {
+                case '\b':
+                    out.append("\\b");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\f':
+                    out.append("\\f");
+                    break;
+                default:
+                    out.append("\\u00").append(HEX[ch >> 4]).append(HEX[ch & 0xf]);
+                    break;
+                }
+            } else {
+                out.append(ch);
+            }
+        }
+        out.append('"');
+    }
+
+    private static boolean isDigit(final char ch) {
+        return ch >= '0' && ch <= '9';
+    }
+
+    private static boolean isIdentifierPart(final char ch) {
+        return isIdentifierStart(ch) || isDigit(ch);
+    }
+
+    private static boolean isIdentifierStart(final char ch) {
+        return ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch == '_';
+    }
+
+    private static boolean isWhitespace(final char ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r';
+    }
+
+    /** Keys of object projection, or null if filter is a single path **/
+    private final List<String> keys;
+
+    /** Paths, where each step is a String key or an Integer index **/
+    private final List<Object[]> paths;
+
+    /** Input that is being evaluated **/
+    private String input;
+
+    /** Number of results of the last execution **/
+    private int resultCount;
+
+    private JqFastPath(final List<String> keys, final List<Object[]> paths) {
+        this.keys = keys;
+        this.paths = paths;
+    }
+
+    /**
+     * Returns the output of this filter for the given input, or null if the input must be
+     * evaluated by libjq.
+     */
+    String execute(final String text, final String separator, final boolean sorted, final boolean raw) {
+        input = text;
+        try {
+            final StringBuilder out = new StringBuilder();
+            final int length = input.length();
+            int count = 0;
+            int pos = skipWhitespace(0);
+            while (pos < length) {
+                // validate entire document, as libjq would
+                final int end = skipValue(pos, 0);
+                if (end < length && !isWhitespace(input.charAt(end))) {
+                    throw UnsupportedException.INSTANCE;
+                }
+
+                if (count++ != 0) {
+                    out.append(separator);
+                }
+                if (keys == null) {
+                    appendValue(out, resolve(pos, paths.get(0)), 0, sorted, raw);
+                } else {
+                    appendProjection(out, pos, sorted);
+                }
+                pos = skipWhitespace(end);
+            }
+            resultCount = count;
+            return out.toString();
+        } catch (final UnsupportedException e) {
+            return null;
+        } finally {
+            input = null;
+        }
+    }
+
+    private void appendArray(final StringBuilder out, final int start, final int depth, final boolean sorted)
+            throws UnsupportedException {
+        out.append('[');
+        int pos = skipWhitespace(start + 1);
+        if (input.charAt(pos) == ']') {
+            out.append(']');
+            return;
+        }
+        for (int i = 0;; i++) {
+            if (i != 0) {
+                out.append(',');
+            }
+            appendValue(out, pos, depth + 1, sorted, false);
+            pos = skipWhitespace(skipValue(pos, depth + 1));
+            if (input.charAt(pos) == ']') {
+                out.append(']');
+                return;
+            }
+            pos = skipWhitespace(pos + 1);
+        }
+    }
+
+    private void appendNumber(final StringBuilder out, final int start, final int end)
+            throws UnsupportedException {
+        int pos = start;
+        final boolean negative = input.charAt(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+
+        final StringBuilder digits = new StringBuilder(end - start);
+        int decimalPoint = 0;
+        while (pos < end && isDigit(input.charAt(pos))) {
+            digits.append(input.charAt(pos++));
+            decimalPoint++;
+        }
+        if (pos < end && input.charAt(pos) == '.') {
+            pos++;
+            while (pos < end && isDigit(input.charAt(pos))) {
+                digits.append(input.charAt(pos++));
+            }
+        }
+        if (pos != end) {
+            // exponents are not supported
+            throw UnsupportedException.INSTANCE;
+        }
+
+        // normalize to significant digits
+        int first = 0;
+        while (first < digits.length() && digits.charAt(first) == '0') {
+            first++;
+            decimalPoint--;
+        }
+        int last = digits.length();
+        while (last > first && digits.charAt(last - 1) == '0') {
+            last--;
+        }
+        if (first == last) {
+            if (negative) {
+                // negative zero
+                throw UnsupportedException.INSTANCE;
+            }
+            out.append('0');
+            return;
+        }
+
+        final int significant = last - first;
+        if (significant > MAX_SIGNIFICANT_DIGITS || decimalPoint <= -4 || decimalPoint > significant + 15) {
+            // libjq would use exponential notation
+            throw UnsupportedException.INSTANCE;
+        }
+
+        if (negative) {
+            out.append('-');
+        }
+        if (decimalPoint <= 0) {
+            out.append("0.");
+            for (int i = decimalPoint; i < 0; i++) {
+                out.append('0');
+            }
+            out.append(digits, first, last);
+        } else if (decimalPoint >= significant) {
+            out.append(digits, first, last);
+            for (int i = significant; i < decimalPoint; i++) {
+                out.append('0');
+            }
+        } else {
+            out.append(digits, first, first + decimalPoint);
+            out.append('.');
+            out.append(digits, first + decimalPoint, last);
+        }
+    }
+
+    private void appendObject(final StringBuilder out, final int start, final int depth, final boolean sorted)
+            throws UnsupportedException {
+        final List<String> names = Lists.newArrayList();
+        final List<Integer> values = Lists.newArrayList();
+
+        int pos = skipWhitespace(start + 1);
+        if (input.charAt(pos) != '}') {
+            for (;;) {
+                final StringBuilder name = new StringBuilder();
+                pos = skipWhitespace(parseString(pos, name));
+                pos = skipWhitespace(pos + 1);
+                names.add(name.toString());
+                values.add(Integer.valueOf(pos));
+                pos = skipWhitespace(skipValue(pos, depth + 1));
+                if (input.charAt(pos) == '}') {
+                    break;
+                }
+                pos = skipWhitespace(pos + 1);
+            }
+        }
+
+        if (Sets.newHashSet(names).size() != names.size()) {
+            // duplicate keys
+            throw UnsupportedException.INSTANCE;
+        }
+
+        final Integer[] order = new Integer[names.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        if (sorted) {
+            Arrays.sort(order, (a, b) -> KEY_ORDER.compare(names.get(a), names.get(b)));
+        }
+
+        out.append('{');
+        for (int i = 0; i < order.length; i++) {
+            if (i != 0) {
+                out.append(',');
+            }
+            final int index = order[i].intValue();
+            appendQuoted(out, names.get(index));
+            out.append(':');
+            appendValue(out, values.get(index).intValue(), depth + 1, sorted, false);
+        }
+        out.append('}');
+    }
+
+    private void appendProjection(final StringBuilder out, final int start, final boolean sorted)
+            throws UnsupportedException {
+        final int size = keys.size();
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        if (sorted) {
+            Arrays.sort(order, (a, b) -> KEY_ORDER.compare(keys.get(a), keys.get(b)));
+        }
+
+        out.append('{');
+        for (int i = 0; i < size; i++) {
+            if (i != 0) {
+                out.append(',');
+            }
+            final int index = order[i].intValue();
+            appendQuoted(out, keys.get(index));
+            out.append(':');
+            appendValue(out, resolve(start, paths.get(index)), 0, sorted, false);
+        }
+        out.append('}');
+    }
+
+    private void appendValue(
+            final StringBuilder out,
+            final int pos,
+            final int depth,
+            final boolean sorted,
+            final boolean raw) throws UnsupportedException {
+        if (pos == NULL) {
+            out.append("null");
+            return;
+        }
+
+        final char ch = input.charAt(pos);
+        switch (ch) {
+        case '{':
+            appendObject(out, pos, depth, sorted);
+            break;
+        case '[':
+            appendArray(out, pos, depth, sorted);
+            break;
+        case '"':
+            final StringBuilder value = new StringBuilder();
+            parseString(pos, value);
+            if (raw) {
+                out.append(value);
+            } else {
+                appendQuoted(out, value.toString());
+            }
+            break;
+        case 't':
+            out.append("true");
+            break;
+        case 'f':
+            out.append("false");
+            break;
+        case 'n':
+            out.append("null");
+            break;
+        default:
+            appendNumber(out, pos, skipValue(pos, depth));
+            break;
+        }
+    }
+
+    private char charAt(final int pos) {
+        return pos < input.length() ? input.charAt(pos) : 0;
+    }
+
+    private int checkLiteralEnd(final int pos) throws UnsupportedException {
+        if (pos < input.length() && isIdentifierPart(input.charAt(pos))) {
+            throw UnsupportedException.INSTANCE;
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the position of the array element with the given index, or {@link #NULL} if the index
+     * is out of range.
+     */
+    private int findElement(final int start, final int index) throws UnsupportedException {
+        int pos = skipWhitespace(start + 1);
+        if (input.charAt(pos) == ']') {
+            return NULL;
+        }
+        for (int i = 0;; i++) {
+            if (i == index) {
+                return pos;
+            }
+            pos = skipWhitespace(skipValue(pos, 1));
+            if (input.charAt(pos) == ']') {
+                return NULL;
+            }
+            pos = skipWhitespace(pos + 1);
+        }
+    }
+
+    /**
+     * Returns the position of the value of the member with the given key, or {@link #NULL} if the
+     * object does not have that member. When a key is repeated, the last value wins.
+     */
+    private int findMember(final int start, final String key) throws UnsupportedException {
+        int found = NULL;
+        int pos = skipWhitespace(start + 1);
+        if (input.charAt(pos) == '}') {
+            return NULL;
+        }
+        for (;;) {
+            final boolean matches = keyEquals(pos, key);
+            pos = skipWhitespace(parseString(pos, null));
+            pos = skipWhitespace(pos + 1);
+            if (matches) {
+                found = pos;
+            }
+            pos = skipWhitespace(skipValue(pos, 1));
+            if (input.charAt(pos) == '}') {
+                return found;
+            }
+            pos = skipWhitespace(pos + 1);
+        }
+    }
+
+    /**
+     * Returns true if the string at the given position equals the given key.
+     */
+    private boolean keyEquals(final int pos, final String key) throws UnsupportedException {
+        final int length = key.length();
+        if (input.regionMatches(pos + 1, key, 0, length) && pos + 1 + length < input.length()
+                && input.charAt(pos + 1 + length) == '"') {
+            // keys never contain backslashes or quotes, so matching region has no escapes
+            return true;
+        }
+
+        // slow path for keys that contain escapes
+        int end = pos + 1;
+        while (input.charAt(end) != '"' && input.charAt(end) != '\\') {
+            end++;
+        }
+        if (input.charAt(end) == '"') {
+            return false;
+        }
+        final StringBuilder decoded = new StringBuilder();
+        parseString(pos, decoded);
+        return key.contentEquals(decoded);
+    }
+
+    private char parseHex(final int start) throws UnsupportedException {
+        if (start + 4 > input.length()) {
+            throw UnsupportedException.INSTANCE;
+        }
+        int value = 0;
+        for (int i = start; i < start + 4; i++) {
+            final int digit = Character.digit(input.charAt(i), 16);
+            if (digit == -1) {
+                throw UnsupportedException.INSTANCE;
+            }
+            value = value << 4 | digit;
+        }
+        return (char) value;
+    }
+
+    /**
+     * Parses the string at the given position, appending the decoded value to the given buffer if
+     * it is non-null. Returns the position that follows the string.
+     */
+    private int parseString(final int start, final StringBuilder decoded) throws UnsupportedException {
+        final int length = input.length();
+        int pos = start + 1;
+        for (;;) {
+            if (pos >= length) {
+                throw UnsupportedException.INSTANCE;
+            }
+            final char ch = input.charAt(pos++);
+            if (ch == '"') {
+                return pos;
+            }
+            if (ch < 0x20) {
+                throw UnsupportedException.INSTANCE;
+            }
+            if (ch == '\\') {
+                if (pos >= length) {
+                    throw UnsupportedException.INSTANCE;
+                }
+                final char escape = input.charAt(pos++);
+                final char unescaped;
+                switch (escape) {
+                case '"':
+                case '\\':
+                case '/':
+                    unescaped = escape;
+                    break;
+                case 'b':
+                    unescaped = '\b';
+                    break;
+                case 'f':
+                    unescaped = '\f';
+                    break;
+                case 'n':
+                    unescaped = '\n';
+                    break;
+                case 'r':
+                    unescaped = '\r';
+                    break;
+                case 't':
+                    unescaped = '\t';
+                    break;
+                case 'u':
+                    unescaped = parseHex(pos);
+                    pos += 4;
+                    if (Character.isHighSurrogate(unescaped)) {
+                        // must be followed by escaped low surrogate
+                        if (pos + 1 >= length || input.charAt(pos) != '\\' || input.charAt(pos + 1) != 'u') {
+                            throw UnsupportedException.INSTANCE;
+                        }
+                        final char low = parseHex(pos + 2);
+                        if (!Character.isLowSurrogate(low)) {
+                            throw UnsupportedException.INSTANCE;
+                        }
+                        pos += 6;
+                        if (decoded != null) {
+                            decoded.append(unescaped).append(low);
+                        }
+                        continue;
+                    } else if (Character.isLowSurrogate(unescaped)) {
+                        throw UnsupportedException.INSTANCE;
+                    }
+                    break;
+                default:
+                    throw UnsupportedException.INSTANCE;
+                }
+                if (decoded != null) {
+                    decoded.append(unescaped);
+                }
+            } else if (Character.isSurrogate(ch)) {
+                // surrogate pairs must be complete
+                if (!Character.isHighSurrogate(ch) || pos >= length
+                        || !Character.isLowSurrogate(input.charAt(pos))) {
+                    throw UnsupportedException.INSTANCE;
+                }
+                if (decoded != null) {
+                    decoded.append(ch).append(input.charAt(pos));
+                }
+                pos++;
+            } else if (decoded != null) {
+                decoded.append(ch);
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the value selected by the given path, or {@link #NULL} if the value
+     * is null because a key or index is missing.
+     */
+    private int resolve(final int start, final Object[] steps) throws UnsupportedException {
+        int pos = start;
+        for (final Object step : steps) {
+            if (pos == NULL || input.charAt(pos) == 'n') {
+                // indexing null produces null
+                pos = NULL;
+                continue;
+            }
+            final char ch = input.charAt(pos);
+            if (step instanceof String && ch == '{') {
+                pos = findMember(pos, (String) step);
+            } else if (step instanceof Integer && ch == '[') {
+                pos = findElement(pos, ((Integer) step).intValue());
+            } else {
+                // libjq reports an error
+                throw UnsupportedException.INSTANCE;
+            }
+        }
+        return pos;
+    }
+
+    private int skipLiteral(final int pos, final String literal) throws UnsupportedException {
+        if (!input.startsWith(literal, pos)) {
+            throw UnsupportedException.INSTANCE;
+        }
+        return pos + literal.length();
+    }
+
+    private int skipNumber(final int start) throws UnsupportedException {
+        final int length = input.length();
+        int pos = start;
+        if (pos < length && input.charAt(pos) == '-') {
+            pos++;
+        }
+        if (pos >= length || !isDigit(input.charAt(pos))) {
+            throw UnsupportedException.INSTANCE;
+        }
+        if (input.charAt(pos) == '0') {
+            pos++;
+        } else {
+            while (pos < length && isDigit(input.charAt(pos))) {
+                pos++;
+            }
+        }
+        if (pos < length && input.charAt(pos) == '.') {
+            pos++;
+            final int fraction = pos;
+            while (pos < length && isDigit(input.charAt(pos))) {
+                pos++;
+            }
+            if (pos == fraction) {
+                throw UnsupportedException.INSTANCE;
+            }
+        }
+        if (pos < length && (input.charAt(pos) == 'e' || input.charAt(pos) == 'E')) {
+            pos++;
+            if (pos < length && (input.charAt(pos) == '+' || input.charAt(pos) == '-')) {
+                pos++;
+            }
+            final int exponent = pos;
+            while (pos < length && isDigit(input.charAt(pos))) {
+                pos++;
+            }
+            if (pos == exponent) {
+                throw UnsupportedException.INSTANCE;
+            }
+        }
+        if (pos < length && isIdentifierPart(input.charAt(pos))) {
+            throw UnsupportedException.INSTANCE;
+        }
+        return pos;
+    }
+
+    /**
+     * Validates the value at the given position without building it, and returns the position that
+     * follows it.
+     */
+    private int skipValue(final int start, final int depth) throws UnsupportedException {
+        if (start >= input.length() || depth > MAX_DEPTH) {
+            throw UnsupportedException.INSTANCE;
+        }
+
+        int pos = start;
+        final char ch = input.charAt(pos);
+        switch (ch) {
+        case '{':
+            pos = skipWhitespace(pos + 1);
+            if (charAt(pos) == '}') {
+                return pos + 1;
+            }
+            for (;;) {
+                if (charAt(pos) != '"') {
+                    throw UnsupportedException.INSTANCE;
+                }
+                pos = skipWhitespace(parseString(pos, null));
+                if (charAt(pos) != ':') {
+                    throw UnsupportedException.INSTANCE;
+                }
+                pos = skipWhitespace(skipValue(skipWhitespace(pos + 1), depth + 1));
+                final char next = charAt(pos);
+                if (next == '}') {
+                    return pos + 1;
+                }
+                if (next != ',') {
+                    throw UnsupportedException.INSTANCE;
+                }
+                pos = skipWhitespace(pos + 1);
+            }
+        case '[':
+            pos = skipWhitespace(pos + 1);
+            if (charAt(pos) == ']') {
+                return pos + 1;
+            }
+            for (;;) {
+                pos = skipWhitespace(skipValue(pos, depth + 1));
+                final char next = charAt(pos);
+                if (next == ']') {
+                    return pos + 1;
+                }
+                if (next != ',') {
+                    throw UnsupportedException.INSTANCE;
+                }
+                pos = skipWhitespace(pos + 1);
+            }
+        case '"':
+            return parseString(pos, null);
+        case 't':
+            return checkLiteralEnd(skipLiteral(pos, "true"));
+        case 'f':
+            return checkLiteralEnd(skipLiteral(pos, "false"));
+        case 'n':
+            return checkLiteralEnd(skipLiteral(pos, "null"));
+        default:
+            return skipNumber(pos);
+        }
+    }
+
+    private int skipWhitespace(final int start) {
+        int pos = start;
+        final int length = input.length();
+        while (pos < length && isWhitespace(input.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+}
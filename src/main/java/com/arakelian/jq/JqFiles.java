@@ -0,0 +1,390 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.immutables.value.Value;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * Runs one filter over many JSON files in parallel, using a work-stealing pool.
+ *
+ * Each worker thread compiles its own copy of the program. Reading files, decoding them, and
+ * evaluating filters that qualify for the pure-Java fast path (see {@link JqRequest#isFastPath()})
+ * run fully in parallel; calls into libjq itself are serialized by the jq lock, since libjq is not
+ * thread-safe. Files whose names end in <code>.gz</code> are decompressed with
+ * {@link JqCodec#GZIP}. When {@link #isSplitLines()} is true, large files are split at line
+ * boundaries into parts that are processed in parallel.
+ *
+ * <pre>
+ * ImmutableJqFiles.builder() //
+ *         .request(request) //
+ *         .build() //
+ *         .process(directory, "**.json", (file, response) -&gt; { ... });
+ * </pre>
+ */
+@Value.Immutable
+public abstract class JqFiles {
+    /**
+     * State of a single call to {@link JqFiles#process(Collection, BiConsumer)}.
+     */
+    private final class Execution {
+        private final BiConsumer<Path, JqResponse> sink;
+
+        /** Programs compiled by worker threads, which are closed when processing finishes **/
+        private final List<JqProgram> programs = Collections.synchronizedList(Lists.newArrayList());
+
+        private final ThreadLocal<JqProgram> program = ThreadLocal.withInitial(() -> {
+            final JqProgram compiled = getRequest().compile();
+            programs.add(compiled);
+            return compiled;
+        });
+
+        private Execution(final BiConsumer<Path, JqResponse> sink) {
+            this.sink = sink;
+        }
+
+        private void close() {
+            for (final JqProgram compiled : programs) {
+                compiled.close();
+            }
+        }
+
+        private JqResponse execute(final String text) {
+            final JqRequest request = getRequest();
+            if (request.isFastPath()) {
+                final JqResponse response = JqFastPath.execute(ImmutableJqRequest.copyOf(request).withInput(text));
+                if (response != null) {
+                    return response;
+                }
+            }
+            return program.get().execute(text);
+        }
+    }
+
+    /**
+     * Processes a single file, forking a task for each part of a file that is split.
+     */
+    private final class FileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Execution execution;
+        private final Path file;
+
+        private FileTask(final Execution execution, final Path file) {
+            this.execution = execution;
+            this.file = file;
+        }
+
+        @Override
+        protected void compute() {
+            final JqResponse response;
+            try {
+                if (isCompressed(file)) {
+                    try (InputStream in = Files.newInputStream(file)) {
+                        response = execution.program.get().execute(in, JqCodec.GZIP);
+                    }
+                } else {
+                    response = executeParts();
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Unable to process " + file, e);
+            }
+            execution.sink.accept(file, response);
+        }
+
+        private JqResponse executeParts() throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final List<long[]> ranges = split(channel);
+                if (ranges.size() == 1) {
+                    final long[] range = ranges.get(0);
+                    return execution.execute(read(channel, range[0], range[1]));
+                }
+
+                final List<PartTask> parts = Lists.newArrayList();
+                for (final long[] range : ranges) {
+                    parts.add(new PartTask(execution, file, range[0], range[1]));
+                }
+                invokeAll(parts);
+                return merge(parts);
+            }
+        }
+    }
+
+    /**
+     * Processes a range of lines of a file.
+     */
+    private final class PartTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Execution execution;
+        private final Path file;
+        private final long start;
+        private final long end;
+        private JqResponse response;
+
+        private PartTask(final Execution execution, final Path file, final long start, final long end) {
+            this.execution = execution;
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                response = execution.execute(read(channel, start, end));
+            } catch (final IOException e) {
+                throw new UncheckedIOException("Unable to process " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Returns a sink that appends the output of every file to the given writer, one file at a
+     * time. Errors are ignored.
+     *
+     * @param writer
+     *            writer that receives the output of all files
+     * @return a sink that appends the output of every file to the given writer
+     */
+    public static BiConsumer<Path, JqResponse> merged(final Writer writer) {
+        return (file, response) -> {
+            final String output = response.getOutput();
+            if (output.isEmpty()) {
+                return;
+            }
+            synchronized (writer) {
+                try {
+                    writer.write(output);
+                    writer.write('\n');
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    private static boolean isCompressed(final Path file) {
+        return file.getFileName().toString().endsWith(".gz");
+    }
+
+    private static String read(final FileChannel channel, final long start, final long end) throws IOException {
+        final long length = end - start;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("File is too large to be processed without splitLines");
+        }
+        final ByteBuffer buf = ByteBuffer.allocate((int) length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, start + buf.position()) < 0) {
+                break;
+            }
+        }
+        return new String(buf.array(), 0, buf.position(), Charsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of worker threads.
+     *
+     * @return the number of worker threads
+     */
+    @Value.Default
+    public int getParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns the request whose filter, options and library are used for every file; its input is
+     * ignored.
+     *
+     * @return the request that is used for every file
+     */
+    public abstract JqRequest getRequest();
+
+    /**
+     * Returns the approximate size, in bytes, of the parts into which large files are split.
+     *
+     * @return the approximate size of the parts into which large files are split
+     */
+    @Value.Default
+    public long getSplitSize() {
+        return 8L * 1024 * 1024;
+    }
+
+    /**
+     * Returns true if files contain one JSON value per line, e.g. NDJSON, so that large files can
+     * be split at line boundaries and their parts processed in parallel.
+     *
+     * @return true if files can be split at line boundaries
+     */
+    @Value.Default
+    public boolean isSplitLines() {
+        return false;
+    }
+
+    /**
+     * Processes the given files. The sink receives one response per file, as soon as the file has
+     * been processed; it is called concurrently from worker threads, in no particular order. When a
+     * file is split, the responses of its parts are merged in order before the sink is called.
+     *
+     * @param files
+     *            files to process
+     * @param sink
+     *            receives the response of each file
+     * @throws IOException
+     *             if a file cannot be read
+     */
+    public void process(final Collection<Path> files, final BiConsumer<Path, JqResponse> sink)
+            throws IOException {
+        Preconditions.checkArgument(files != null, "files must be non-null");
+        Preconditions.checkArgument(sink != null, "sink must be non-null");
+
+        final Execution execution = new Execution(sink);
+        final List<FileTask> tasks = Lists.newArrayList();
+        for (final Path file : files) {
+            tasks.add(new FileTask(execution, file));
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(getParallelism());
+        try {
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdownNow();
+            execution.close();
+        }
+    }
+
+    /**
+     * Processes the regular files below the given directory whose relative paths match the given
+     * glob pattern, e.g. <code>**.json</code>, in order of their paths.
+     *
+     * @param directory
+     *            directory to search
+     * @param glob
+     *            glob pattern, see {@link java.nio.file.FileSystem#getPathMatcher(String)}
+     * @param sink
+     *            receives the response of each file
+     * @throws IOException
+     *             if the directory cannot be searched, or a file cannot be read
+     */
+    public void process(final Path directory, final String glob, final BiConsumer<Path, JqResponse> sink)
+            throws IOException {
+        final PathMatcher matcher = directory.getFileSystem().getPathMatcher("glob:" + glob);
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            files = paths //
+                    .filter(Files::isRegularFile) //
+                    .filter(path -> matcher.matches(directory.relativize(path))) //
+                    .sorted() //
+                    .collect(Collectors.toList());
+        }
+        process(files, sink);
+    }
+
+    @Value.Check
+    protected void checkFiles() {
+        Preconditions.checkState(getParallelism() > 0, "parallelism must be greater than zero");
+        Preconditions.checkState(getSplitSize() > 0, "splitSize must be greater than zero");
+    }
+
+    private JqResponse merge(final List<PartTask> parts) {
+        final JqRequest request = getRequest();
+        final String separator = request.isJoinOutput() ? "" : request.getStreamSeparator();
+        final ImmutableJqResponse.Builder response = ImmutableJqResponse.builder();
+        final StringBuilder output = new StringBuilder();
+        for (final PartTask part : parts) {
+            response.addAllErrors(part.response.getErrors());
+            final String out = part.response.getOutput();
+            if (out.isEmpty()) {
+                continue;
+            }
+            if (output.length() != 0) {
+                output.append(separator);
+            }
+            output.append(out);
+        }
+        return response.output(output.toString()).build();
+    }
+
+    /**
+     * Returns the ranges of the given file that are processed separately; each range ends at the
+     * end of a line.
+     */
+    private List<long[]> split(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (!isSplitLines() || size <= getSplitSize()) {
+            return Collections.singletonList(new long[] { 0, size });
+        }
+
+        final List<long[]> ranges = Lists.newArrayList();
+        final ByteBuffer buf = ByteBuffer.allocate(8192);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + getSplitSize(), size);
+            while (end < size) {
+                // extend range to end of line
+                buf.clear();
+                final int n = channel.read(buf, end);
+                if (n <= 0) {
+                    end = size;
+                    break;
+                }
+                buf.flip();
+                final int newline = JqScanner.indexOfNewline(buf, 0);
+                if (newline != -1) {
+                    end += newline + 1;
+                    break;
+                }
+                end += n;
+            }
+            ranges.add(new long[] { start, end });
+            start = end;
+        }
+        return ranges;
+    }
+}
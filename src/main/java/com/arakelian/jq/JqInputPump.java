@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static java.util.logging.Level.FINE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Decodes an input stream on a producer thread, handing bounded chunks of decoded bytes to the
+ * thread that is running jq. Decoding the next chunks overlaps with parsing and executing the
+ * current one, and at most {@link #CAPACITY} chunks are buffered at a time.
+ *
+ * The jq thread releases the jq lock before it waits in {@link #next()} for a chunk that is not
+ * {@link #isReady() ready}, so a source that stalls does not delay other executions.
+ */
+final class JqInputPump implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(JqInputPump.class.getName());
+
+    /** Size of each chunk of decoded input **/
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Maximum number of decoded chunks waiting to be parsed **/
+    static final int CAPACITY = 4;
+
+    /** Marks the end of the input **/
+    private static final byte[] END = new byte[0];
+
+    private static final ExecutorService PRODUCERS = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder() //
+                    .setNameFormat("jq-input-%d") //
+                    .setDaemon(true) //
+                    .build());
+
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CAPACITY);
+
+    private final InputStream input;
+
+    private final Future<?> producer;
+
+    /** Set by whichever of the producer and {@link #close()} is responsible for closing the input **/
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    /** Error reported by producer, which is visible once {@link #END} has been taken **/
+    private volatile IOException failure;
+
+    private boolean finished;
+
+    JqInputPump(final InputStream input, final JqCodec codec) {
+        this.input = input;
+        producer = PRODUCERS.submit(() -> produce(codec));
+    }
+
+    /**
+     * Stops the producer, which closes the input stream; if the producer has not started, the
+     * input stream is closed here instead.
+     */
+    @Override
+    public void close() {
+        producer.cancel(true);
+        chunks.clear();
+        if (claimed.compareAndSet(false, true)) {
+            try {
+                input.close();
+            } catch (final IOException e) {
+                LOGGER.log(FINE, "Unable to close input", e);
+            }
+        }
+    }
+
+    /**
+     * Returns true if {@link #next()} will not wait, because a chunk has been decoded or the input
+     * has been exhausted.
+     *
+     * @return true if {@link #next()} will not wait
+     */
+    boolean isReady() {
+        return finished || chunks.peek() != null;
+    }
+
+    /**
+     * Returns the next chunk of decoded input, waiting for it if necessary, or null if there is no
+     * more input.
+     *
+     * @return the next chunk of decoded input, or null
+     * @throws IOException
+     *             if the input cannot be read or decoded
+     */
+    byte[] next() throws IOException {
+        if (finished) {
+            return null;
+        }
+
+        final byte[] chunk;
+        try {
+            chunk = chunks.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for input");
+        }
+
+        if (chunk == END) {
+            finished = true;
+            if (failure != null) {
+                throw new IOException(failure.getMessage(), failure);
+            }
+            return null;
+        }
+        return chunk;
+    }
+
+    private void produce(final JqCodec codec) {
+        if (!claimed.compareAndSet(false, true)) {
+            // pump was closed before the producer started
+            return;
+        }
+        // input is closed even if the codec cannot read its header
+        try (InputStream source = input; InputStream in = codec.decode(source)) {
+            for (;;) {
+                final byte[] chunk = new byte[CHUNK_SIZE];
+                final int length = ByteStreams.read(in, chunk, 0, chunk.length);
+                if (length == 0) {
+                    break;
+                }
+                chunks.put(length == chunk.length ? chunk : Arrays.copyOf(chunk, length));
+            }
+        } catch (final IOException e) {
+            LOGGER.log(FINE, "Unable to read input", e);
+            failure = e;
+        } catch (final RuntimeException e) {
+            // consumer must not wait forever if codec fails unexpectedly
+            LOGGER.log(FINE, "Unable to decode input", e);
+            failure = new IOException(e);
+        } catch (final InterruptedException e) {
+            // consumer has gone away
+            return;
+        }
+
+        try {
+            chunks.put(END);
+        } catch (final InterruptedException e) {
+            // consumer has gone away
+        }
+    }
+}
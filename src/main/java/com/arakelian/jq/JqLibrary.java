@@ -19,7 +19,16 @@ package com.arakelian.jq;
 
 import static java.util.logging.Level.INFO;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.immutables.value.Value;
@@ -27,6 +36,8 @@ import org.immutables.value.Value;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
 import com.sun.jna.Callback;
 import com.sun.jna.Function;
 import com.sun.jna.Pointer;
@@ -96,9 +107,32 @@ public abstract class JqLibrary {
     public static final int JV_PRINT_SPACE1 = 512;
     public static final int JV_PRINT_SPACE2 = 1024;
 
+    /** Flag of <code>jq_start</code> that prints each instruction executed to stdout **/
+    public static final int JQ_DEBUG_TRACE = 1;
+
     /** No arguments **/
     public static final Object[] NO_ARGS = new Object[0];
 
+    /** Classpath resources that list the filters which are compiled by {@link #warmUp()} **/
+    public static final String WARM_UP_RESOURCE = "META-INF/jq/warmup.jq";
+
+    /** Sample input that filters are executed against during warm up **/
+    public static final String WARM_UP_INPUT = "{\"a\":[1,2.5,\"x\",null,true,false],\"b\":{\"c\":\"d\"},\"e\":\"\\u00e9\"}";
+
+    /** Number of times that each filter is executed during warm up **/
+    public static final int WARM_UP_ITERATIONS = 100;
+
+    /**
+     * Returns the pool of native buffers that are used to pass input text to libjq.
+     *
+     * @return the pool of native buffers
+     */
+    @Value.Default
+    @Value.Auxiliary
+    public JqBufferPool getBufferPool() {
+        return ImmutableJqBufferPool.builder().build();
+    }
+
     @Value.Auxiliary
     public Function getJqCompile() {
         return getLoader().getNativeLibrary().getFunction("jq_compile");
@@ -109,6 +143,11 @@ public abstract class JqLibrary {
         return getLoader().getNativeLibrary().getFunction("jq_compile_args");
     }
 
+    @Value.Auxiliary
+    public Function getJqDumpDisassembly() {
+        return getLoader().getNativeLibrary().getFunction("jq_dump_disassembly");
+    }
+
     @Value.Auxiliary
     public Function getJqInit() {
         return getLoader().getNativeLibrary().getFunction("jq_init");
@@ -154,6 +193,11 @@ public abstract class JqLibrary {
         return getLoader().getNativeLibrary().getFunction("jv_array_concat");
     }
 
+    @Value.Auxiliary
+    public Function getJvArrayGet() {
+        return getLoader().getNativeLibrary().getFunction("jv_array_get");
+    }
+
     @Value.Auxiliary
     public Function getJvCopy() {
         return getLoader().getNativeLibrary().getFunction("jv_copy");
@@ -184,6 +228,11 @@ public abstract class JqLibrary {
         return getLoader().getNativeLibrary().getFunction("jv_invalid_has_msg");
     }
 
+    @Value.Auxiliary
+    public Function getJvNull() {
+        return getLoader().getNativeLibrary().getFunction("jv_null");
+    }
+
     @Value.Auxiliary
     public Function getJvObject() {
         return getLoader().getNativeLibrary().getFunction("jv_object");
@@ -229,14 +278,35 @@ public abstract class JqLibrary {
         return getLoader().getNativeLibrary().getFunction("jv_string");
     }
 
+    @Value.Auxiliary
+    public Function getJvStringLengthBytes() {
+        return getLoader().getNativeLibrary().getFunction("jv_string_length_bytes");
+    }
+
     @Value.Auxiliary
     public Function getJvStringValue() {
         return getLoader().getNativeLibrary().getFunction("jv_string_value");
     }
 
+    /**
+     * Returns true if the native shim should be used, when it is bundled for this platform, to
+     * execute requests in a single native call.
+     *
+     * @return true if the native shim should be used
+     */
+    @Value.Default
+    @Value.Auxiliary
+    public boolean isShimEnabled() {
+        return true;
+    }
+
     @Value.Lazy
     @Value.Auxiliary
     public NativeLib getLoader() {
+        // shim must be loaded first, so that its allocators are used by libjq; libjq is only loaded
+        // once per process, so the shim is loaded even by libraries that do not execute with it
+        JqShim.load();
+
         final ImmutableNativeLib jq = ImmutableNativeLib.builder() //
                 .name("jq") //
                 .build();
@@ -253,6 +323,18 @@ public abstract class JqLibrary {
         return getJqCompileArgs().invokeInt(new Object[] { jq, filter, args }) != 0;
     }
 
+    /**
+     * Prints the bytecode of the compiled program to stdout.
+     *
+     * @param jq
+     *            jq state
+     * @param indent
+     *            number of spaces to indent each line
+     */
+    public void jq_dump_disassembly(final Pointer jq, final int indent) {
+        getJqDumpDisassembly().invoke(new Object[] { jq, indent });
+    }
+
     public Pointer jq_init() {
         return (Pointer) getJqInit().invoke(Pointer.class, NO_ARGS);
     }
@@ -270,7 +352,11 @@ public abstract class JqLibrary {
     }
 
     public void jq_start(final Pointer jq, final Jv jv) {
-        getJqStart().invoke(new Object[] { jq, jv, 0 });
+        jq_start(jq, jv, 0);
+    }
+
+    public void jq_start(final Pointer jq, final Jv jv, final int flags) {
+        getJqStart().invoke(new Object[] { jq, jv, flags });
     }
 
     public void jq_teardown(final Pointer jq) {
@@ -290,6 +376,20 @@ public abstract class JqLibrary {
         return (Jv) getJvArrayConcat().invoke(Jv.class, new Object[] { array, anotherArray });
     }
 
+    /**
+     * Returns the element of an array at the given index, or an invalid value if the index is out
+     * of range. The array is consumed.
+     *
+     * @param array
+     *            array value
+     * @param index
+     *            index of element
+     * @return the element of an array at the given index
+     */
+    public Jv jv_array_get(final Jv array, final int index) {
+        return (Jv) getJvArrayGet().invoke(Jv.class, new Object[] { array, index });
+    }
+
     public Jv jv_copy(final Jv jv) {
         return (Jv) getJvCopy().invoke(Jv.class, new Object[] { jv });
     }
@@ -303,6 +403,24 @@ public abstract class JqLibrary {
         }
     }
 
+    /**
+     * Returns the UTF-8 encoded JSON text of the given value, which is consumed.
+     *
+     * @param next
+     *            value
+     * @param flags
+     *            dump flags
+     * @return UTF-8 encoded JSON text
+     */
+    public byte[] jv_dump_string_bytes(final Jv next, final int flags) {
+        final Jv dumped = (Jv) getJvDumpString().invoke(Jv.class, new Object[] { next, flags });
+        try {
+            return jv_string_bytes(dumped);
+        } finally {
+            jv_free(dumped);
+        }
+    }
+
     public void jv_free(final Jv jv) {
         getJvFree().invoke(new Object[] { jv });
     }
@@ -324,6 +442,10 @@ public abstract class JqLibrary {
         return kind != JqLibrary.JV_KIND_INVALID;
     }
 
+    public Jv jv_null() {
+        return (Jv) getJvNull().invoke(Jv.class, NO_ARGS);
+    }
+
     public Jv jv_object() {
         return (Jv) getJvObject().invoke(Jv.class, new Object[] {});
     }
@@ -365,9 +487,141 @@ public abstract class JqLibrary {
         return (Jv) getJvString().invoke(Jv.class, new Object[] { value });
     }
 
+    /**
+     * Returns the length of a string value in bytes, excluding the terminating null. Like most
+     * <code>jv_*</code> functions, this consumes the given value.
+     *
+     * @param jv
+     *            string value
+     * @return length of a string value in bytes
+     */
+    public int jv_string_length_bytes(final Jv jv) {
+        return getJvStringLengthBytes().invokeInt(new Object[] { jv });
+    }
+
+    /**
+     * Returns the UTF-8 bytes of a string value without JSON encoding it. The given value is not
+     * consumed.
+     *
+     * @param jv
+     *            string value
+     * @return the UTF-8 bytes of a string value
+     */
+    public byte[] jv_string_bytes(final Jv jv) {
+        final int length = jv_string_length_bytes(jv_copy(jv));
+        final Pointer result = (Pointer) getJvStringValue().invoke(Pointer.class, new Object[] { jv });
+        return result.getByteArray(0, length);
+    }
+
     public String jv_string_value(final Jv jv) {
         final Pointer result = (Pointer) getJvStringValue().invoke(Pointer.class, new Object[] { jv });
         final String error = result.getString(0, Charsets.UTF_8.name());
         return error;
     }
+
+    /**
+     * Warms up the library using the filters listed in the {@link #WARM_UP_RESOURCE} classpath
+     * resources, one filter per line; blank lines and lines starting with <code>#</code> are
+     * ignored.
+     *
+     * @return compile errors of the filters that are invalid, keyed by filter
+     * @throws UncheckedIOException
+     *             if the resources cannot be read
+     * @see #warmUp(Collection)
+     */
+    public Map<String, List<String>> warmUp() throws UncheckedIOException {
+        final List<String> filters = Lists.newArrayList();
+        try {
+            final Enumeration<URL> resources = JqLibrary.class.getClassLoader().getResources(WARM_UP_RESOURCE);
+            while (resources.hasMoreElements()) {
+                for (final String line : Resources.readLines(resources.nextElement(), Charsets.UTF_8)) {
+                    final String filter = line.trim();
+                    if (!filter.isEmpty() && !filter.startsWith("#")) {
+                        filters.add(filter);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Unable to read " + WARM_UP_RESOURCE, e);
+        }
+        return warmUp(filters);
+    }
+
+    /**
+     * Performs the work that would otherwise be paid for by the first request: extracting and
+     * loading the native library, resolving native functions, computing the layout of native
+     * structures, loading the native shim, and compiling each of the given filters. Each filter is
+     * then executed {@link #WARM_UP_ITERATIONS} times against {@link #WARM_UP_INPUT} so that the
+     * JIT compiler has warmed up the execution path.
+     *
+     * @param filters
+     *            filters to compile and execute
+     * @return compile errors of the filters that are invalid, keyed by filter
+     */
+    public Map<String, List<String>> warmUp(final Collection<String> filters) {
+        return warmUp(filters, WARM_UP_INPUT, WARM_UP_ITERATIONS);
+    }
+
+    /**
+     * Warms up the library, executing each of the given filters against the given sample input.
+     *
+     * @param filters
+     *            filters to compile and execute
+     * @param sampleInput
+     *            JSON input that filters are executed against
+     * @param iterations
+     *            number of times that each filter is executed
+     * @return compile errors of the filters that are invalid, keyed by filter
+     * @see #warmUp(Collection)
+     */
+    public Map<String, List<String>> warmUp(
+            final Collection<String> filters,
+            final String sampleInput,
+            final int iterations) {
+        Preconditions.checkArgument(iterations >= 0, "iterations must be non-negative");
+        final long start = System.nanoTime();
+
+        getLoader();
+        new Jv().size();
+        new JvRefCount().size();
+        getShim();
+        JqLock.lock();
+        try {
+            jv_free(jv_parse(sampleInput));
+        } finally {
+            JqLock.unlock();
+        }
+
+        final Map<String, List<String>> errors = new LinkedHashMap<>();
+        for (final String filter : filters) {
+            final JqRequest request = ImmutableJqRequest.builder() //
+                    .lib(this) //
+                    .filter(filter) //
+                    .input(sampleInput) //
+                    .build();
+            try (JqProgram program = request.compile()) {
+                if (!program.isValid()) {
+                    errors.put(filter, program.getCompileErrors());
+                    continue;
+                }
+                for (int i = 0; i < iterations; i++) {
+                    program.execute(sampleInput);
+                    JqFastPath.execute(request);
+                }
+            }
+        }
+
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOGGER.log(INFO, "Warmed up {0} filters in {1} ms", new Object[] { filters.size(), elapsed });
+        return errors;
+    }
+
+    /**
+     * Returns the native shim, if it is enabled and bundled for this platform.
+     */
+    @Value.Lazy
+    @Value.Auxiliary
+    Optional<JqShim> getShim() {
+        return isShimEnabled() ? JqShim.load() : Optional.empty();
+    }
 }
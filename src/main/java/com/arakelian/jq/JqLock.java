@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Serializes all calls into libjq, and applies the configured {@link JqAdmissionPolicy} to threads
+ * that must wait.
+ */
+public final class JqLock implements JqLockMXBean {
+    /** Name under which the lock is registered with JMX **/
+    public static final String OBJECT_NAME = "com.arakelian.jq:type=JqLock";
+
+    private static final JqLock INSTANCE = new JqLock();
+
+    /**
+     * Changes the admission policy. Threads that are already waiting are admitted according to
+     * the previous policy.
+     *
+     * @param policy
+     *            admission policy
+     */
+    public static void configure(final JqAdmissionPolicy policy) {
+        Preconditions.checkArgument(policy != null, "policy must be non-null");
+        INSTANCE.setPolicy(policy);
+    }
+
+    public static JqLock getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers the lock with the platform MBean server, so that queue depth and wait times can be
+     * monitored.
+     *
+     * @throws JMException
+     *             if the lock cannot be registered
+     */
+    public static void registerMBean() throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(INSTANCE, name);
+        }
+    }
+
+    static void lock() throws RejectedExecutionException {
+        INSTANCE.acquire();
+    }
+
+    /**
+     * Acquires the lock only if it is available without waiting.
+     *
+     * @return true if the lock was acquired
+     */
+    static boolean tryLock() {
+        return INSTANCE.acquireNow();
+    }
+
+    /**
+     * Acquires the lock to release native resources. The admission policy is not applied and
+     * waiting cannot be interrupted, because native resources would leak if the caller were
+     * rejected.
+     */
+    static void lockForRelease() {
+        INSTANCE.acquireForRelease();
+    }
+
+    static void unlock() {
+        INSTANCE.release();
+    }
+
+    private volatile JqAdmissionPolicy policy = ImmutableJqAdmissionPolicy.builder().build();
+
+    /**
+     * JQ is not thread-safe - https://github.com/stedolan/jq/issues/120
+     */
+    private volatile ReentrantLock sync = new ReentrantLock();
+
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final AtomicLong acquiredCount = new AtomicLong();
+
+    private final AtomicLong waitCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private JqLock() {
+        // singleton
+    }
+
+    @Override
+    public long getAcquiredCount() {
+        return acquiredCount.get();
+    }
+
+    @Override
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    public JqAdmissionPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public int getQueueLength() {
+        return waiters.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.get();
+    }
+
+    @Override
+    public long getWaitCount() {
+        return waitCount.get();
+    }
+
+    private void acquire() throws RejectedExecutionException {
+        for (;;) {
+            final ReentrantLock lock = sync;
+            if (lock.isHeldByCurrentThread()) {
+                // reentrant calls are always admitted
+                lock.lock();
+                return;
+            }
+
+            final JqAdmissionPolicy admission = policy;
+            if (!tryAcquire(lock, admission)) {
+                await(lock, admission);
+            }
+
+            // lock may have been replaced by configure() while we were waiting
+            if (lock == sync) {
+                acquiredCount.incrementAndGet();
+                return;
+            }
+            lock.unlock();
+        }
+    }
+
+    private void acquireForRelease() {
+        for (;;) {
+            final ReentrantLock lock = sync;
+            lock.lock();
+            if (lock.getHoldCount() != 1) {
+                // reentrant call
+                return;
+            }
+
+            // lock may have been replaced by configure() while we were waiting
+            if (lock == sync) {
+                acquiredCount.incrementAndGet();
+                return;
+            }
+            lock.unlock();
+        }
+    }
+
+    private boolean acquireNow() {
+        final ReentrantLock lock = sync;
+        if (lock.isHeldByCurrentThread()) {
+            // reentrant calls are always admitted
+            lock.lock();
+            return true;
+        }
+        if (!tryAcquire(lock, policy)) {
+            return false;
+        }
+
+        // lock may have been replaced by configure()
+        if (lock == sync) {
+            acquiredCount.incrementAndGet();
+            return true;
+        }
+        lock.unlock();
+        return false;
+    }
+
+    private void await(final ReentrantLock lock, final JqAdmissionPolicy admission)
+            throws RejectedExecutionException {
+        if (waiters.incrementAndGet() > admission.getMaxWaiters()) {
+            waiters.decrementAndGet();
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("Too many threads waiting for jq");
+        }
+
+        final JqEvents.LockWait event = new JqEvents.LockWait();
+        event.begin();
+        final long start = System.nanoTime();
+        try {
+            final Optional<Duration> maxWait = admission.getMaxWait();
+            if (!maxWait.isPresent()) {
+                lock.lock();
+            } else if (!lock.tryLock(maxWait.get().toNanos(), TimeUnit.NANOSECONDS)) {
+                rejectedCount.incrementAndGet();
+                throw new RejectedExecutionException("Timed out waiting " + maxWait.get() + " for jq");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("Interrupted while waiting for jq", e);
+        } finally {
+            final long waited = System.nanoTime() - start;
+            waiters.decrementAndGet();
+            waitCount.incrementAndGet();
+            totalWaitNanos.addAndGet(waited);
+            maxWaitNanos.accumulateAndGet(waited, Math::max);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.queueLength = lock.getQueueLength();
+                event.commit();
+            }
+        }
+    }
+
+    private void release() {
+        sync.unlock();
+    }
+
+    private void setPolicy(final JqAdmissionPolicy newPolicy) {
+        final ReentrantLock lock = sync;
+        Preconditions.checkState(!lock.isHeldByCurrentThread(), "Cannot configure while holding jq lock");
+
+        lock.lock();
+        try {
+            if (lock.isFair() != newPolicy.isFair()) {
+                sync = new ReentrantLock(newPolicy.isFair());
+            }
+            policy = newPolicy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean tryAcquire(final ReentrantLock lock, final JqAdmissionPolicy admission) {
+        if (admission.isFair()) {
+            // untimed tryLock would barge ahead of waiting threads
+            try {
+                return lock.tryLock(0, TimeUnit.NANOSECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return lock.tryLock();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+/**
+ * Management interface of {@link JqLock}.
+ */
+public interface JqLockMXBean {
+    /**
+     * Returns the number of times that libjq has been acquired.
+     *
+     * @return the number of times that libjq has been acquired
+     */
+    public long getAcquiredCount();
+
+    /**
+     * Returns the longest time, in nanoseconds, that a thread has waited for libjq.
+     *
+     * @return the longest time that a thread has waited for libjq
+     */
+    public long getMaxWaitNanos();
+
+    /**
+     * Returns the approximate number of threads waiting for libjq.
+     *
+     * @return the approximate number of threads waiting for libjq
+     */
+    public int getQueueLength();
+
+    /**
+     * Returns the number of threads that were rejected because too many threads were waiting, or
+     * because they waited too long.
+     *
+     * @return the number of threads that were rejected
+     */
+    public long getRejectedCount();
+
+    /**
+     * Returns the total time, in nanoseconds, that threads have waited for libjq.
+     *
+     * @return the total time that threads have waited for libjq
+     */
+    public long getTotalWaitNanos();
+
+    /**
+     * Returns the number of times that a thread had to wait for libjq.
+     *
+     * @return the number of times that a thread had to wait for libjq
+     */
+    public long getWaitCount();
+}
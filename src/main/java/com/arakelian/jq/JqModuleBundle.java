@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static java.util.logging.Level.INFO;
+import static java.util.logging.Level.WARNING;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.immutables.value.Value;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+/**
+ * A set of jq modules that are shipped inside a jar file, or provided as in-memory text.
+ *
+ * libjq can only load modules from the filesystem, so a bundle is materialized into a private
+ * temporary folder the first time it is used. Subsequent requests reuse the same folder and never
+ * touch the classpath again. Bundles with the same modules and contents share a single folder, so
+ * equal bundles may be built again, e.g. per request; folders are deleted when the JVM exits.
+ *
+ * <pre>
+ * final JqModuleBundle bundle = ImmutableJqModuleBundle.builder() //
+ *         .resourcePath("jq/modules") //
+ *         .addModule("a.jq") //
+ *         .addModule("lib/b.jq") //
+ *         .build();
+ * </pre>
+ */
+@Value.Immutable
+public abstract class JqModuleBundle {
+    private static final Logger LOGGER = Logger.getLogger(JqModuleBundle.class.getName());
+
+    /** Folders of materialized modules, keyed by a hash of their paths and contents **/
+    private static final ConcurrentMap<HashCode, File> DIRECTORIES = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(JqModuleBundle::deleteDirectories, "jq-modules-cleanup"));
+    }
+
+    private static void deleteDirectories() {
+        for (final File dir : DIRECTORIES.values()) {
+            try (Stream<Path> paths = Files.walk(dir.toPath())) {
+                // children are deleted before their parents
+                final Path[] sorted = paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new);
+                for (final Path path : sorted) {
+                    Files.deleteIfExists(path);
+                }
+            } catch (final IOException e) {
+                LOGGER.log(WARNING, "Unable to delete jq modules: " + dir, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the given modules, keyed by relative path, to a new temporary folder.
+     */
+    private static File materialize(final Map<String, byte[]> contents) throws UncheckedIOException {
+        try {
+            final Path dir = Files.createTempDirectory("jq-modules-");
+            for (final Map.Entry<String, byte[]> module : contents.entrySet()) {
+                Files.write(resolve(dir, module.getKey()), module.getValue());
+            }
+
+            final File canonical = dir.toFile().getCanonicalFile();
+            LOGGER.log(INFO, "Materialized jq modules to: {0}", new Object[] { canonical });
+            return canonical;
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Unable to materialize jq modules", e);
+        }
+    }
+
+    private static Path resolve(final Path dir, final String module) throws IOException {
+        final Path local = dir.resolve(module).normalize();
+        Preconditions.checkState(local.startsWith(dir), "Invalid module path: %s", module);
+        final Path parent = local.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        return local;
+    }
+
+    /**
+     * Returns the class loader used to load modules from the classpath.
+     *
+     * @return the class loader used to load modules from the classpath
+     */
+    @Value.Default
+    @Value.Auxiliary
+    public ClassLoader getClassLoader() {
+        return JqModuleBundle.class.getClassLoader();
+    }
+
+    /**
+     * Returns the folder that contains the materialized modules; this folder can be added to the
+     * jq library path.
+     *
+     * @return the folder that contains the materialized modules
+     * @throws UncheckedIOException
+     *             if the modules could not be written to disk
+     */
+    @Value.Lazy
+    @Value.Auxiliary
+    public File getDirectory() throws UncheckedIOException {
+        try {
+            final Map<String, byte[]> contents = readModules();
+            final Hasher hasher = Hashing.sha256().newHasher();
+            for (final Map.Entry<String, byte[]> module : contents.entrySet()) {
+                hasher.putString(module.getKey(), Charsets.UTF_8);
+                hasher.putInt(module.getValue().length);
+                hasher.putBytes(module.getValue());
+            }
+            return DIRECTORIES.computeIfAbsent(hasher.hash(), hash -> materialize(contents));
+        } catch (final IOException e) {
+            throw new UncheckedIOException("Unable to materialize jq modules", e);
+        }
+    }
+
+    /**
+     * Returns the paths of classpath modules, relative to {@link #getResourcePath()}, e.g.
+     * <code>a.jq</code> or <code>lib/jq/f.jq</code>.
+     *
+     * @return the paths of classpath modules
+     */
+    public abstract List<String> getModules();
+
+    /**
+     * Returns the classpath folder that contains the modules returned by {@link #getModules()}.
+     *
+     * @return the classpath folder that contains the modules
+     */
+    @Value.Default
+    public String getResourcePath() {
+        return "";
+    }
+
+    /**
+     * Returns in-memory modules, keyed by relative path, e.g. <code>util.jq</code>.
+     *
+     * @return in-memory modules, keyed by relative path
+     */
+    @Value.Default
+    public Map<String, String> getSources() {
+        return ImmutableMap.of();
+    }
+
+    @Value.Check
+    protected void checkBundle() {
+        final String resourcePath = getResourcePath();
+        Preconditions.checkState(
+                !resourcePath.startsWith("/") && !resourcePath.endsWith("/"),
+                "Resource path must not begin or end with '/': %s",
+                resourcePath);
+        Preconditions.checkState(
+                getModules().size() != 0 || getSources().size() != 0,
+                "Module bundle must contain at least one module");
+    }
+
+    /**
+     * Returns the contents of every module, keyed by relative path; in-memory modules replace
+     * classpath modules with the same path.
+     */
+    private Map<String, byte[]> readModules() throws IOException {
+        final Map<String, byte[]> contents = new TreeMap<>();
+        final String resourcePath = getResourcePath();
+        for (final String module : getModules()) {
+            final String resource = resourcePath.isEmpty() ? module : resourcePath + "/" + module;
+            try (InputStream in = getClassLoader().getResourceAsStream(resource)) {
+                Preconditions.checkState(in != null, "Cannot find resource %s", resource);
+                contents.put(module, ByteStreams.toByteArray(in));
+            }
+        }
+        for (final Map.Entry<String, String> source : getSources().entrySet()) {
+            contents.put(source.getKey(), source.getValue().getBytes(Charsets.UTF_8));
+        }
+        return contents;
+    }
+}
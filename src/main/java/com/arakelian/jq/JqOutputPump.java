@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static java.util.logging.Level.FINE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Writes the output of jq on a consumer thread. The thread that is running jq batches UTF-8
+ * encoded results into chunks, and hands them to the consumer over a bounded queue, so that
+ * writing the output overlaps with execution.
+ *
+ * The thread that is running jq holds the jq lock, so it never waits for the consumer: chunks that
+ * do not fit in the queue of {@link #CAPACITY} chunks are kept on the heap until
+ * {@link #finish()}, which is called after the lock is released. A slow output stream therefore
+ * costs memory rather than stalling every other execution.
+ */
+final class JqOutputPump implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(JqOutputPump.class.getName());
+
+    /** Size of each chunk of output **/
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    /** Maximum number of chunks waiting to be written **/
+    static final int CAPACITY = 4;
+
+    /** Marks the end of the output **/
+    private static final byte[] END = new byte[0];
+
+    private static final ExecutorService CONSUMERS = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder() //
+                    .setNameFormat("jq-output-%d") //
+                    .setDaemon(true) //
+                    .build());
+
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CAPACITY);
+
+    private final Future<?> consumer;
+
+    /** Chunks that did not fit in the queue, in order; only used by the thread that is running jq **/
+    private final Deque<byte[]> spilled = new ArrayDeque<>();
+
+    /** Error reported by consumer; output is discarded once set **/
+    private volatile IOException failure;
+
+    private byte[] buffer = new byte[CHUNK_SIZE];
+
+    private int length;
+
+    private long byteCount;
+
+    JqOutputPump(final OutputStream output) {
+        consumer = CONSUMERS.submit(() -> consume(output));
+    }
+
+    /**
+     * Stops the consumer if output has not been finished.
+     */
+    @Override
+    public void close() {
+        consumer.cancel(true);
+    }
+
+    /**
+     * Writes any buffered output, and waits until all output has been written and flushed.
+     *
+     * @throws IOException
+     *             if the output could not be written
+     */
+    void finish() throws IOException {
+        flush();
+        while (!spilled.isEmpty()) {
+            put(spilled.removeFirst());
+        }
+        put(END);
+        try {
+            consumer.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing output");
+        } catch (final ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        if (failure != null) {
+            throw new IOException(failure.getMessage(), failure);
+        }
+    }
+
+    /**
+     * Returns the number of bytes of output.
+     *
+     * @return the number of bytes of output
+     */
+    long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Returns true if output can no longer be written, in which case there is no point in
+     * producing more of it.
+     *
+     * @return true if output can no longer be written
+     */
+    boolean isFailed() {
+        return failure != null;
+    }
+
+    /**
+     * Appends the given bytes to the output, without waiting for the consumer.
+     *
+     * @param bytes
+     *            UTF-8 encoded output
+     */
+    void write(final byte[] bytes) {
+        byteCount += bytes.length;
+        if (length + bytes.length > buffer.length) {
+            flush();
+        }
+        if (bytes.length >= buffer.length) {
+            // large results are handed over as is
+            offer(bytes);
+            return;
+        }
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void consume(final OutputStream output) {
+        for (;;) {
+            final byte[] chunk;
+            try {
+                chunk = chunks.take();
+            } catch (final InterruptedException e) {
+                // producer has gone away
+                return;
+            }
+            if (chunk == END) {
+                break;
+            }
+            if (failure != null) {
+                // keep draining so that producer does not block
+                continue;
+            }
+            try {
+                output.write(chunk);
+            } catch (final IOException e) {
+                LOGGER.log(FINE, "Unable to write output", e);
+                failure = e;
+            }
+        }
+
+        if (failure == null) {
+            try {
+                output.flush();
+            } catch (final IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private void flush() {
+        if (length == 0) {
+            return;
+        }
+        offer(length == buffer.length ? buffer : Arrays.copyOf(buffer, length));
+        buffer = new byte[CHUNK_SIZE];
+        length = 0;
+    }
+
+    /**
+     * Hands a chunk to the consumer if there is room for it, keeping it on the heap otherwise.
+     */
+    private void offer(final byte[] chunk) {
+        if (failure != null) {
+            // output can no longer be written
+            spilled.clear();
+            return;
+        }
+        while (!spilled.isEmpty() && chunks.offer(spilled.peekFirst())) {
+            spilled.removeFirst();
+        }
+        if (!spilled.isEmpty() || !chunks.offer(chunk)) {
+            spilled.addLast(chunk);
+        }
+    }
+
+    private void put(final byte[] chunk) throws InterruptedIOException {
+        try {
+            chunks.put(chunk);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing output");
+        }
+    }
+}
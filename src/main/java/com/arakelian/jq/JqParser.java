@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static java.util.logging.Level.FINE;
+
+import java.io.Closeable;
+import java.util.logging.Logger;
+
+import com.google.common.base.Preconditions;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * A native jq parser, and the pooled buffer it is currently reading from. All methods must be
+ * called while holding the jq lock.
+ */
+final class JqParser implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(JqParser.class.getName());
+
+    private final JqLibrary lib;
+
+    private final JqBufferPool pool;
+
+    private Pointer parser;
+
+    /** Parser reads directly from this buffer, so it cannot be released until parser is done **/
+    private Memory buffer;
+
+    JqParser(final JqLibrary lib) {
+        this.lib = lib;
+        this.pool = lib.getBufferPool();
+
+        LOGGER.log(FINE, "Creating parse");
+        final int parserFlags = 0;
+        this.parser = lib.jv_parser_new(parserFlags);
+        Preconditions.checkState(parser != null, "parser must be non-null");
+    }
+
+    @Override
+    public void close() {
+        if (parser != null) {
+            LOGGER.log(FINE, "Releasing parser");
+            lib.jv_parser_free(parser);
+            parser = null;
+        }
+        releaseBuffer();
+    }
+
+    Pointer getPointer() {
+        Preconditions.checkState(parser != null, "Parser has been closed");
+        return parser;
+    }
+
+    /**
+     * Gives the next chunk of input to the parser. The previous chunk must have been consumed
+     * completely, i.e. <code>jv_parser_next</code> must have returned an invalid value.
+     *
+     * @param input
+     *            UTF-8 encoded input
+     * @param offset
+     *            offset of chunk
+     * @param length
+     *            length of chunk
+     * @param finished
+     *            true if this is the last chunk of input
+     */
+    void setBuf(final byte[] input, final int offset, final int length, final boolean finished) {
+        releaseBuffer();
+        buffer = pool.acquire(length);
+        buffer.write(0, input, offset, length);
+
+        // give text to JQ parser
+        LOGGER.log(FINE, "Sending text to parser");
+        lib.jv_parser_set_buf(getPointer(), buffer, length, finished);
+    }
+
+    private void releaseBuffer() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+}
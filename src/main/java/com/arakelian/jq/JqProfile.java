@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.util.Map;
+import java.util.Optional;
+
+import org.immutables.value.Value;
+
+/**
+ * Cumulative cost of executing a filter, as recorded by {@link JqProfiler}.
+ */
+@Value.Immutable
+public abstract class JqProfile {
+    /**
+     * Returns the CPU time spent executing the filter, in nanoseconds.
+     *
+     * @return the CPU time spent executing the filter
+     */
+    public abstract long getCpuNanos();
+
+    /**
+     * Returns the bytecode of the filter, as printed by <code>jq_dump_disassembly</code>. Only
+     * present in profiles returned by {@link JqProfiler#analyze(int)}.
+     *
+     * @return the bytecode of the filter
+     */
+    public abstract Optional<String> getDisassembly();
+
+    public abstract long getErrorCount();
+
+    public abstract long getExecutionCount();
+
+    public abstract String getFilter();
+
+    /**
+     * Returns the total size of input, in bytes.
+     *
+     * @return the total size of input
+     */
+    public abstract long getInputBytes();
+
+    /**
+     * Returns the number of times each jq opcode was executed when the filter was traced against
+     * the most recent input that it was executed against, if that input was small enough to be
+     * kept. Filters whose requests limit {@link JqRequest#getMaxNativeBytes()} are not traced, since
+     * traces cannot enforce the limit. Only present in profiles returned by
+     * {@link JqProfiler#analyze(int)}.
+     *
+     * @return the number of times each opcode was executed, keyed by opcode
+     */
+    public abstract Map<String, Long> getOpcodeCounts();
+
+    /**
+     * Returns the total size of output, in bytes.
+     *
+     * @return the total size of output
+     */
+    public abstract long getOutputBytes();
+
+    public abstract long getResultCount();
+}
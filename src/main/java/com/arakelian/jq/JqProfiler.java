@@ -0,0 +1,269 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static java.util.logging.Level.FINE;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.LineProcessor;
+
+/**
+ * Records the cumulative cost of each distinct filter that is executed, so that the most expensive
+ * filters can be found and rewritten.
+ *
+ * Profiling is disabled by default. When enabled, every execution by a {@link JqProgram},
+ * including executions of {@link JqRequest#execute()}, cursors, sessions and extractors, adds its
+ * CPU time, input and output sizes, and result and error counts to the totals of its filter.
+ * Requests that are answered by the pure-Java fast path are recorded as well, while requests that
+ * are answered by the cache are not.
+ *
+ * <pre>
+ * JqProfiler.enable();
+ * ...
+ * for (JqProfile profile : JqProfiler.analyze(10)) {
+ *     System.err.println(profile.getFilter() + " " + profile.getCpuNanos());
+ * }
+ * </pre>
+ */
+public final class JqProfiler {
+    /**
+     * Counts the opcodes of the instructions in a trace.
+     */
+    private static final class OpcodeCounter implements LineProcessor<Map<String, Long>> {
+        private final Map<String, Long> counts = new TreeMap<>();
+
+        @Override
+        public Map<String, Long> getResult() {
+            return counts;
+        }
+
+        @Override
+        public boolean processLine(final String line) {
+            final Matcher matcher = TRACE_OPCODE.matcher(line);
+            if (matcher.find()) {
+                counts.merge(matcher.group(1), 1L, Long::sum);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Totals of a single filter.
+     */
+    private static final class Stats {
+        private final String filter;
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder cpuNanos = new LongAdder();
+        private final LongAdder inputBytes = new LongAdder();
+        private final LongAdder outputBytes = new LongAdder();
+        private final LongAdder results = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        /** Most recent request, without its input, and variables, used to recompile the filter **/
+        private volatile JqRequest request;
+        private volatile List<String> variables;
+
+        /** Most recent input that is small enough to be traced, or null **/
+        private volatile String sample;
+
+        private Stats(final String filter) {
+            this.filter = filter;
+        }
+
+        private ImmutableJqProfile.Builder toProfile() {
+            return ImmutableJqProfile.builder() //
+                    .filter(filter) //
+                    .executionCount(executions.sum()) //
+                    .cpuNanos(cpuNanos.sum()) //
+                    .inputBytes(inputBytes.sum()) //
+                    .outputBytes(outputBytes.sum()) //
+                    .resultCount(results.sum()) //
+                    .errorCount(errors.sum());
+        }
+    }
+
+    /**
+     * Collects lines of text.
+     */
+    private static final class TextProcessor implements LineProcessor<String> {
+        private final StringBuilder buf = new StringBuilder();
+
+        @Override
+        public String getResult() {
+            return buf.toString();
+        }
+
+        @Override
+        public boolean processLine(final String line) {
+            buf.append(line).append('\n');
+            return true;
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(JqProfiler.class.getName());
+
+    /** Maximum length of input that is kept for tracing; traces print the stack at every step **/
+    public static final int MAX_SAMPLE_LENGTH = 4096;
+
+    /** Instructions in traces start with a program counter followed by the opcode **/
+    private static final Pattern TRACE_OPCODE = Pattern.compile("^\\d{4,} ([A-Z][A-Z0-9_]*)");
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static final boolean CPU_TIME_SUPPORTED = THREADS.isCurrentThreadCpuTimeSupported();
+
+    private static final ConcurrentMap<String, Stats> STATS = new ConcurrentHashMap<>();
+
+    private static volatile boolean enabled;
+
+    /**
+     * Returns the profiles of the most expensive filters, by CPU time, including the bytecode of
+     * each filter and the opcodes executed when it is traced against its most recent sample input.
+     *
+     * Analysis recompiles each filter and briefly redirects the stdout of the process, to which
+     * libjq prints disassembly and traces; anything else the process writes to stdout at that time
+     * is lost. Analysis is not available on Windows.
+     *
+     * @param limit
+     *            maximum number of filters
+     * @return the profiles of the most expensive filters, most expensive first
+     */
+    public static List<JqProfile> analyze(final int limit) {
+        return top(limit).stream() //
+                .map(JqProfiler::analyzeFilter) //
+                .collect(Collectors.toList());
+    }
+
+    public static void disable() {
+        enabled = false;
+    }
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Returns the profiles of the most expensive filters, by CPU time.
+     *
+     * @param limit
+     *            maximum number of filters
+     * @return the profiles of the most expensive filters, most expensive first
+     */
+    public static List<JqProfile> getTopFilters(final int limit) {
+        return top(limit).stream() //
+                .map(stats -> stats.toProfile().build()) //
+                .collect(Collectors.toList());
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Discards all recorded totals.
+     */
+    public static void reset() {
+        STATS.clear();
+    }
+
+    /**
+     * Returns the CPU time of the current thread, or wall clock time if CPU time is not supported,
+     * in nanoseconds.
+     */
+    static long cpuTime() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    /**
+     * Adds an execution of the given request to the totals of its filter.
+     */
+    static void record(
+            final JqRequest request,
+            final List<String> variables,
+            final String sample,
+            final long cpuNanos,
+            final long inputBytes,
+            final long outputBytes,
+            final int resultCount,
+            final int errorCount) {
+        final Stats stats = STATS.computeIfAbsent(request.getFilter(), Stats::new);
+        stats.executions.increment();
+        stats.cpuNanos.add(cpuNanos);
+        stats.inputBytes.add(inputBytes);
+        stats.outputBytes.add(outputBytes);
+        stats.results.add(resultCount);
+        stats.errors.add(errorCount);
+        // input is not needed to recompile the filter and may be large
+        stats.request = request.getInput().isEmpty() ? request : ImmutableJqRequest.copyOf(request).withInput("");
+        stats.variables = variables;
+        if (sample != null && sample.length() <= MAX_SAMPLE_LENGTH) {
+            stats.sample = sample;
+        }
+    }
+
+    private static JqProfile analyzeFilter(final Stats stats) {
+        final ImmutableJqProfile.Builder profile = stats.toProfile();
+        final String sample = stats.sample;
+
+        JqLock.lock();
+        try (JqProgram program = JqProgram.compile(stats.request, stats.variables)) {
+            if (!program.isValid()) {
+                return profile.build();
+            }
+
+            profile.disassembly(StdoutCapture.capture(program::dumpDisassembly, new TextProcessor()));
+            // traced executions are not run by the shim, which enforces native memory limits
+            if (sample != null && !stats.request.getMaxNativeBytes().isPresent()) {
+                program.setTraced(true);
+                profile.putAllOpcodeCounts(StdoutCapture.capture(() -> program.execute(sample), new OpcodeCounter()));
+            }
+        } catch (final IOException | UnsupportedOperationException e) {
+            LOGGER.log(FINE, "Unable to analyze filter: " + stats.filter, e);
+        } finally {
+            JqLock.unlock();
+        }
+        return profile.build();
+    }
+
+    private static List<Stats> top(final int limit) {
+        Preconditions.checkArgument(limit >= 0, "limit must be non-negative");
+        return STATS.values().stream() //
+                .sorted(Comparator.comparingLong((final Stats stats) -> stats.cpuNanos.sum()).reversed()) //
+                .limit(limit) //
+                .collect(Collectors.toList());
+    }
+
+    private JqProfiler() {
+        // utility class
+    }
+}
@@ -0,0 +1,1180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static java.util.logging.Level.FINE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.arakelian.jq.JqLibrary.ErrorCallback;
+import com.arakelian.jq.JqLibrary.Jv;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Utf8;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+/**
+ * A jq filter that has been compiled once and can be executed any number of times.
+ *
+ * A program may declare variables whose values are bound for each execution, rather than baked
+ * into the program at compile time like {@link JqRequest#getArgJson()}. This allows a single
+ * program to serve filters that differ only in the value of a variable, e.g.
+ * <code>select(.tenant == $tenant)</code>.
+ *
+ * <pre>
+ * try (JqProgram program = ImmutableJqRequest.builder() //
+ *         .lib(library) //
+ *         .input("") //
+ *         .filter("select(.tenant == $tenant)") //
+ *         .build() //
+ *         .compile("tenant")) {
+ *     JqResponse response = program.execute(input, ImmutableMap.of("tenant", "\"acme\""));
+ * }
+ * </pre>
+ *
+ * Programs must be closed to release native resources. {@link JqRequest#getMaxNativeBytes()} can
+ * only be enforced when a program without variables is executed against text by the jq shim;
+ * other executions of a program with a limit fail with {@link IllegalStateException}. A program
+ * whose execution is stopped because jq exceeded its limit can no longer be used; it must still be
+ * closed.
+ */
+public final class JqProgram implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(JqProgram.class.getName());
+
+    /** Bindings for executions that do not bind any variables **/
+    static final Jv[] NO_BINDINGS = new Jv[0];
+
+    private static final byte[] NO_INPUT = new byte[0];
+
+    /** Reported when an execution cannot enforce the native memory limit of its program **/
+    private static final String UNENFORCED_LIMIT = "maxNativeBytes is only enforced when text is executed by "
+            + "the jq shim, without variables";
+
+    private static final Pattern VARIABLE_NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    /**
+     * Compiles the filter of the given request. Caller must hold the jq lock.
+     */
+    static JqProgram compile(final JqRequest request, final Collection<String> variables) {
+        final Set<String> names = ImmutableSet.copyOf(variables);
+        for (final String name : names) {
+            Preconditions.checkArgument(
+                    VARIABLE_NAME.matcher(name).matches(),
+                    "Invalid variable name: %s",
+                    name);
+            Preconditions.checkArgument(
+                    !request.getArgJson().containsKey(name),
+                    "Variable %s is already bound by --argjson",
+                    name);
+        }
+        return new JqProgram(request, ImmutableList.copyOf(names));
+    }
+
+    /**
+     * Returns the message associated with an invalid value, or null if the value has no message.
+     * Caller must hold the jq lock.
+     *
+     * @param lib
+     *            jq library
+     * @param value
+     *            value reference
+     * @return the message associated with an invalid value, or null
+     */
+    static String getInvalidMessage(final JqLibrary lib, final Jv value) {
+        final Jv copy = lib.jv_copy(value);
+        if (lib.jv_invalid_has_msg(copy)) {
+            final Jv message = lib.jv_invalid_get_msg(value);
+            return lib.jv_string_value(message);
+        } else {
+            lib.jv_free(value);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the offset of the first character that follows any leading <code>module</code>,
+     * <code>import</code> or <code>include</code> directives, which must precede the body of a
+     * jq program.
+     *
+     * @param filter
+     *            jq filter
+     * @return offset of the body of the program
+     */
+    static int skipDirectives(final String filter) {
+        final int length = filter.length();
+        int body = 0;
+        for (;;) {
+            int pos = skipWhitespaceAndComments(filter, body);
+            if (!startsWithKeyword(filter, pos, "module") && !startsWithKeyword(filter, pos, "import")
+                    && !startsWithKeyword(filter, pos, "include")) {
+                return body;
+            }
+
+            // directive ends at first semicolon that is not inside a string or metadata object
+            int depth = 0;
+            boolean inString = false;
+            for (;;) {
+                if (pos >= length) {
+                    // malformed directive, let jq report the error
+                    return body;
+                }
+                final char ch = filter.charAt(pos++);
+                if (inString) {
+                    if (ch == '\\') {
+                        pos++;
+                    } else if (ch == '"') {
+                        inString = false;
+                    }
+                } else if (ch == '"') {
+                    inString = true;
+                } else if (ch == '#') {
+                    pos = skipWhitespaceAndComments(filter, pos - 1);
+                } else if (ch == '{' || ch == '[' || ch == '(') {
+                    depth++;
+                } else if (ch == '}' || ch == ']' || ch == ')') {
+                    depth--;
+                } else if (ch == ';' && depth == 0) {
+                    break;
+                }
+            }
+            body = pos;
+        }
+    }
+
+    private static int skipWhitespaceAndComments(final String filter, final int start) {
+        final int length = filter.length();
+        int pos = start;
+        while (pos < length) {
+            final char ch = filter.charAt(pos);
+            if (ch == '#') {
+                while (pos < length && filter.charAt(pos) != '\n') {
+                    pos++;
+                }
+            } else if (Character.isWhitespace(ch)) {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        return pos;
+    }
+
+    private static boolean startsWithKeyword(final String filter, final int pos, final String keyword) {
+        if (!filter.startsWith(keyword, pos)) {
+            return false;
+        }
+        final int end = pos + keyword.length();
+        if (end == filter.length()) {
+            return true;
+        }
+        final char ch = filter.charAt(end);
+        return !Character.isLetterOrDigit(ch) && ch != '_';
+    }
+
+    private final JqRequest request;
+
+    private final JqLibrary lib;
+
+    private final List<String> variables;
+
+    private final List<String> compileErrors;
+
+    private final boolean compiled;
+
+    /** Reference must be kept for as long as the callback is registered with native code **/
+    private final ErrorCallback callback;
+
+    private final boolean rawOutput;
+
+    private final String separator;
+
+    private final byte[] separatorBytes;
+
+    /** Number of bytes of native memory that an execution may allocate, or 0 if not limited **/
+    private final long maxNativeBytes;
+
+    /** Shim that tracks native memory allocated by jq, or null if memory is not tracked **/
+    private final JqShim tracker;
+
+    /** Receives errors reported by jq during the current execution **/
+    private List<String> errors;
+
+    /** Number of results produced by the current execution **/
+    private int resultCount;
+
+    /**
+     * Held by each execution that is started by a public method, so that executions of this
+     * program wait while a stream has released the jq lock to wait for input
+     **/
+    private final ReentrantLock usage = new ReentrantLock();
+
+    /** True while a cursor, session or waiting stream is using this program **/
+    private boolean attached;
+
+    /** True if instructions are printed to stdout as they are executed **/
+    private boolean traced;
+
+    /** CPU time when the current execution began, or -1 if it is not profiled **/
+    private long cpuStart;
+
+    /** Peak native memory allocated by the current execution, or -1 if not tracked **/
+    private long peakNativeBytes;
+
+    /** Native memory accounting of the current execution while it is suspended, or null **/
+    private long[] suspended;
+
+    /** True if an execution was abandoned by the shim, leaving the state of jq unusable **/
+    private boolean abandoned;
+
+    private Pointer jq;
+
+    private JqProgram(final JqRequest request, final List<String> variables) {
+        this.request = request;
+        this.lib = request.getLib();
+        this.variables = variables;
+        this.rawOutput = request.isRawOutput();
+        this.separator = request.isJoinOutput() ? "" : request.getStreamSeparator();
+        this.separatorBytes = separator.getBytes(Charsets.UTF_8);
+
+        // resolve module paths before allocating native resources
+        final List<String> dirs = request.getModuleDirectories();
+
+        final OptionalLong max = request.getMaxNativeBytes();
+        Preconditions.checkArgument(!max.isPresent() || max.getAsLong() > 0, "maxNativeBytes must be positive");
+        this.maxNativeBytes = max.orElse(0);
+        this.tracker = lib.getShim().filter(shim -> shim.isMemoryTracked(lib)).orElse(null);
+        Preconditions.checkState(
+                maxNativeBytes == 0 || tracker != null,
+                "Native memory limits require the jq shim, which is not available");
+        this.peakNativeBytes = -1;
+
+        LOGGER.log(FINE, "Initializing JQ");
+        jq = lib.jq_init();
+        Preconditions.checkState(jq != null, "jq must be non-null");
+
+        Jv moduleDirs = lib.jv_array();
+        for (final String dir : dirs) {
+            LOGGER.log(FINE, "Using module path: {0}", dir);
+            moduleDirs = lib.jv_array_append(moduleDirs, lib.jv_string(dir));
+        }
+        lib.jq_set_attr(jq, lib.jv_string("JQ_LIBRARY_PATH"), moduleDirs);
+
+        LOGGER.log(FINE, "Configuring callback");
+        errors = Lists.newArrayList();
+        callback = (data, jv) -> {
+            LOGGER.log(FINE, "Error callback");
+            final int kind = lib.jv_get_kind(jv);
+            if (kind == JqLibrary.JV_KIND_STRING) {
+                final String error = lib.jv_string_value(jv).replaceAll("\\s++$", "");
+                errors.add(error);
+            }
+        };
+        lib.jq_set_error_cb(jq, callback, new Pointer(0));
+
+        final JqEvents.Compile event = new JqEvents.Compile();
+        event.begin();
+        try {
+            compiled = compile();
+        } finally {
+            compileErrors = ImmutableList.copyOf(errors);
+            event.end();
+            if (event.shouldCommit()) {
+                event.filter = JqEvents.truncate(request.getFilter());
+                event.success = compiled;
+                event.errorCount = compileErrors.size();
+                event.commit();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        JqLock.lockForRelease();
+        try {
+            if (jq != null) {
+                LOGGER.log(FINE, "Releasing JQ");
+                lib.jq_set_error_cb(jq, null, null);
+                lib.jq_teardown(jq);
+                jq = null;
+                LOGGER.log(FINE, "JQ released successfully");
+            }
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    /**
+     * Executes the program against the given value.
+     *
+     * @param input
+     *            input value
+     * @param values
+     *            values of the variables declared by this program; variables that are not given a
+     *            value are bound to <code>null</code>
+     * @return response
+     */
+    public JqResponse execute(final JqValue input, final Map<String, JqValue> values) {
+        Preconditions.checkArgument(input != null, "input must be non-null");
+        Preconditions.checkArgument(values != null, "values must be non-null");
+        checkVariables(values.keySet());
+        lock();
+        try {
+            final ImmutableJqResponse.Builder response = begin();
+            if (response == null) {
+                return failed();
+            }
+
+            final JqEvents.Execute event = new JqEvents.Execute();
+            event.begin();
+            final Jv[] bindings = new Jv[variables.size()];
+            try {
+                bind(values, bindings);
+                final StringBuilder buf = new StringBuilder();
+                start(input.copy(), bindings);
+                drain(buf);
+                commit(event, null, 0, Utf8.encodedLength(buf));
+                return end(response, buf);
+            } finally {
+                free(bindings);
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Executes the program against a stream of JSON text, which may contain any number of JSON
+     * values and may be compressed. The stream is decoded on a separate thread and handed to jq in
+     * bounded chunks, so decoding overlaps with execution and the input is never held in memory
+     * in its entirety. The stream is closed when execution finishes.
+     *
+     * The jq lock is released while waiting for the next chunk of input, so a stream that stalls,
+     * e.g. a slow network upload, does not delay executions of other programs; executions of this
+     * program wait for the stream to finish.
+     *
+     * @param input
+     *            stream of JSON text
+     * @param codec
+     *            codec that decodes the stream, e.g. {@link JqCodec#GZIP}
+     * @return response
+     * @throws IOException
+     *             if the stream cannot be read or decoded
+     */
+    public JqResponse execute(final InputStream input, final JqCodec codec) throws IOException {
+        Preconditions.checkArgument(input != null, "input must be non-null");
+        Preconditions.checkArgument(codec != null, "codec must be non-null");
+
+        // start decoding while we wait for the jq lock
+        try (JqInputPump pump = new JqInputPump(input, codec)) {
+            lock();
+            try {
+                final ImmutableJqResponse.Builder response = begin();
+                if (response == null) {
+                    return failed();
+                }
+
+                final JqEvents.Execute event = new JqEvents.Execute();
+                event.begin();
+                final StringBuilder buf = new StringBuilder();
+                final long inputBytes = stream(pump, buf, null);
+                commit(event, null, inputBytes, Utf8.encodedLength(buf));
+                return end(response, buf);
+            } finally {
+                unlock();
+            }
+        }
+    }
+
+    /**
+     * Executes the program against a stream of JSON text, writing results to the given output
+     * stream rather than returning them in the response. Execution is pipelined: the input is
+     * decoded on one thread, results are written on another, and only the thread that runs jq
+     * waits for the jq lock. Results are written as UTF-8, separated by
+     * {@link JqRequest#getStreamSeparator()}. The input stream is closed when execution finishes;
+     * the output stream is flushed but not closed.
+     *
+     * As with {@link #execute(InputStream, JqCodec)}, the jq lock is released while waiting for
+     * input.
+     *
+     * @param input
+     *            stream of JSON text
+     * @param codec
+     *            codec that decodes the input stream, e.g. {@link JqCodec#GZIP}
+     * @param output
+     *            stream that receives results
+     * @return response that contains any errors, but no output
+     * @throws IOException
+     *             if the input cannot be read or decoded, or the output cannot be written
+     */
+    public JqResponse execute(final InputStream input, final JqCodec codec, final OutputStream output)
+            throws IOException {
+        Preconditions.checkArgument(input != null, "input must be non-null");
+        Preconditions.checkArgument(codec != null, "codec must be non-null");
+        Preconditions.checkArgument(output != null, "output must be non-null");
+
+        try (JqInputPump pump = new JqInputPump(input, codec); JqOutputPump out = new JqOutputPump(output)) {
+            final ImmutableJqResponse.Builder response;
+            lock();
+            try {
+                response = begin();
+                if (response == null) {
+                    return failed();
+                }
+
+                final JqEvents.Execute event = new JqEvents.Execute();
+                event.begin();
+                final long inputBytes = stream(pump, null, out);
+                commit(event, null, inputBytes, out.getByteCount());
+                response.addAllErrors(errors);
+                if (peakNativeBytes != -1) {
+                    response.peakNativeBytes(peakNativeBytes);
+                }
+            } finally {
+                unlock();
+            }
+
+            // wait for output without holding the jq lock
+            out.finish();
+            return response.output("").build();
+        }
+    }
+
+    /**
+     * Executes the program against the given JSON text, which may contain any number of JSON
+     * values.
+     *
+     * @param input
+     *            input JSON
+     * @return response
+     */
+    public JqResponse execute(final String input) {
+        return execute(input, ImmutableMap.of());
+    }
+
+    /**
+     * Executes the program against the given JSON text, which may contain any number of JSON
+     * values.
+     *
+     * @param input
+     *            input JSON
+     * @param argJson
+     *            JSON text of the variables declared by this program; variables that are not given
+     *            a value are bound to <code>null</code>
+     * @return response
+     */
+    public JqResponse execute(final String input, final Map<String, String> argJson) {
+        Preconditions.checkArgument(input != null, "input must be non-null");
+        Preconditions.checkArgument(argJson != null, "argJson must be non-null");
+        checkVariables(argJson.keySet());
+        lock();
+        try {
+            final Optional<JqShim> shim = lib.getShim();
+            final boolean shimmed = variables.size() == 0 && shim.isPresent() && !traced;
+            final ImmutableJqResponse.Builder response = begin(shimmed);
+            if (response == null) {
+                return failed();
+            }
+
+            final JqEvents.Execute event = new JqEvents.Execute();
+            event.begin();
+            final Jv[] bindings = new Jv[variables.size()];
+            try {
+                for (final String name : argJson.keySet()) {
+                    final int index = indexOf(name);
+                    final Jv json = lib.jv_parse(argJson.get(name));
+                    if (!lib.jv_is_valid(json)) {
+                        lib.jv_free(json);
+                        errors.add("Invalid JSON text passed to --argjson (name: " + name + ")");
+                        commit(event, input, 0, 0);
+                        return end(response, new StringBuilder());
+                    }
+                    bindings[index] = json;
+                }
+
+                if (shimmed) {
+                    final StringBuilder buf = new StringBuilder();
+                    final int inputBytes = execute(shim.get(), input, buf);
+                    commit(event, input, inputBytes, Utf8.encodedLength(buf));
+                    return end(response, buf);
+                }
+
+                try (JqParser parser = new JqParser(lib)) {
+                    final StringBuilder buf = new StringBuilder();
+                    final int inputBytes = parse(parser, input, bindings, buf);
+                    commit(event, input, inputBytes, Utf8.encodedLength(buf));
+                    return end(response, buf);
+                }
+            } finally {
+                free(bindings);
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Returns the errors reported when the program was compiled.
+     *
+     * @return the errors reported when the program was compiled
+     */
+    public List<String> getCompileErrors() {
+        return compileErrors;
+    }
+
+    public String getFilter() {
+        return request.getFilter();
+    }
+
+    /**
+     * Returns the names of the variables that are bound for each execution.
+     *
+     * @return the names of the variables that are bound for each execution
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Returns true if the program compiled successfully.
+     *
+     * @return true if the program compiled successfully
+     */
+    public boolean isValid() {
+        return compiled;
+    }
+
+    /**
+     * Opens a cursor over the results of executing the program against the given JSON text.
+     * The program cannot be executed again until the cursor is closed.
+     *
+     * @param input
+     *            input JSON
+     * @return cursor that must be closed
+     */
+    public JqCursor open(final String input) {
+        Preconditions.checkArgument(input != null, "input must be non-null");
+        lock();
+        try {
+            return new JqCursor(this, input, false);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Opens a session that executes the program against JSON text that is fed to it in fragments;
+     * see {@link JqStreamSession}. The program cannot be executed again until the session is
+     * finished or closed. Opening a session does not wait for the jq lock.
+     *
+     * @param executor
+     *            executor that processes fragments when the jq lock is not free
+     * @param results
+     *            receives each result as soon as it is computed
+     * @return session that must be finished or closed
+     * @throws IllegalStateException
+     *             if the program has a native memory limit, which sessions cannot enforce
+     */
+    public JqStreamSession openSession(final Executor executor, final Consumer<String> results) {
+        Preconditions.checkState(maxNativeBytes == 0, UNENFORCED_LIMIT);
+        return new JqStreamSession(this, executor, results);
+    }
+
+    /**
+     * Counts a result that was consumed by the caller rather than by draining the program.
+     * Caller must hold the jq lock.
+     */
+    void addResult() {
+        resultCount++;
+    }
+
+    /**
+     * Marks the program as being used by a cursor. Caller must hold the jq lock.
+     */
+    void attach() {
+        attached = true;
+    }
+
+    /**
+     * Starts an execution that is not run by the shim, returning null if the program failed to
+     * compile. Caller must hold the jq lock.
+     *
+     * @throws IllegalStateException
+     *             if the program has a native memory limit, which cannot be enforced
+     */
+    ImmutableJqResponse.Builder begin() {
+        return begin(false);
+    }
+
+    /**
+     * Sets native values for the given variable values; unbound variables are left null. Caller
+     * must hold the jq lock.
+     */
+    void bind(final Map<String, JqValue> values, final Jv[] bindings) {
+        for (final String name : values.keySet()) {
+            bindings[indexOf(name)] = values.get(name).copy();
+        }
+    }
+
+    /**
+     * Finishes accounting for an execution that was started by {@link #begin()}: ends native
+     * memory accounting, records the execution with the profiler and commits its event. Caller
+     * must hold the jq lock.
+     */
+    void commit(
+            final JqEvents.Execute event,
+            final String input,
+            final long inputBytes,
+            final long outputBytes) {
+        resume();
+        if (tracker != null) {
+            peakNativeBytes = tracker.endMemory();
+        }
+        if (cpuStart != -1) {
+            final long cpuNanos = JqProfiler.cpuTime() - cpuStart;
+            JqProfiler.record(request, variables, input, cpuNanos, inputBytes, outputBytes, resultCount, errors.size());
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.filter = JqEvents.truncate(request.getFilter());
+            event.inputBytes = inputBytes;
+            event.outputBytes = outputBytes;
+            event.resultCount = resultCount;
+            event.errorCount = errors.size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Marks the program as no longer being used by a cursor. Caller must hold the jq lock.
+     */
+    void detach() {
+        attached = false;
+    }
+
+    /**
+     * Consumes all of the results of the current input. Caller must hold the jq lock.
+     */
+    void drain(final StringBuilder buf) {
+        for (;;) {
+            final Jv next = next();
+            if (next == null) {
+                break;
+            }
+
+            LOGGER.log(FINE, "Dumping response");
+            final String out = dump(next);
+            if (resultCount++ != 0) {
+                buf.append(separator);
+            }
+            buf.append(out);
+        }
+    }
+
+    /**
+     * Prints the bytecode of this program to stdout. Caller must hold the jq lock.
+     */
+    void dumpDisassembly() {
+        Preconditions.checkState(jq != null, "Program has been closed");
+        lib.jq_dump_disassembly(jq, 0);
+    }
+
+    /**
+     * Returns the text of a result, releasing the result. Caller must hold the jq lock.
+     */
+    String dump(final Jv next) {
+        final JqEvents.Dump event = new JqEvents.Dump();
+        event.begin();
+        final String out;
+        if (rawOutput && lib.jv_get_kind(next) == JqLibrary.JV_KIND_STRING) {
+            try {
+                out = new String(lib.jv_string_bytes(next), Charsets.UTF_8);
+            } finally {
+                lib.jv_free(next);
+            }
+            event.raw = true;
+        } else {
+            out = lib.jv_dump_string(next, request.getDumpFlags());
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.outputBytes = Utf8.encodedLength(out);
+            event.commit();
+        }
+        return out;
+    }
+
+    /**
+     * Finishes an execution. Caller must hold the jq lock.
+     */
+    JqResponse end(final ImmutableJqResponse.Builder response, final StringBuilder buf) {
+        response.addAllErrors(errors);
+        response.output(buf.toString());
+        if (peakNativeBytes != -1) {
+            response.peakNativeBytes(peakNativeBytes);
+        }
+        return response.build();
+    }
+
+    /**
+     * Returns a response that contains the compile errors of this program.
+     */
+    JqResponse failed() {
+        return ImmutableJqResponse.builder() //
+                .addAllErrors(compileErrors) //
+                .build();
+    }
+
+    /**
+     * Releases native values returned by {@link #bind(Map)}. Caller must hold the jq lock.
+     */
+    void free(final Jv[] bindings) {
+        for (final Jv binding : bindings) {
+            if (binding != null) {
+                lib.jv_free(binding);
+            }
+        }
+    }
+
+    /**
+     * Returns the errors reported during the current execution. Caller must hold the jq lock.
+     */
+    List<String> getErrors() {
+        return errors;
+    }
+
+    JqLibrary getLib() {
+        return lib;
+    }
+
+    /**
+     * Returns the number of results of the current execution. Caller must hold the jq lock.
+     */
+    int getResultCount() {
+        return resultCount;
+    }
+
+    /**
+     * Returns the next result of the current input, or null if there are no more results. Caller
+     * must hold the jq lock.
+     */
+    Jv next() {
+        final Jv next = lib.jq_next(jq);
+        if (isValid(next)) {
+            return next;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the next value of the given parser, or null if the parser has no more complete
+     * values. Caller must hold the jq lock.
+     */
+    Jv nextInput(final Pointer parser) {
+        LOGGER.log(FINE, "Parsing text");
+        final Jv parsed = lib.jv_parser_next(parser);
+        if (isValid(parsed)) {
+            return parsed;
+        }
+        return null;
+    }
+
+    /**
+     * Resumes the native memory accounting of an execution that was suspended by
+     * {@link #suspend()}, once the jq lock has been acquired again; has no effect if it is not
+     * suspended. Caller must hold the jq lock.
+     */
+    void resume() {
+        if (suspended != null) {
+            tracker.restoreMemory(suspended);
+            suspended = null;
+        }
+    }
+
+    /**
+     * Changes whether instructions are printed to stdout as they are executed; executions of a
+     * traced program are not profiled.
+     */
+    void setTraced(final boolean traced) {
+        this.traced = traced;
+    }
+
+    /**
+     * Starts processing the given input value, which is consumed. Caller must hold the jq lock.
+     */
+    void start(final Jv input, final Jv[] bindings) {
+        LOGGER.log(FINE, "Consuming JQ response");
+        final int flags = traced ? JqLibrary.JQ_DEBUG_TRACE : 0;
+        if (variables.size() == 0) {
+            lib.jq_start(jq, input, flags);
+            return;
+        }
+
+        // variables are passed as elements of the input array, see compile()
+        Jv array = lib.jv_array_append(lib.jv_array(), input);
+        for (int i = 0, size = variables.size(); i < size; i++) {
+            final Jv binding = i < bindings.length ? bindings[i] : null;
+            final Jv value = binding != null ? lib.jv_copy(binding) : lib.jv_null();
+            array = lib.jv_array_append(array, value);
+        }
+        lib.jq_start(jq, array, flags);
+    }
+
+    /**
+     * Saves the native memory accounting of the current execution before the jq lock is released
+     * in the middle of it, e.g. between the results of a cursor, since other executions reset the
+     * accounting when they begin. Caller must hold the jq lock.
+     */
+    void suspend() {
+        if (tracker != null && suspended == null) {
+            suspended = new long[3];
+            tracker.saveMemory(suspended);
+        }
+    }
+
+    /**
+     * Starts an execution, returning null if the program failed to compile. Caller must hold the
+     * jq lock.
+     */
+    private ImmutableJqResponse.Builder begin(final boolean shimmed) {
+        Preconditions.checkState(shimmed || maxNativeBytes == 0, UNENFORCED_LIMIT);
+        Preconditions.checkState(!abandoned, "Program was abandoned after exceeding its native memory limit");
+        Preconditions.checkState(jq != null, "Program has been closed");
+        Preconditions.checkState(!attached, "Program is being used by an open cursor");
+        if (!isValid()) {
+            return null;
+        }
+        errors = Lists.newArrayList();
+        resultCount = 0;
+        suspended = null;
+        cpuStart = JqProfiler.isEnabled() && !traced ? JqProfiler.cpuTime() : -1;
+        peakNativeBytes = -1;
+        if (tracker != null) {
+            tracker.beginMemory(maxNativeBytes);
+        }
+        return ImmutableJqResponse.builder();
+    }
+
+    /**
+     * Checks that the program declares every given variable, before an execution begins.
+     */
+    private void checkVariables(final Set<String> names) {
+        for (final String name : names) {
+            indexOf(name);
+        }
+    }
+
+    private boolean compile() {
+        // for JQ 1.5, arguments is an array; this changes with JQ 1.6+
+        Jv args = lib.jv_object();
+
+        final Map<String, String> argJson = request.getArgJson();
+        for (final String varname : argJson.keySet()) {
+            final String text = argJson.get(varname);
+
+            final Jv json = lib.jv_parse(text);
+            if (!lib.jv_is_valid(json)) {
+                errors.add("Invalid JSON text passed to --argjson (name: " + varname + ")");
+                lib.jv_free(json);
+                lib.jv_free(args);
+                return false;
+            }
+
+            args = lib.jv_object_set(args, lib.jv_string(varname), json);
+        }
+
+        // compile JQ program
+        LOGGER.log(FINE, "Compiling filter");
+        final String filter = wrap(request.getFilter());
+        if (!lib.jq_compile_args(jq, filter, args)) {
+            // compile errors are captured by callback
+            LOGGER.log(FINE, "Compilation failed");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes all of the results of the current input to the given output. Caller must hold the jq
+     * lock.
+     */
+    private void drain(final JqOutputPump out) {
+        for (;;) {
+            final Jv next = next();
+            if (next == null) {
+                break;
+            }
+
+            final byte[] bytes = dumpBytes(next);
+            if (resultCount++ != 0) {
+                out.write(separatorBytes);
+            }
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Returns the UTF-8 encoded text of a result, releasing the result. Unlike {@link #dump(Jv)},
+     * the text is not decoded. Caller must hold the jq lock.
+     */
+    private byte[] dumpBytes(final Jv next) {
+        final JqEvents.Dump event = new JqEvents.Dump();
+        event.begin();
+        final byte[] out;
+        if (rawOutput && lib.jv_get_kind(next) == JqLibrary.JV_KIND_STRING) {
+            try {
+                out = lib.jv_string_bytes(next);
+            } finally {
+                lib.jv_free(next);
+            }
+            event.raw = true;
+        } else {
+            out = lib.jv_dump_string_bytes(next, request.getDumpFlags());
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.outputBytes = out.length;
+            event.commit();
+        }
+        return out;
+    }
+
+    /**
+     * Executes the program against the given JSON text in a single call to the native shim.
+     *
+     * @return number of bytes of input
+     */
+    private int execute(final JqShim shim, final String text, final StringBuilder buf) {
+        final byte[] input = text.getBytes(Charsets.UTF_8);
+        final JqBufferPool pool = lib.getBufferPool();
+        final Memory memory = pool.acquire(input.length);
+        try {
+            memory.write(0, input, 0, input.length);
+            resultCount = shim.execute(
+                    jq,
+                    memory,
+                    input.length,
+                    request.getDumpFlags(),
+                    rawOutput,
+                    separatorBytes,
+                    buf,
+                    errors);
+        } catch (final JqShim.AbandonedException e) {
+            // jq was interrupted in the middle of an allocation, and cannot be used or released
+            LOGGER.log(FINE, "Abandoning JQ", e);
+            abandoned = true;
+            jq = null;
+            errors.add(e.isLimitExceeded() ? getLimitMessage() : "Unable to allocate native memory");
+        } finally {
+            pool.release(memory);
+        }
+        return input.length;
+    }
+
+    private String getLimitMessage() {
+        return "jq exceeded native memory limit of " + maxNativeBytes + " bytes";
+    }
+
+    private int indexOf(final String name) {
+        final int index = variables.indexOf(name);
+        Preconditions.checkArgument(index != -1, "Program does not declare variable: %s", name);
+        return index;
+    }
+
+    private boolean isValid(final Jv value) {
+        if (lib.jv_is_valid(value)) {
+            return true;
+        }
+
+        // success finishes will return "invalid" value without a message
+        final String message = getInvalidMessage(lib, value);
+        if (message != null) {
+            errors.add(message);
+        }
+        return false;
+    }
+
+    /**
+     * Acquires the jq lock for an execution, after waiting for any other execution of this program
+     * that has released the jq lock while it waits for input.
+     */
+    private void lock() {
+        usage.lock();
+        try {
+            JqLock.lock();
+        } catch (final RuntimeException e) {
+            usage.unlock();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the next chunk of input, or null if there is no more. The jq lock is released while
+     * waiting, so that a stream that stalls does not delay other executions; the program is
+     * attached meanwhile so that it is not used by others. Caller must hold the jq lock.
+     */
+    private byte[] nextChunk(final JqInputPump pump) throws IOException {
+        if (pump.isReady()) {
+            return pump.next();
+        }
+        suspend();
+        attach();
+        JqLock.unlock();
+        try {
+            return pump.next();
+        } finally {
+            // execution has been admitted already, and must be able to release its resources
+            JqLock.lockForRelease();
+            detach();
+            resume();
+        }
+    }
+
+    /**
+     * Add the contents of a native memory array as text to the next chunk of input of the jq
+     * program.
+     *
+     * @param parser
+     *            JQ parser
+     * @param text
+     *            input JSON
+     * @param bindings
+     *            values of variables
+     * @param buf
+     *            output that we are building
+     * @return number of bytes of input
+     */
+    private int parse(final JqParser parser, final String text, final Jv[] bindings, final StringBuilder buf) {
+        final byte[] input = text.getBytes(Charsets.UTF_8);
+        parser.setBuf(input, 0, input.length, true);
+
+        for (;;) {
+            // iterate until JQ consumes all inputs
+            final Jv parsed = nextInput(parser.getPointer());
+            if (parsed == null) {
+                break;
+            }
+
+            // iterate until we consume all JQ streams
+            // see: https://stedolan.github.io/jq/tutorial/
+            start(parsed, bindings);
+            drain(buf);
+        }
+
+        // tell parser we are finished
+        LOGGER.log(FINE, "Finishing with parser");
+        return input.length;
+    }
+
+    /**
+     * Executes the program against every value of the given input, appending results to the given
+     * buffer, or writing them to the given output if it is non-null. Stops reading input if it
+     * cannot be parsed, or if output can no longer be written. Caller must hold the jq lock.
+     *
+     * @return number of bytes of input
+     */
+    private long stream(final JqInputPump pump, final StringBuilder buf, final JqOutputPump out)
+            throws IOException {
+        try (JqParser parser = new JqParser(lib)) {
+            long inputBytes = 0;
+            for (;;) {
+                final byte[] chunk = nextChunk(pump);
+                final boolean finished = chunk == null;
+                final byte[] bytes = finished ? NO_INPUT : chunk;
+                parser.setBuf(bytes, 0, bytes.length, finished);
+                inputBytes += bytes.length;
+
+                for (;;) {
+                    final int errorCount = errors.size();
+                    final Jv parsed = nextInput(parser.getPointer());
+                    if (parsed == null) {
+                        if (errors.size() != errorCount) {
+                            // input cannot be parsed
+                            return inputBytes;
+                        }
+                        break;
+                    }
+
+                    start(parsed, NO_BINDINGS);
+                    if (out == null) {
+                        drain(buf);
+                    } else {
+                        drain(out);
+                        if (out.isFailed()) {
+                            return inputBytes;
+                        }
+                    }
+                }
+
+                if (finished) {
+                    return inputBytes;
+                }
+            }
+        }
+    }
+
+    /**
+     * Releases the locks acquired by {@link #lock()}.
+     */
+    private void unlock() {
+        JqLock.unlock();
+        usage.unlock();
+    }
+
+    /**
+     * Returns the filter text that is compiled. When the program declares variables, the filter is
+     * wrapped so that the variables are bound from elements of the input array; the original input
+     * is the first element.
+     */
+    private String wrap(final String filter) {
+        if (variables.size() == 0) {
+            return filter;
+        }
+
+        final int body = skipDirectives(filter);
+        final StringBuilder buf = new StringBuilder(filter.length() + 64);
+        buf.append(filter, 0, body);
+        for (int i = 0, size = variables.size(); i < size; i++) {
+            buf.append(".[").append(i + 1).append("] as $").append(variables.get(i)).append(" | ");
+        }
+
+        // body is on the same line so that error positions are unchanged; closing parenthesis is
+        // on its own line in case the filter ends with a comment
+        buf.append(".[0] | (").append(filter, body, filter.length()).append("\n)");
+        return buf.toString();
+    }
+}
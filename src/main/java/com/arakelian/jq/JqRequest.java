@@ -21,20 +21,29 @@ import static java.util.logging.Level.FINE;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 import org.immutables.value.Value;
 
-import com.arakelian.jq.JqLibrary.Jv;
-import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.sun.jna.Memory;
-import com.sun.jna.Pointer;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 @Value.Immutable
 public abstract class JqRequest {
@@ -48,16 +57,144 @@ public abstract class JqRequest {
     private static final Logger LOGGER = Logger.getLogger(JqRequest.class.getName());
 
     /**
-     * JQ is not thread-safe - https://github.com/stedolan/jq/issues/120
+     * Module paths are resolved once; resolving a canonical path requires filesystem access.
      */
-    private static final ReentrantLock SYNC = new ReentrantLock();
+    private static final LoadingCache<File, String> CANONICAL_PATHS = CacheBuilder.newBuilder() //
+            .maximumSize(1000) //
+            .build(new CacheLoader<File, String>() {
+                @Override
+                public String load(final File file) throws IOException {
+                    return file.getCanonicalPath();
+                }
+            });
 
-    public final JqResponse execute() {
-        SYNC.lock();
+    private static String canonicalPath(final File file) throws UncheckedIOException {
+        try {
+            return CANONICAL_PATHS.get(file);
+        } catch (final ExecutionException | UncheckedExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw new UncheckedIOException((IOException) cause);
+            }
+            Throwables.throwIfUnchecked(cause);
+            throw new IllegalStateException("Unable to resolve module path: " + file, cause);
+        }
+    }
+
+    /**
+     * Compiles the filter of this request into a program that can be executed many times. The
+     * values of the given variables are bound for each execution.
+     *
+     * @param variables
+     *            names of variables, without leading <code>$</code>
+     * @return compiled program, which must be closed
+     */
+    public final JqProgram compile(final Collection<String> variables) {
+        JqLock.lock();
+        try {
+            return JqProgram.compile(this, variables);
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    /**
+     * Compiles the filter of this request into a program that can be executed many times. The
+     * values of the given variables are bound for each execution.
+     *
+     * @param variables
+     *            names of variables, without leading <code>$</code>
+     * @return compiled program, which must be closed
+     */
+    public final JqProgram compile(final String... variables) {
+        return compile(ImmutableList.copyOf(variables));
+    }
+
+    /**
+     * Compiles an extractor that stores the given columns of each result of the filter of this
+     * request in primitive arrays.
+     *
+     * @param columns
+     *            columns to extract from each result
+     * @return compiled extractor, which must be closed
+     */
+    public final JqExtractor compileExtractor(final Collection<JqColumn> columns) {
+        JqLock.lock();
+        try {
+            return JqExtractor.compile(this, columns);
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    /**
+     * Compiles a router that evaluates the given named filters against each input value, which is
+     * parsed only once. The filter of this request is not used.
+     *
+     * @param filters
+     *            jq filters, keyed by name, in the order in which they are evaluated
+     * @param mode
+     *            determines which filters are evaluated against each input value
+     * @return compiled router, which must be closed
+     */
+    public final JqRouter compileRouter(final Map<String, String> filters, final JqRouter.Mode mode) {
+        JqLock.lock();
         try {
-            return jq();
+            return JqRouter.compile(this, filters, mode);
         } finally {
-            SYNC.unlock();
+            JqLock.unlock();
+        }
+    }
+
+    public final JqResponse execute() {
+        final Optional<JqCache> cache = getCache();
+        if (cache.isPresent()) {
+            return cache.get().execute(this);
+        }
+        return executeUncached();
+    }
+
+    /**
+     * Executes the filter of this request against a stream of JSON text instead of
+     * {@link #getInput()}. The stream may be compressed, and is decoded on a separate thread while
+     * jq executes, so that large or compressed inputs do not have to be decoded into a string
+     * first. The stream is closed when execution finishes. The jq lock is released while waiting
+     * for input, see {@link JqProgram#execute(InputStream, JqCodec)}.
+     *
+     * @param input
+     *            stream of JSON text
+     * @param codec
+     *            codec that decodes the stream, e.g. {@link JqCodec#GZIP}
+     * @return response
+     * @throws IOException
+     *             if the stream cannot be read or decoded
+     */
+    public final JqResponse execute(final InputStream input, final JqCodec codec) throws IOException {
+        try (JqProgram program = compile()) {
+            return program.execute(input, codec);
+        }
+    }
+
+    /**
+     * Executes the filter of this request against a stream of JSON text, writing results to the
+     * given output stream. Reading and decoding input, executing jq, and writing output each run on
+     * their own thread, joined by bounded queues; see
+     * {@link JqProgram#execute(InputStream, JqCodec, OutputStream)}.
+     *
+     * @param input
+     *            stream of JSON text
+     * @param codec
+     *            codec that decodes the input stream, e.g. {@link JqCodec#GZIP}
+     * @param output
+     *            stream that receives results
+     * @return response that contains any errors, but no output
+     * @throws IOException
+     *             if the input cannot be read or decoded, or the output cannot be written
+     */
+    public final JqResponse execute(final InputStream input, final JqCodec codec, final OutputStream output)
+            throws IOException {
+        try (JqProgram program = compile()) {
+            return program.execute(input, codec, output);
         }
     }
 
@@ -66,6 +203,15 @@ public abstract class JqRequest {
         return ImmutableMap.of();
     }
 
+    /**
+     * Returns an optional cache of responses. When present, repeated executions of the same
+     * request return the cached response without calling jq.
+     *
+     * @return optional cache of responses
+     */
+    @Value.Auxiliary
+    public abstract Optional<JqCache> getCache();
+
     @Value.Derived
     @Value.Auxiliary
     public int getDumpFlags() {
@@ -109,6 +255,51 @@ public abstract class JqRequest {
 
     public abstract JqLibrary getLib();
 
+    /**
+     * Returns the number of bytes of native memory that jq may allocate during a single execution.
+     * Executions that exceed the limit stop with an error, rather than exhausting the memory of the
+     * process. Limits are enforced by the native shim, and require it to be available for this
+     * platform.
+     *
+     * The shim stops an execution as soon as it exceeds the limit, which leaves the program
+     * unusable and leaks the memory that it had allocated; a limit is a safety net rather than a
+     * quota. Only programs without variables that are executed against text, by
+     * {@link #execute()} or {@link JqProgram#execute(String)}, are run by the shim; other
+     * executions, such as those of cursors, streams, routers or sessions, fail with
+     * {@link IllegalStateException} when a limit is set.
+     *
+     * @return the number of bytes of native memory that jq may allocate during an execution
+     */
+    public abstract OptionalLong getMaxNativeBytes();
+
+    /**
+     * Returns bundles of modules that are loaded from the classpath or from memory. Bundles are
+     * searched after {@link #getModulePaths()}.
+     *
+     * @return bundles of modules
+     */
+    public abstract List<JqModuleBundle> getModuleBundles();
+
+    /**
+     * Returns the canonical paths of all module folders, in search order.
+     *
+     * @return the canonical paths of all module folders
+     * @throws UncheckedIOException
+     *             if a module path cannot be resolved
+     */
+    @Value.Lazy
+    @Value.Auxiliary
+    public List<String> getModuleDirectories() throws UncheckedIOException {
+        final ImmutableList.Builder<String> dirs = ImmutableList.builder();
+        for (final File file : getModulePaths()) {
+            dirs.add(canonicalPath(file));
+        }
+        for (final JqModuleBundle bundle : getModuleBundles()) {
+            dirs.add(bundle.getDirectory().getPath());
+        }
+        return dirs.build();
+    }
+
     public abstract List<File> getModulePaths();
 
     @Value.Default
@@ -116,192 +307,111 @@ public abstract class JqRequest {
         return "\n";
     }
 
+    /**
+     * Returns true if trivial filters, such as <code>.foo</code>, <code>.a.b[0]</code> or
+     * <code>{a: .x, b: .y}</code>, may be evaluated in pure Java without calling libjq. The output
+     * is identical to that of libjq; requests that the fast path cannot reproduce exactly, such as
+     * pretty-printed output or invalid input, are always executed by libjq.
+     *
+     * Executions by the fast path emit a <code>jq.Execute</code> event with <code>fastPath</code>
+     * set, and are recorded by {@link JqProfiler}; they do not take the jq lock, emit no
+     * <code>jq.Compile</code> or <code>jq.Dump</code> events and allocate no native memory, so
+     * {@link #getMaxNativeBytes()} does not apply to them.
+     *
+     * @return true if trivial filters may be evaluated without calling libjq
+     */
     @Value.Default
-    public boolean isPretty() {
+    public boolean isFastPath() {
         return true;
     }
 
+    /**
+     * Returns true if results that are strings are written without JSON encoding, and results
+     * are written without a separator; equivalent to <code>jq -j</code>.
+     *
+     * @return true if results are joined without a separator
+     */
     @Value.Default
-    public boolean isSortKeys() {
+    public boolean isJoinOutput() {
         return false;
     }
 
+    @Value.Default
+    public boolean isPretty() {
+        return true;
+    }
+
     /**
-     * Adds any messages produced by jq native code it to the error store, with the provided prefix.
+     * Returns true if results that are strings are written without JSON encoding; equivalent to
+     * <code>jq -r</code>. The text of string results is copied directly from libjq, without
+     * escaping or quoting it.
      *
-     * @param value
-     *            value reference
+     * @return true if results that are strings are written without JSON encoding
      */
-    private String getInvalidMessage(final Jv value) {
-        final Jv copy = getLib().jv_copy(value);
-        if (getLib().jv_invalid_has_msg(copy)) {
-            final Jv message = getLib().jv_invalid_get_msg(value);
-            return getLib().jv_string_value(message);
-        } else {
-            getLib().jv_free(value);
-            return null;
-        }
+    @Value.Default
+    public boolean isRawOutput() {
+        return isJoinOutput();
     }
 
-    private boolean isValid(final ImmutableJqResponse.Builder response, final Jv value) {
-        if (getLib().jv_is_valid(value)) {
-            return true;
-        }
-
-        // success finishes will return "invalid" value without a message
-        final String message = getInvalidMessage(value);
-        if (message != null) {
-            response.addError(message);
-        }
+    @Value.Default
+    public boolean isSortKeys() {
         return false;
     }
 
-    private JqResponse jq() {
-        LOGGER.log(FINE, "Initializing JQ");
-        final JqLibrary lib = getLib();
-        final Pointer jq = lib.jq_init();
-        Preconditions.checkState(jq != null, "jq must be non-null");
-
-        Jv moduleDirs = lib.jv_array();
-        for (final File file : getModulePaths()) {
-            try {
-                final String dir = file.getCanonicalPath();
-                LOGGER.log(FINE, "Using module path: " + dir);
-                moduleDirs = lib.jv_array_append(moduleDirs, lib.jv_string(dir));
-            } catch (final IOException e) {
-                throw new UncheckedIOException(e);
-            }
-        }
-        lib.jq_set_attr(jq, lib.jv_string("JQ_LIBRARY_PATH"), moduleDirs);
-
-        try {
-            final JqResponse response = parse(jq);
-            LOGGER.log(FINE, "Response ready");
-            return response;
-        } finally {
-            LOGGER.log(FINE, "Releasing JQ");
-            lib.jq_teardown(jq);
-            LOGGER.log(FINE, "JQ released successfully");
-        }
-    }
-
-    private JqResponse parse(final Pointer jq) {
-        final ImmutableJqResponse.Builder response = ImmutableJqResponse.builder();
-
-        LOGGER.log(FINE, "Configuring callback");
-        final JqLibrary lib = getLib();
-        lib.jq_set_error_cb(jq, (data, jv) -> {
-            LOGGER.log(FINE, "Error callback");
-            final int kind = lib.jv_get_kind(jv);
-            if (kind == JqLibrary.JV_KIND_STRING) {
-                final String error = lib.jv_string_value(jv).replaceAll("\\s++$", "");
-                response.addError(error);
-            }
-        }, new Pointer(0));
-
-        // for JQ 1.5, arguments is an array; this changes with JQ 1.6+
-        Jv args = lib.jv_object();
-
-        final Map<String, String> argJson = getArgJson();
-        for (final String varname : argJson.keySet()) {
-            final String text = argJson.get(varname);
-
-            final Jv json = lib.jv_parse(text);
-            if (!lib.jv_is_valid(json)) {
-                response.addError("Invalid JSON text passed to --argjson (name: " + varname + ")");
-                return response.build();
-            }
-
-            args = lib.jv_object_set(args, lib.jv_string(varname), json);
-        }
-
+    /**
+     * Opens a cursor that computes results only as they are requested. Closing the cursor stops
+     * execution, so callers that need only the first few results do not pay for the rest.
+     *
+     * @return cursor that must be closed
+     */
+    public final JqCursor open() {
+        JqLock.lock();
         try {
-            // compile JQ program
-            LOGGER.log(FINE, "Compiling filter");
-            final String filter = getFilter();
-            if (!lib.jq_compile_args(jq, filter, lib.jv_copy(args))) {
-                // compile errors are captured by callback
-                LOGGER.log(FINE, "Compilation failed");
-                return response.build();
-            }
-
-            // create JQ parser
-            LOGGER.log(FINE, "Creating parse");
-            final int parserFlags = 0;
-            final Pointer parser = lib.jv_parser_new(parserFlags);
+            final JqProgram program = JqProgram.compile(this, ImmutableList.of());
             try {
-                parse(jq, parser, getInput(), response);
-                return response.build();
-            } finally {
-                LOGGER.log(FINE, "Releasing parser");
-                lib.jv_parser_free(parser);
+                return new JqCursor(program, getInput(), true);
+            } catch (final RuntimeException e) {
+                program.close();
+                throw e;
             }
         } finally {
-            LOGGER.log(FINE, "Releasing callback");
-            lib.jq_set_error_cb(jq, null, null);
+            JqLock.unlock();
         }
     }
 
     /**
-     * Add the contents of a native memory array as text to the next chunk of input of the jq
-     * program.
+     * Opens a session that executes the filter against JSON text that is fed to it in fragments;
+     * see {@link JqStreamSession}. The input of this request is ignored. Opening a session does not
+     * wait for the jq lock, and the filter is compiled when the first fragment is processed.
      *
-     * @param jq
-     *            JQ instance
-     * @param parser
-     *            JQ parser
-     * @param text
-     *            input JSON
-     * @param response
-     *            response that we are building
+     * @param executor
+     *            executor that processes fragments when the jq lock is not free
+     * @param results
+     *            receives each result as soon as it is computed
+     * @return session that must be finished or closed
+     * @throws IllegalStateException
+     *             if {@link #getMaxNativeBytes()} is set, since sessions cannot enforce it
      */
-    private void parse(
-            final Pointer jq,
-            final Pointer parser,
-            final String text,
-            final ImmutableJqResponse.Builder response) {
-        final byte[] input = text.getBytes(Charsets.UTF_8);
-        final Memory memory = new Memory(input.length);
-        memory.write(0, input, 0, input.length);
-
-        // give text to JQ parser
-        LOGGER.log(FINE, "Sending text to parser");
-        getLib().jv_parser_set_buf(parser, memory, input.length, true);
-
-        final int flags = getDumpFlags();
-        final StringBuilder buf = new StringBuilder();
-        for (;;) {
-            // iterate until JQ consumes all inputs
-            LOGGER.log(FINE, "Parsing text");
-            final Jv parsed = getLib().jv_parser_next(parser);
-            if (!isValid(response, parsed)) {
-                break;
-            }
-
-            // iterate until we consume all JQ streams
-            // see: https://stedolan.github.io/jq/tutorial/
-            LOGGER.log(FINE, "Consuming JQ response");
-            getLib().jq_start(jq, parsed);
-            for (;;) {
-                final Jv next = getLib().jq_next(jq);
-                if (!isValid(response, next)) {
-                    break;
-                }
+    public final JqStreamSession openSession(final Executor executor, final Consumer<String> results) {
+        Preconditions.checkState(!getMaxNativeBytes().isPresent(), "maxNativeBytes is not enforced for sessions");
+        return new JqStreamSession(this, executor, results);
+    }
 
-                LOGGER.log(FINE, "Dumping response");
-                final String out = getLib().jv_dump_string(next, flags);
-                if (buf.length() != 0) {
-                    buf.append(getStreamSeparator());
-                }
-                buf.append(out);
+    final JqResponse executeUncached() {
+        if (isFastPath()) {
+            final JqResponse response = JqFastPath.execute(this);
+            if (response != null) {
+                return response;
             }
         }
 
-        // tell parser we are finished
-        LOGGER.log(FINE, "Finishing with parser");
-
-        // finalize output
-        final String output = buf.toString();
-        response.output(output);
+        JqLock.lock();
+        try (JqProgram program = JqProgram.compile(this, ImmutableList.of())) {
+            final JqResponse response = program.execute(getInput());
+            LOGGER.log(FINE, "Response ready");
+            return response;
+        } finally {
+            JqLock.unlock();
+        }
     }
 }
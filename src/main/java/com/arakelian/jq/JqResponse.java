@@ -18,6 +18,7 @@
 package com.arakelian.jq;
 
 import java.util.List;
+import java.util.OptionalLong;
 
 import org.immutables.value.Value;
 
@@ -35,6 +36,15 @@ public interface JqResponse {
         return "";
     }
 
+    /**
+     * Returns the peak number of bytes of native memory that jq allocated during the execution,
+     * if memory is tracked by the native shim.
+     *
+     * @return the peak number of bytes of native memory that jq allocated
+     */
+    @Value.Auxiliary
+    public OptionalLong getPeakNativeBytes();
+
     @Value.Derived
     @Value.Auxiliary
     public default boolean hasErrors() {
@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+
+import com.arakelian.jq.JqLibrary.Jv;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Utf8;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * Evaluates many named jq filters against each input value, parsing the input only once.
+ *
+ * Every input value is parsed a single time, and each filter is started with a reference counted
+ * copy (<code>jv_copy</code>) of the parsed value, so the cost of parsing and marshalling the
+ * input is shared by all of the filters. Results are returned per filter, tagged with its name:
+ *
+ * <pre>
+ * try (JqRouter router = request.compileRouter(ImmutableMap.of( //
+ *         "errors", "select(.level == \"error\")", //
+ *         "slow", "select(.latency_ms &gt; 1000) | {id, latency_ms}"), JqRouter.Mode.ALL)) {
+ *     Map&lt;String, JqResponse&gt; routed = router.route(event);
+ *     String slow = routed.get("slow").getOutput();
+ * }
+ * </pre>
+ *
+ * The filter of the request is not used; its other options, such as the output format and
+ * <code>argJson</code>, apply to every filter. Routers must be closed to release native resources.
+ */
+public final class JqRouter implements Closeable {
+    /**
+     * Determines which filters are evaluated against each input value.
+     */
+    public enum Mode {
+        /** Every filter is evaluated against every input value **/
+        ALL,
+
+        /**
+         * Filters are evaluated in order, and evaluation stops at the first filter that produces a
+         * result for an input value; later filters are not evaluated against that value
+         **/
+        FIRST_MATCH;
+    }
+
+    /**
+     * Compiles a router for the given filters. Caller must hold the jq lock.
+     */
+    static JqRouter compile(final JqRequest request, final Map<String, String> filters, final Mode mode) {
+        Preconditions.checkArgument(filters != null && filters.size() != 0, "filters must be non-empty");
+        Preconditions.checkArgument(mode != null, "mode must be non-null");
+        final List<JqProgram> programs = Lists.newArrayList();
+        try {
+            for (final String name : filters.keySet()) {
+                Preconditions.checkArgument(!name.isEmpty(), "filter names must be non-empty");
+                final JqRequest route = ImmutableJqRequest.copyOf(request).withFilter(filters.get(name));
+                programs.add(JqProgram.compile(route, ImmutableList.of()));
+            }
+        } catch (final RuntimeException e) {
+            for (final JqProgram program : programs) {
+                program.close();
+            }
+            throw e;
+        }
+        return new JqRouter(filters.keySet(), programs, mode);
+    }
+
+    private final List<String> names;
+
+    private final List<JqProgram> programs;
+
+    private final JqLibrary lib;
+
+    private final Mode mode;
+
+    private JqRouter(final Iterable<String> names, final List<JqProgram> programs, final Mode mode) {
+        this.names = ImmutableList.copyOf(names);
+        this.programs = ImmutableList.copyOf(programs);
+        this.lib = programs.get(0).getLib();
+        this.mode = mode;
+    }
+
+    @Override
+    public void close() {
+        for (final JqProgram program : programs) {
+            program.close();
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the names of the filters, in the order in which they are evaluated.
+     *
+     * @return the names of the filters
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Returns true if every filter compiled successfully; the response of a filter that did not
+     * compile contains its compile errors.
+     *
+     * @return true if every filter compiled successfully
+     */
+    public boolean isValid() {
+        for (final JqProgram program : programs) {
+            if (!program.isValid()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates the filters against the given JSON text, which may contain any number of JSON
+     * values. The input is parsed once; each filter is then executed against every value, and
+     * its execution is profiled and accounted for like a separate execution of the filter.
+     *
+     * @param input
+     *            input JSON
+     * @return the response of each filter, keyed by name, in the order in which filters are
+     *         evaluated; each response contains the results of the filter for all input values
+     */
+    public Map<String, JqResponse> route(final String input) {
+        Preconditions.checkArgument(input != null, "input must be non-null");
+        JqLock.lock();
+        try {
+            final byte[] bytes = input.getBytes(Charsets.UTF_8);
+            final List<Jv> values = Lists.newArrayList();
+            try {
+                String parseError = null;
+                try (JqParser parser = new JqParser(lib)) {
+                    parser.setBuf(bytes, 0, bytes.length, true);
+                    for (;;) {
+                        final Jv parsed = lib.jv_parser_next(parser.getPointer());
+                        if (!lib.jv_is_valid(parsed)) {
+                            parseError = JqProgram.getInvalidMessage(lib, parsed);
+                            break;
+                        }
+                        values.add(parsed);
+                    }
+                }
+
+                // values that have been matched by a filter, in FIRST_MATCH mode
+                final boolean[] matched = new boolean[values.size()];
+                final ImmutableMap.Builder<String, JqResponse> routed = ImmutableMap.builder();
+                for (int i = 0, count = programs.size(); i < count; i++) {
+                    final JqProgram program = programs.get(i);
+                    routed.put(names.get(i), route(program, values, matched, parseError, input, bytes.length));
+                }
+                return routed.build();
+            } finally {
+                for (final Jv value : values) {
+                    lib.jv_free(value);
+                }
+            }
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    /**
+     * Executes a program against parsed input values, which are not consumed. Caller must hold
+     * the jq lock.
+     *
+     * @param parseError
+     *            error that stopped parsing after the last value, or null
+     */
+    private JqResponse route(
+            final JqProgram program,
+            final List<Jv> values,
+            final boolean[] matched,
+            final String parseError,
+            final String input,
+            final int inputBytes) {
+        final ImmutableJqResponse.Builder response = program.begin();
+        if (response == null) {
+            return program.failed();
+        }
+
+        final JqEvents.Execute event = new JqEvents.Execute();
+        event.begin();
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0, size = values.size(); i < size; i++) {
+            if (matched[i]) {
+                continue;
+            }
+            final int results = program.getResultCount();
+            program.start(lib.jv_copy(values.get(i)), JqProgram.NO_BINDINGS);
+            program.drain(buf);
+            if (mode == Mode.FIRST_MATCH && program.getResultCount() != results) {
+                matched[i] = true;
+            }
+        }
+
+        // every filter would have stopped at the same parse error
+        if (parseError != null) {
+            program.getErrors().add(parseError);
+        }
+        program.commit(event, input, inputBytes, Utf8.encodedLength(buf));
+        return program.end(response, buf);
+    }
+}
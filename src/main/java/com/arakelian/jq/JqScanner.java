@@ -0,0 +1,265 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Finds the boundaries of records in UTF-8 encoded JSON text, without parsing the records, so
+ * that large inputs can be split and processed in parallel.
+ *
+ * Input is read eight bytes at a time; each word is tested for the bytes of interest with a few
+ * arithmetic operations (SWAR, or "SIMD within a register"), so that long runs of bytes that
+ * cannot end a string or a nested value are skipped without examining each byte. Heap buffers,
+ * direct buffers and memory-mapped files are supported alike; byte arrays can be wrapped with
+ * {@link ByteBuffer#wrap(byte[])}. Offsets are indices into the buffer, between its position and
+ * limit; the position of the buffer is not changed.
+ */
+public final class JqScanner {
+    private static final long ONES = 0x0101010101010101L;
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    /** Setting this bit maps <code>[</code> to <code>{</code> and <code>]</code> to <code>}</code> **/
+    private static final long CASE_BITS = ONES * 0x20;
+
+    private static final long NEWLINE = ONES * '\n';
+
+    private static final long QUOTE = ONES * '"';
+
+    private static final long BACKSLASH = ONES * '\\';
+
+    private static final long OPEN = ONES * '{';
+
+    private static final long CLOSE = ONES * '}';
+
+    /**
+     * Returns the offsets of the elements of a top-level JSON array, or null if the input is not a
+     * single array whose elements are separated by commas. The result contains the start offset
+     * (inclusive) and end offset (exclusive) of each element, in pairs. The elements themselves are
+     * not validated.
+     *
+     * @param input
+     *            UTF-8 encoded JSON text, between the position and limit of the buffer
+     * @return the start and end offsets of each element, in pairs, or null
+     */
+    public static int[] elements(final ByteBuffer input) {
+        return elements(input, true);
+    }
+
+    /**
+     * Returns the offset of the first newline at or after the given offset, or -1 if there is no
+     * newline before the limit of the buffer. A newline always ends a record of NDJSON, since
+     * newlines cannot occur inside JSON strings.
+     *
+     * @param input
+     *            UTF-8 encoded JSON text
+     * @param from
+     *            offset at which to start searching
+     * @return the offset of the first newline, or -1
+     */
+    public static int indexOfNewline(final ByteBuffer input, final int from) {
+        return indexOfNewline(input, from, true);
+    }
+
+    /**
+     * Same as {@link #elements(ByteBuffer)}, but can examine every byte rather than eight bytes at a
+     * time, for comparison.
+     */
+    static int[] elements(final ByteBuffer input, final boolean swar) {
+        final ByteBuffer buf = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int limit = buf.limit();
+        int pos = skipWhitespace(buf, buf.position(), limit);
+        if (pos == limit || buf.get(pos) != '[') {
+            return null;
+        }
+        pos = skipWhitespace(buf, pos + 1, limit);
+
+        int[] offsets = new int[64];
+        int count = 0;
+        if (pos < limit && buf.get(pos) == ']') {
+            return skipWhitespace(buf, pos + 1, limit) == limit ? new int[0] : null;
+        }
+
+        for (;;) {
+            final int start = pos;
+            pos = skipValue(buf, pos, limit, swar);
+            if (pos == -1) {
+                return null;
+            }
+            if (count + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[count++] = start;
+            offsets[count++] = pos;
+
+            pos = skipWhitespace(buf, pos, limit);
+            if (pos == limit) {
+                return null;
+            }
+            final byte ch = buf.get(pos);
+            if (ch == ']') {
+                return skipWhitespace(buf, pos + 1, limit) == limit ? Arrays.copyOf(offsets, count) : null;
+            }
+            if (ch != ',') {
+                return null;
+            }
+            pos = skipWhitespace(buf, pos + 1, limit);
+        }
+    }
+
+    /**
+     * Same as {@link #indexOfNewline(ByteBuffer, int)}, but can examine every byte rather than
+     * eight bytes at a time, for comparison.
+     */
+    static int indexOfNewline(final ByteBuffer input, final int from, final boolean swar) {
+        final ByteBuffer buf = input.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        final int limit = buf.limit();
+        int pos = from;
+        if (swar) {
+            for (; pos + Long.BYTES <= limit; pos += Long.BYTES) {
+                final long found = matches(buf.getLong(pos), NEWLINE);
+                if (found != 0) {
+                    return pos + index(found);
+                }
+            }
+        }
+        for (; pos < limit; pos++) {
+            if (buf.get(pos) == '\n') {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the index of the first byte that was matched by {@link #matches(long, long)}.
+     */
+    private static int index(final long found) {
+        return Long.numberOfTrailingZeros(found) >>> 3;
+    }
+
+    private static boolean isDelimiter(final byte ch) {
+        return ch == ',' || ch == ':' || ch == '[' || ch == ']' || ch == '{' || ch == '}' || ch == '"';
+    }
+
+    private static boolean isWhitespace(final byte ch) {
+        return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\r';
+    }
+
+    /**
+     * Returns a word in which the high bit of each byte is set if the corresponding byte of the
+     * given word is equal to the byte that is repeated in the given pattern.
+     */
+    private static long matches(final long word, final long pattern) {
+        final long x = word ^ pattern;
+        return ~((x & LOW_BITS) + LOW_BITS | x | LOW_BITS);
+    }
+
+    /**
+     * Returns a word in which the high bit of each byte is set if the corresponding byte of the
+     * given word may change the state of {@link #skipValue(ByteBuffer, int, int, boolean)}: a quote,
+     * a backslash, a bracket or a brace.
+     */
+    private static long structural(final long word) {
+        final long folded = word | CASE_BITS;
+        return matches(word, QUOTE) | matches(word, BACKSLASH) | matches(folded, OPEN) | matches(folded, CLOSE);
+    }
+
+    /**
+     * Returns the offset that follows the value that starts at the given offset, or -1 if the
+     * value is empty or not terminated. Strings, arrays and objects are examined only at bytes
+     * that are quotes, backslashes, brackets or braces; when SWAR is used, words without any such
+     * bytes are skipped entirely.
+     */
+    private static int skipValue(final ByteBuffer buf, final int start, final int limit, final boolean swar) {
+        if (start == limit) {
+            return -1;
+        }
+
+        final byte first = buf.get(start);
+        if (first != '"' && first != '[' && first != '{') {
+            // number or literal
+            int pos = start;
+            while (pos < limit && !isWhitespace(buf.get(pos)) && !isDelimiter(buf.get(pos))) {
+                pos++;
+            }
+            return pos == start ? -1 : pos;
+        }
+
+        int depth = 0;
+        boolean inString = false;
+
+        // offset that follows the character escaped by the last backslash
+        int escaped = -1;
+
+        int pos = start;
+        while (pos < limit) {
+            long candidates;
+            final int width;
+            if (swar && pos + Long.BYTES <= limit) {
+                candidates = structural(buf.getLong(pos));
+                width = Long.BYTES;
+            } else {
+                candidates = 0x80;
+                width = 1;
+            }
+
+            for (; candidates != 0; candidates &= candidates - 1) {
+                final int offset = pos + index(candidates);
+                if (offset < escaped) {
+                    continue;
+                }
+
+                final byte ch = buf.get(offset);
+                if (inString) {
+                    if (ch == '\\') {
+                        escaped = offset + 2;
+                    } else if (ch == '"') {
+                        inString = false;
+                        if (depth == 0) {
+                            return offset + 1;
+                        }
+                    }
+                } else if (ch == '"') {
+                    inString = true;
+                } else if (ch == '[' || ch == '{') {
+                    depth++;
+                } else if ((ch == ']' || ch == '}') && --depth == 0) {
+                    return offset + 1;
+                }
+            }
+            pos += width;
+        }
+        return -1;
+    }
+
+    private static int skipWhitespace(final ByteBuffer buf, final int start, final int limit) {
+        int pos = start;
+        while (pos < limit && isWhitespace(buf.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private JqScanner() {
+        // utility class
+    }
+}
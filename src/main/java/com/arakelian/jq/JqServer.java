@@ -0,0 +1,390 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static java.util.logging.Level.FINE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.immutables.value.Value;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves jq over HTTP, so that processes that are not running on the JVM can share a single
+ * instance of java-jq rather than starting the <code>jq</code> binary for every call. Built on the
+ * HTTP server of the JDK, <code>com.sun.net.httpserver</code>.
+ *
+ * Clients <code>POST</code> JSON text to the server, passing the filter in the <code>filter</code>
+ * query parameter, e.g. <code>curl --data-binary @input.json 'http://localhost:8080/?filter=.id'</code>.
+ * The request body is streamed to jq as it arrives, and may be compressed if the request has a
+ * <code>Content-Encoding</code> header that names a {@link JqCodec}; results are streamed back
+ * with chunked transfer encoding. A client that sends or reads slowly does not hold the lock that
+ * serializes calls to jq, see {@link JqProgram#execute(java.io.InputStream, JqCodec, OutputStream)}.
+ * Options other than the filter, such as {@link JqRequest#isPretty()}, are taken from
+ * {@link #getRequest()}; {@link JqRequest#getMaxNativeBytes()} cannot be enforced for streamed
+ * input, and must not be set.
+ *
+ * Filters that do not compile are rejected with status 400. Errors that jq reports after results
+ * have started streaming cannot change the status, so they are appended to the response body on
+ * lines that start with <code>jq: error:</code>, after a newline.
+ *
+ * Compiled programs are cached by filter and reused across requests. Requests are executed by a
+ * bounded pool of {@link #getParallelism()} threads; when {@link #getQueueCapacity()} requests are
+ * already waiting, further requests are rejected with status 503. Should even those rejections
+ * back up, the thread that accepts connections responds with status 503 itself.
+ *
+ * <pre>
+ * try (JqServer.Instance server = ImmutableJqServer.builder() //
+ *         .request(request) //
+ *         .address(new InetSocketAddress(InetAddress.getLoopbackAddress(), 8080)) //
+ *         .build() //
+ *         .start()) {
+ *     ...
+ * }
+ * </pre>
+ */
+@Value.Immutable
+public abstract class JqServer {
+    /**
+     * A compiled program that is shared by requests, and closed once it has been evicted from the
+     * cache and is no longer being used.
+     */
+    private static final class Entry {
+        private final JqProgram program;
+        private int users;
+        private boolean retired;
+
+        private Entry(final JqProgram program) {
+            this.program = program;
+        }
+
+        private synchronized boolean acquire() {
+            if (retired) {
+                return false;
+            }
+            users++;
+            return true;
+        }
+
+        private synchronized void release() {
+            if (--users == 0 && retired) {
+                program.close();
+            }
+        }
+
+        private synchronized void retire() {
+            retired = true;
+            if (users == 0) {
+                program.close();
+            }
+        }
+    }
+
+    /**
+     * A server that is listening for requests, and that must be closed to stop it.
+     */
+    public final class Instance implements Closeable {
+        private final HttpServer server;
+
+        private final ThreadPoolExecutor workers;
+
+        /** Runs requests that are rejected by the workers, only to respond that the server is busy **/
+        private final ThreadPoolExecutor overflow;
+
+        private final Cache<String, Entry> programs;
+
+        private Instance() throws IOException {
+            programs = CacheBuilder.newBuilder() //
+                    .maximumSize(getMaxPrograms()) //
+                    .removalListener((final RemovalNotification<String, Entry> removed) -> {
+                        removed.getValue().retire();
+                    }) //
+                    .build();
+
+            overflow = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, //
+                    new ArrayBlockingQueue<>(getQueueCapacity()), //
+                    threads("jq-server-busy", true));
+            workers = new ThreadPoolExecutor(getParallelism(), getParallelism(), 0, TimeUnit.MILLISECONDS, //
+                    new ArrayBlockingQueue<>(getQueueCapacity()), //
+                    threads("jq-server", false), //
+                    (task, pool) -> reject(task));
+
+            server = HttpServer.create(getAddress(), 0);
+            server.setExecutor(workers);
+            server.createContext("/", exchange -> handle(exchange, programs));
+            server.start();
+            LOGGER.log(FINE, "jq server listening on {0}", server.getAddress());
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+            workers.shutdown();
+            overflow.shutdown();
+            programs.invalidateAll();
+        }
+
+        /**
+         * Returns the address on which the server is listening, which includes the port that was
+         * chosen if {@link JqServer#getAddress()} does not specify one.
+         *
+         * @return the address on which the server is listening
+         */
+        public InetSocketAddress getAddress() {
+            return server.getAddress();
+        }
+
+        private void reject(final Runnable task) {
+            try {
+                overflow.execute(task);
+            } catch (final RejectedExecutionException e) {
+                // respond on the accepting thread, rather than dropping the connection
+                BUSY.set(Boolean.TRUE);
+                try {
+                    task.run();
+                } finally {
+                    BUSY.remove();
+                }
+            }
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(JqServer.class.getName());
+
+    /** True on threads that respond to requests that could not be queued **/
+    private static final ThreadLocal<Boolean> BUSY = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    private static Entry acquire(final Cache<String, Entry> programs, final JqRequest request) {
+        final String filter = request.getFilter();
+        for (;;) {
+            final Entry entry;
+            try {
+                entry = programs.get(filter, () -> new Entry(request.compile()));
+            } catch (final ExecutionException | UncheckedExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException("Unable to compile " + filter, cause);
+            }
+
+            // entry may have been evicted and closed since it was returned
+            if (entry.acquire()) {
+                return entry;
+            }
+        }
+    }
+
+    private static String getParameter(final HttpExchange exchange, final String name) throws IOException {
+        final String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return null;
+        }
+        for (final String param : query.split("&")) {
+            final int eq = param.indexOf('=');
+            final String key = eq == -1 ? param : param.substring(0, eq);
+            if (name.equals(URLDecoder.decode(key, Charsets.UTF_8.name()))) {
+                return eq == -1 ? "" : URLDecoder.decode(param.substring(eq + 1), Charsets.UTF_8.name());
+            }
+        }
+        return null;
+    }
+
+    private static void send(final HttpExchange exchange, final int status, final String text) throws IOException {
+        final byte[] bytes = text.getBytes(Charsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static ThreadFactory threads(final String name, final boolean busy) {
+        final AtomicInteger count = new AtomicInteger();
+        return task -> {
+            final Thread thread = new Thread(() -> {
+                BUSY.set(Boolean.valueOf(busy));
+                task.run();
+            }, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Returns the address on which the server listens; by default, the loopback address and a
+     * port that is chosen by the operating system.
+     *
+     * @return the address on which the server listens
+     */
+    @Value.Default
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    /**
+     * Returns the maximum number of compiled programs that are cached; least-recently used
+     * programs are closed first.
+     *
+     * @return the maximum number of compiled programs that are cached
+     */
+    @Value.Default
+    public int getMaxPrograms() {
+        return 100;
+    }
+
+    /**
+     * Returns the number of threads that execute requests.
+     *
+     * @return the number of threads that execute requests
+     */
+    @Value.Default
+    public int getParallelism() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns the number of requests that may wait for a thread before further requests are
+     * rejected.
+     *
+     * @return the number of requests that may wait for a thread
+     */
+    @Value.Default
+    public int getQueueCapacity() {
+        return 64;
+    }
+
+    /**
+     * Returns the request whose options and library are used for every HTTP request; its filter
+     * and input are ignored.
+     *
+     * @return the request that is used for every HTTP request
+     */
+    public abstract JqRequest getRequest();
+
+    /**
+     * Starts listening for requests.
+     *
+     * @return the server, which must be closed to stop it
+     * @throws IOException
+     *             if the server cannot listen on {@link #getAddress()}
+     */
+    public Instance start() throws IOException {
+        return new Instance();
+    }
+
+    @Value.Check
+    protected void checkServer() {
+        Preconditions.checkState(getMaxPrograms() > 0, "maxPrograms must be greater than zero");
+        Preconditions.checkState(getParallelism() > 0, "parallelism must be greater than zero");
+        Preconditions.checkState(getQueueCapacity() > 0, "queueCapacity must be greater than zero");
+        Preconditions.checkState(
+                !getRequest().getMaxNativeBytes().isPresent(),
+                "maxNativeBytes is not enforced for streamed input");
+    }
+
+    private void execute(final HttpExchange exchange, final JqProgram program, final JqCodec codec)
+            throws IOException {
+        final JqRequest request = getRequest();
+        final boolean raw = request.isRawOutput();
+        exchange.getResponseHeaders().set("Content-Type", raw ? "text/plain; charset=utf-8" : "application/json");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            final JqResponse response = program.execute(exchange.getRequestBody(), codec, out);
+            if (response.hasErrors()) {
+                final StringBuilder buf = new StringBuilder();
+                for (final String error : response.getErrors()) {
+                    buf.append("\njq: error: ").append(error);
+                }
+                out.write(buf.toString().getBytes(Charsets.UTF_8));
+            }
+        }
+    }
+
+    private void handle(final HttpExchange exchange, final Cache<String, Entry> programs) throws IOException {
+        try {
+            if (BUSY.get().booleanValue()) {
+                send(exchange, 503, "Server is busy");
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                send(exchange, 405, "Method must be POST");
+                return;
+            }
+
+            final String filter = getParameter(exchange, "filter");
+            if (filter == null) {
+                send(exchange, 400, "filter parameter is required");
+                return;
+            }
+
+            final String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            final Optional<JqCodec> codec = encoding == null || "identity".equalsIgnoreCase(encoding)
+                    ? Optional.of(JqCodec.NONE)
+                    : JqCodec.forName(encoding);
+            if (!codec.isPresent()) {
+                send(exchange, 415, "Unsupported Content-Encoding: " + encoding);
+                return;
+            }
+
+            final Entry entry = acquire(programs, ImmutableJqRequest.copyOf(getRequest()).withFilter(filter));
+            try {
+                final JqProgram program = entry.program;
+                if (!program.isValid()) {
+                    final List<String> errors = program.getCompileErrors();
+                    send(exchange, 400, Joiner.on('\n').join(errors));
+                    return;
+                }
+                execute(exchange, program, codec.get());
+            } finally {
+                entry.release();
+            }
+        } catch (final IOException | RuntimeException e) {
+            // client may have disconnected
+            LOGGER.log(FINE, "Unable to respond to " + exchange.getRequestURI(), e);
+            throw e;
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.INFO;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.sun.jna.Function;
+import com.sun.jna.Memory;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+import com.sun.jna.Structure.ByReference;
+
+/**
+ * Optional native library, built from <code>src/main/c/jqshim.c</code>, that parses input,
+ * executes a program and dumps its results in a single native call. Without the shim, every input
+ * value and every result costs several calls through JNA, each of which marshals a
+ * {@link JqLibrary.Jv} by value.
+ *
+ * The shim is bundled next to libjq for platforms where it has been built; on other platforms,
+ * requests are executed through JNA as before.
+ *
+ * The shim also defines the <code>jv_mem_*</code> allocators of libjq. Because it is loaded before
+ * libjq, libjq allocates memory through the shim, which counts the bytes allocated by each
+ * execution and enforces {@link JqRequest#getMaxNativeBytes()}.
+ */
+final class JqShim {
+    /**
+     * Thrown when an execution is abandoned because jq exceeded its native memory limit, or could
+     * not allocate memory. The jq state that was executing can no longer be used.
+     */
+    static final class AbandonedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean limitExceeded;
+
+        private AbandonedException(final boolean limitExceeded) {
+            super(limitExceeded ? "jq exceeded its native memory limit" : "jq could not allocate native memory");
+            this.limitExceeded = limitExceeded;
+        }
+
+        boolean isLimitExceeded() {
+            return limitExceeded;
+        }
+    }
+
+    /**
+     * Output of <code>jqshim_execute</code>, which is allocated by the shim.
+     */
+    public static class Result extends Structure implements ByReference {
+        public Pointer output;
+        public int output_length;
+        public int output_capacity;
+        public Pointer errors;
+        public int errors_length;
+        public int errors_capacity;
+        public int result_count;
+        public int error_count;
+
+        @Override
+        protected List<String> getFieldOrder() {
+            return ImmutableList.of(
+                    "output",
+                    "output_length",
+                    "output_capacity",
+                    "errors",
+                    "errors_length",
+                    "errors_capacity",
+                    "result_count",
+                    "error_count");
+        }
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(JqShim.class.getName());
+
+    private static final String NAME = "jqshim";
+
+    /** Returned by the shim when memory could not be allocated **/
+    private static final int NOMEM = -1;
+
+    /** Returned by the shim when an execution exceeded its memory limit **/
+    private static final int LIMIT = -2;
+
+    /** Returned by the shim when jq could not allocate memory **/
+    private static final int EXHAUSTED = -3;
+
+    /**
+     * Loads the shim, if it is bundled for this platform. The shim must be loaded before libjq;
+     * its references to jq functions are resolved lazily, from the copy of libjq that is later
+     * loaded globally.
+     *
+     * @return the shim, or empty if it is not available
+     */
+    static Optional<JqShim> load() {
+        final ImmutableNativeLib shim = ImmutableNativeLib.builder() //
+                .name(NAME) //
+                .build();
+        try {
+            final String resource = "lib/" + shim.getPath() + shim.getFilenames().get(0);
+            if (JqShim.class.getClassLoader().getResource(resource) == null) {
+                LOGGER.log(FINE, "{0} is not bundled for this platform", resource);
+                return Optional.empty();
+            }
+
+            final NativeLibrary library = shim.getNativeLibrary();
+            LOGGER.log(INFO, "Loaded {0}", new Object[] { shim.getLocalCopy() });
+            return Optional.of(new JqShim(library));
+        } catch (final RuntimeException | UnsatisfiedLinkError e) {
+            LOGGER.log(INFO, "Unable to load " + NAME + ", using JNA", e);
+            return Optional.empty();
+        }
+    }
+
+    private final Function execute;
+
+    private final Function free;
+
+    private final Function memoryBegin;
+
+    private final Function memoryEnd;
+
+    private final Function memoryRestore;
+
+    private final Function memorySave;
+
+    private final Function memoryTracked;
+
+    /** True if libjq allocates memory through the shim, or null if not known yet **/
+    private Boolean tracked;
+
+    private JqShim(final NativeLibrary library) {
+        this.execute = library.getFunction("jqshim_execute");
+        this.free = library.getFunction("jqshim_free");
+        this.memoryBegin = library.getFunction("jqshim_memory_begin");
+        this.memoryEnd = library.getFunction("jqshim_memory_end");
+        this.memoryRestore = library.getFunction("jqshim_memory_restore");
+        this.memorySave = library.getFunction("jqshim_memory_save");
+        this.memoryTracked = library.getFunction("jqshim_memory_tracked");
+    }
+
+    /**
+     * Starts counting the native memory allocated by an execution. Caller must hold the jq lock.
+     *
+     * @param limit
+     *            number of bytes that the execution may allocate, or 0 if it is not limited
+     */
+    void beginMemory(final long limit) {
+        memoryBegin.invoke(new Object[] { limit });
+    }
+
+    /**
+     * Stops counting the native memory allocated by an execution. Caller must hold the jq lock.
+     *
+     * @return peak number of bytes allocated by the execution
+     */
+    long endMemory() {
+        return memoryEnd.invokeLong(JqLibrary.NO_ARGS);
+    }
+
+    /**
+     * Executes the given program against every value of the given input. Results are appended to
+     * the given buffer, and errors are added to the given list. Caller must hold the jq lock.
+     *
+     * @return number of results
+     */
+    int execute(
+            final Pointer jq,
+            final Memory input,
+            final int length,
+            final int flags,
+            final boolean raw,
+            final byte[] separator,
+            final StringBuilder buf,
+            final List<String> errors) {
+        // separator must be NUL-terminated
+        final byte[] sep = new byte[separator.length + 1];
+        System.arraycopy(separator, 0, sep, 0, separator.length);
+
+        final Result result = new Result();
+        try {
+            final int status = execute.invokeInt(new Object[] { jq, input, length, flags, raw ? 1 : 0, sep, result });
+            result.read();
+            if (result.output_length != 0) {
+                buf.append(new String(result.output.getByteArray(0, result.output_length), Charsets.UTF_8));
+            }
+            if (result.errors_length != 0) {
+                final byte[] bytes = result.errors.getByteArray(0, result.errors_length);
+                for (int start = 0, end = 0; end < bytes.length; end++) {
+                    if (bytes[end] == 0) {
+                        errors.add(new String(bytes, start, end - start, Charsets.UTF_8));
+                        start = end + 1;
+                    }
+                }
+            }
+            if (status == NOMEM) {
+                throw new OutOfMemoryError("Unable to allocate native memory for output of jq");
+            }
+            if (status == LIMIT || status == EXHAUSTED) {
+                throw new AbandonedException(status == LIMIT);
+            }
+            return result.result_count;
+        } finally {
+            free.invoke(new Object[] { result });
+        }
+    }
+
+    /**
+     * Returns true if libjq allocates memory through the shim, which is not the case if libjq was
+     * loaded first. Caller must hold the jq lock.
+     *
+     * @param lib
+     *            jq library
+     * @return true if libjq allocates memory through the shim
+     */
+    boolean isMemoryTracked(final JqLibrary lib) {
+        if (tracked == null) {
+            // any allocation by libjq marks memory as tracked
+            lib.jv_free(lib.jv_string(""));
+            tracked = Boolean.valueOf(memoryTracked.invokeInt(JqLibrary.NO_ARGS) != 0);
+        }
+        return tracked.booleanValue();
+    }
+
+    /**
+     * Resumes counting the native memory allocated by an execution that was saved by
+     * {@link #saveMemory(long[])}. Caller must hold the jq lock.
+     *
+     * @param state
+     *            accounting state of the execution
+     */
+    void restoreMemory(final long[] state) {
+        memoryRestore.invoke(new Object[] { state });
+    }
+
+    /**
+     * Saves the accounting of an execution that releases the jq lock before it finishes, so that
+     * other executions may begin in the meantime. Caller must hold the jq lock.
+     *
+     * @param state
+     *            receives the accounting state of the execution
+     */
+    void saveMemory(final long[] state) {
+        memorySave.invoke(new Object[] { state });
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static java.util.logging.Level.FINE;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import com.arakelian.jq.JqLibrary.Jv;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Utf8;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Runs a jq program over JSON text that is pushed to it in fragments of any size, such as the
+ * buffers received by a non-blocking network server.
+ *
+ * Each fragment is given to a long-lived jq parser as soon as possible, and the program is
+ * executed against every value the moment the parser completes it; results are passed to a
+ * callback. {@link #feed(ByteBuffer)}, {@link #finish()} and {@link #close()} never wait for the
+ * jq lock: when the lock is free, fragments are processed on the calling thread, and otherwise
+ * they are queued and processed in order by the given executor, which may wait for the lock.
+ *
+ * <pre>
+ * JqStreamSession session = request.openSession(executor, result -&gt; { ... });
+ * session.feed(buffer);
+ * ...
+ * session.finish().thenAccept(errors -&gt; { ... });
+ * </pre>
+ *
+ * Like {@link JqProgram#execute(java.io.InputStream, JqCodec)}, a session stops processing input
+ * that cannot be parsed. A session must be finished or closed to release native resources; it is
+ * always safe to close a session.
+ */
+public final class JqStreamSession implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(JqStreamSession.class.getName());
+
+    /** Marks the end of input **/
+    private static final byte[] FINISH = new byte[0];
+
+    /** Marks a session that is closed before the end of input **/
+    private static final byte[] CLOSE = new byte[0];
+
+    private final JqRequest request;
+
+    private final Executor executor;
+
+    private final Consumer<String> results;
+
+    /** Fragments that have not been processed yet, in order **/
+    private final Queue<byte[]> fragments = new ConcurrentLinkedQueue<>();
+
+    /** Number of times processing was requested since fragments were last drained **/
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final CompletableFuture<List<String>> completion = new CompletableFuture<>();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /** True if the program should be closed with the session **/
+    private final boolean ownsProgram;
+
+    /** True once the end of input has been fed, or the session has failed **/
+    private volatile boolean ended;
+
+    /** True if the executor could not acquire the jq lock **/
+    private volatile boolean failed;
+
+    /** Program, or null until the first fragment is processed if it is compiled by the session **/
+    private JqProgram program;
+
+    private JqParser parser;
+
+    /** Execution event, or null until the program has begun **/
+    private JqEvents.Execute event;
+
+    private long inputBytes;
+
+    private long outputBytes;
+
+    private boolean done;
+
+    /**
+     * Creates a session that compiles the filter of the given request when the first fragment is
+     * processed.
+     */
+    JqStreamSession(final JqRequest request, final Executor executor, final Consumer<String> results) {
+        this(request, null, executor, results);
+    }
+
+    /**
+     * Creates a session that executes the given program, which cannot be executed by others until
+     * the session is finished or closed.
+     */
+    JqStreamSession(final JqProgram program, final Executor executor, final Consumer<String> results) {
+        this(null, program, executor, results);
+    }
+
+    private JqStreamSession(
+            final JqRequest request,
+            final JqProgram program,
+            final Executor executor,
+            final Consumer<String> results) {
+        Preconditions.checkArgument(executor != null, "executor must be non-null");
+        Preconditions.checkArgument(results != null, "results must be non-null");
+        this.request = request;
+        this.program = program;
+        this.ownsProgram = program == null;
+        this.executor = executor;
+        this.results = results;
+    }
+
+    /**
+     * Stops the session without waiting for it to finish, discarding any input that has not been
+     * processed yet. The future returned by {@link #finish()} completes with the errors reported
+     * so far, if it has not completed already. Closing a session that has finished has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            ended = true;
+            submit(CLOSE);
+        }
+    }
+
+    /**
+     * Feeds the next fragment of UTF-8 encoded JSON text to the session. Fragments may end
+     * anywhere, including in the middle of a value or of a multi-byte character. The remaining
+     * bytes of the buffer are copied, so the buffer may be reused as soon as this method returns.
+     *
+     * @param fragment
+     *            next fragment of input
+     * @throws IllegalStateException
+     *             if the session has been finished, closed, or has failed
+     */
+    public void feed(final ByteBuffer fragment) {
+        Preconditions.checkArgument(fragment != null, "fragment must be non-null");
+        Preconditions.checkState(!ended, "Session has ended");
+        if (!fragment.hasRemaining()) {
+            return;
+        }
+        final byte[] bytes = new byte[fragment.remaining()];
+        fragment.get(bytes);
+        submit(bytes);
+    }
+
+    /**
+     * Marks the end of input. Any value that is still incomplete is reported as an error.
+     *
+     * @return future that completes with the errors reported by jq once all input has been
+     *         processed, or completes exceptionally if the session failed
+     */
+    public CompletableFuture<List<String>> finish() {
+        if (!ended) {
+            ended = true;
+            submit(FINISH);
+        }
+        return completion;
+    }
+
+    /**
+     * Processes queued fragments until none remain. Caller must hold the jq lock.
+     */
+    private void drain() {
+        if (program != null) {
+            program.resume();
+        }
+        int missed = 1;
+        for (;;) {
+            for (byte[] fragment = fragments.poll(); fragment != null; fragment = fragments.poll()) {
+                try {
+                    process(fragment);
+                } catch (final RuntimeException e) {
+                    LOGGER.log(FINE, "Session failed", e);
+                    // must fail before release(), which completes the session normally
+                    completion.completeExceptionally(e);
+                    release();
+                }
+            }
+            missed = pending.addAndGet(-missed);
+            if (missed == 0) {
+                if (parser != null) {
+                    // other executions may run before the next fragment is processed
+                    program.suspend();
+                }
+                return;
+            }
+        }
+    }
+
+    private void drainLater() {
+        if (closed.get()) {
+            // native resources must be released, even when jq is overloaded
+            JqLock.lockForRelease();
+            try {
+                drain();
+            } finally {
+                JqLock.unlock();
+            }
+            return;
+        }
+        try {
+            JqLock.lock();
+        } catch (final RejectedExecutionException e) {
+            fail(e);
+            return;
+        }
+        try {
+            drain();
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    /**
+     * Fails the session when its fragments cannot be processed because jq is overloaded. Native
+     * resources are released when the session is next drained, e.g. by {@link #close()}.
+     */
+    private void fail(final RejectedExecutionException e) {
+        ended = true;
+        failed = true;
+        pending.set(0);
+        completion.completeExceptionally(e);
+    }
+
+    /**
+     * Starts executing the program. Caller must hold the jq lock.
+     */
+    private boolean open() {
+        if (program == null) {
+            program = JqProgram.compile(request, ImmutableList.of());
+        }
+        if (program.begin() == null) {
+            // program did not compile
+            release();
+            return false;
+        }
+        event = new JqEvents.Execute();
+        event.begin();
+        program.attach();
+        parser = new JqParser(program.getLib());
+        return true;
+    }
+
+    /**
+     * Gives a fragment to the parser, and executes the program against every value that it
+     * completes. Caller must hold the jq lock.
+     */
+    private void process(final byte[] fragment) {
+        if (done) {
+            return;
+        }
+        if (fragment == CLOSE || failed) {
+            release();
+            return;
+        }
+        if (parser == null && !open()) {
+            return;
+        }
+
+        final boolean finished = fragment == FINISH;
+        parser.setBuf(fragment, 0, fragment.length, finished);
+        inputBytes += fragment.length;
+        for (;;) {
+            final int errorCount = program.getErrors().size();
+            final Jv parsed = program.nextInput(parser.getPointer());
+            if (parsed == null) {
+                if (finished || program.getErrors().size() != errorCount) {
+                    // end of input, or input cannot be parsed
+                    release();
+                }
+                return;
+            }
+
+            program.start(parsed, JqProgram.NO_BINDINGS);
+            for (;;) {
+                final Jv next = program.next();
+                if (next == null) {
+                    break;
+                }
+                final String result = program.dump(next);
+                program.addResult();
+                outputBytes += Utf8.encodedLength(result);
+                results.accept(result);
+            }
+        }
+    }
+
+    /**
+     * Releases native resources and completes the session. Caller must hold the jq lock.
+     */
+    private void release() {
+        done = true;
+        List<String> errors = ImmutableList.of();
+        if (program != null) {
+            if (parser != null) {
+                LOGGER.log(FINE, "Finishing with parser");
+                parser.close();
+                parser = null;
+                errors = ImmutableList.copyOf(program.getErrors());
+                program.commit(event, null, inputBytes, outputBytes);
+                program.detach();
+            } else if (!program.isValid()) {
+                errors = program.getCompileErrors();
+            }
+            if (ownsProgram) {
+                program.close();
+            }
+        }
+        completion.complete(errors);
+    }
+
+    /**
+     * Queues a fragment, and processes the queue on this thread if the jq lock is free, or on the
+     * executor otherwise.
+     */
+    private void submit(final byte[] fragment) {
+        fragments.add(fragment);
+        if (pending.getAndIncrement() != 0) {
+            // queue is already being drained
+            return;
+        }
+        if (JqLock.tryLock()) {
+            try {
+                drain();
+            } finally {
+                JqLock.unlock();
+            }
+        } else {
+            try {
+                executor.execute(this::drainLater);
+            } catch (final RejectedExecutionException e) {
+                fail(e);
+            }
+        }
+    }
+}
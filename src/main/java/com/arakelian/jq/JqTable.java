@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * Columns of primitive values extracted by a {@link JqExtractor}, one row per result.
+ *
+ * Each column is stored in a primitive array that grows as rows are appended, together with a
+ * bitmap of the rows whose value is null. Getters return copies that are trimmed to the number of
+ * rows; the values of null rows are <code>0</code>, <code>false</code> or <code>null</code>.
+ *
+ * A table is not thread-safe.
+ */
+public final class JqTable {
+    /**
+     * Values of a single column; only the array that matches the type of the column is allocated.
+     */
+    private static final class Column {
+        private final JqColumn.Type type;
+        private final BitSet nulls = new BitSet();
+        private boolean[] booleans;
+        private double[] doubles;
+        private long[] longs;
+        private String[] strings;
+
+        private Column(final JqColumn.Type type) {
+            this.type = type;
+        }
+
+        private void ensureCapacity(final int capacity) {
+            switch (type) {
+            case BOOLEAN:
+                booleans = booleans == null ? new boolean[capacity] : Arrays.copyOf(booleans, capacity);
+                break;
+            case DOUBLE:
+                doubles = doubles == null ? new double[capacity] : Arrays.copyOf(doubles, capacity);
+                break;
+            case LONG:
+                longs = longs == null ? new long[capacity] : Arrays.copyOf(longs, capacity);
+                break;
+            case STRING:
+                strings = strings == null ? new String[capacity] : Arrays.copyOf(strings, capacity);
+                break;
+            default:
+                throw new IllegalStateException("Unsupported column type: " + type);
+            }
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final List<JqColumn> columns;
+
+    private final Map<String, Integer> indexes;
+
+    private final Column[] data;
+
+    private final List<String> errors = Lists.newArrayList();
+
+    private int capacity;
+
+    private int rowCount;
+
+    /**
+     * Creates an empty table with the given columns.
+     *
+     * @param columns
+     *            columns of table
+     */
+    public JqTable(final List<JqColumn> columns) {
+        Preconditions.checkArgument(columns != null, "columns must be non-null");
+        this.columns = ImmutableList.copyOf(columns);
+        this.data = new Column[this.columns.size()];
+
+        final ImmutableMap.Builder<String, Integer> indexes = ImmutableMap.builder();
+        for (int i = 0; i < data.length; i++) {
+            final JqColumn column = this.columns.get(i);
+            indexes.put(column.getName(), i);
+            data[i] = new Column(column.getType());
+        }
+        this.indexes = indexes.build();
+    }
+
+    /**
+     * Returns the values of a {@link JqColumn.Type#BOOLEAN} column.
+     *
+     * @param name
+     *            name of column
+     * @return the values of a column
+     */
+    public boolean[] getBooleans(final String name) {
+        final Column column = getColumn(name, JqColumn.Type.BOOLEAN);
+        return column.booleans != null ? Arrays.copyOf(column.booleans, rowCount) : new boolean[0];
+    }
+
+    public List<JqColumn> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the values of a {@link JqColumn.Type#DOUBLE} column.
+     *
+     * @param name
+     *            name of column
+     * @return the values of a column
+     */
+    public double[] getDoubles(final String name) {
+        final Column column = getColumn(name, JqColumn.Type.DOUBLE);
+        return column.doubles != null ? Arrays.copyOf(column.doubles, rowCount) : new double[0];
+    }
+
+    /**
+     * Returns the errors reported while extracting rows.
+     *
+     * @return the errors reported while extracting rows
+     */
+    public List<String> getErrors() {
+        return ImmutableList.copyOf(errors);
+    }
+
+    /**
+     * Returns the values of a {@link JqColumn.Type#LONG} column.
+     *
+     * @param name
+     *            name of column
+     * @return the values of a column
+     */
+    public long[] getLongs(final String name) {
+        final Column column = getColumn(name, JqColumn.Type.LONG);
+        return column.longs != null ? Arrays.copyOf(column.longs, rowCount) : new long[0];
+    }
+
+    /**
+     * Returns the rows of a column whose value is null.
+     *
+     * @param name
+     *            name of column
+     * @return the rows of a column whose value is null
+     */
+    public BitSet getNulls(final String name) {
+        return (BitSet) getColumn(name, null).nulls.clone();
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Returns the values of a {@link JqColumn.Type#STRING} column.
+     *
+     * @param name
+     *            name of column
+     * @return the values of a column
+     */
+    public String[] getStrings(final String name) {
+        final Column column = getColumn(name, JqColumn.Type.STRING);
+        return column.strings != null ? Arrays.copyOf(column.strings, rowCount) : new String[0];
+    }
+
+    public boolean hasErrors() {
+        return errors.size() != 0;
+    }
+
+    /**
+     * Returns true if the value of a column is null in the given row.
+     *
+     * @param name
+     *            name of column
+     * @param row
+     *            index of row
+     * @return true if the value of a column is null in the given row
+     */
+    public boolean isNull(final String name, final int row) {
+        Preconditions.checkElementIndex(row, rowCount, "row");
+        return getColumn(name, null).nulls.get(row);
+    }
+
+    void addErrors(final List<String> messages) {
+        errors.addAll(messages);
+    }
+
+    /**
+     * Appends a row whose values are null; values are then set with the <code>set</code> methods.
+     */
+    void addRow() {
+        if (rowCount == capacity) {
+            capacity = capacity == 0 ? INITIAL_CAPACITY : capacity * 2;
+            for (final Column column : data) {
+                column.ensureCapacity(capacity);
+            }
+        }
+        final int row = rowCount++;
+        for (final Column column : data) {
+            column.nulls.set(row);
+        }
+    }
+
+    void setBoolean(final int index, final boolean value) {
+        final Column column = data[index];
+        column.booleans[rowCount - 1] = value;
+        column.nulls.clear(rowCount - 1);
+    }
+
+    void setDouble(final int index, final double value) {
+        final Column column = data[index];
+        column.doubles[rowCount - 1] = value;
+        column.nulls.clear(rowCount - 1);
+    }
+
+    void setLong(final int index, final long value) {
+        final Column column = data[index];
+        column.longs[rowCount - 1] = value;
+        column.nulls.clear(rowCount - 1);
+    }
+
+    void setString(final int index, final String value) {
+        final Column column = data[index];
+        column.strings[rowCount - 1] = value;
+        column.nulls.clear(rowCount - 1);
+    }
+
+    private Column getColumn(final String name, final JqColumn.Type type) {
+        final Integer index = indexes.get(name);
+        Preconditions.checkArgument(index != null, "Unknown column: %s", name);
+        final Column column = data[index];
+        Preconditions.checkArgument(
+                type == null || column.type == type,
+                "Column %s is of type %s, not %s",
+                name,
+                column.type,
+                type);
+        return column;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.io.Closeable;
+
+import com.arakelian.jq.JqLibrary.Jv;
+import com.google.common.base.Preconditions;
+
+/**
+ * A handle to a JSON value that has been parsed by libjq.
+ *
+ * The native value is reference counted; every use by a {@link JqProgram} takes its own reference,
+ * and the handle's reference is released by {@link #close()}. Values can therefore be parsed once
+ * and passed to any number of executions.
+ */
+public class JqValue implements Closeable {
+    /**
+     * Parses the given JSON text.
+     *
+     * @param lib
+     *            jq library
+     * @param json
+     *            JSON text
+     * @return handle to the parsed value
+     * @throws IllegalArgumentException
+     *             if the text is not valid JSON
+     */
+    public static JqValue parse(final JqLibrary lib, final String json) throws IllegalArgumentException {
+        Preconditions.checkArgument(lib != null, "lib must be non-null");
+        Preconditions.checkArgument(json != null, "json must be non-null");
+        JqLock.lock();
+        try {
+            return new JqValue(lib, parseJv(lib, json));
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    /**
+     * Parses JSON text into a native value. Caller must hold the jq lock.
+     */
+    static Jv parseJv(final JqLibrary lib, final String json) throws IllegalArgumentException {
+        final Jv value = lib.jv_parse(json);
+        if (!lib.jv_is_valid(value)) {
+            final String message = JqProgram.getInvalidMessage(lib, value);
+            throw new IllegalArgumentException(message != null ? message : "Invalid JSON text");
+        }
+        return value;
+    }
+
+    private final JqLibrary lib;
+
+    /** Native value, or null once closed; volatile so that isClosed() does not need the jq lock **/
+    private volatile Jv value;
+
+    JqValue(final JqLibrary lib, final Jv value) {
+        this.lib = lib;
+        this.value = value;
+    }
+
+    @Override
+    public void close() {
+        JqLock.lockForRelease();
+        try {
+            if (value != null) {
+                lib.jv_free(value);
+                value = null;
+            }
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    public final JqLibrary getLib() {
+        return lib;
+    }
+
+    public final boolean isClosed() {
+        return value == null;
+    }
+
+    /**
+     * Returns a new reference to the native value. Caller must hold the jq lock, and is
+     * responsible for releasing the reference.
+     *
+     * @return a new reference to the native value
+     */
+    final Jv copy() {
+        Preconditions.checkState(value != null, "Value has been closed");
+        return lib.jv_copy(value);
+    }
+}
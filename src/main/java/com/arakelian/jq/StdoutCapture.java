@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.io.LineProcessor;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+/**
+ * Captures the text that native code prints to stdout, such as the output of
+ * <code>jq_dump_disassembly</code> and of {@link JqLibrary#JQ_DEBUG_TRACE}.
+ *
+ * File descriptor 1 of the process is redirected to a temporary file while the action runs, so
+ * anything else that the process writes to stdout during that time, including
+ * <code>System.out</code>, is captured as well.
+ */
+final class StdoutCapture {
+    private static final int STDOUT = 1;
+
+    /**
+     * Runs the given action, passing each line that it prints to stdout to the given processor.
+     *
+     * @param action
+     *            action that prints to stdout
+     * @param processor
+     *            processes the captured lines
+     * @return the result of the processor
+     * @throws IOException
+     *             if stdout cannot be redirected, or the captured text cannot be read
+     */
+    static <T> T capture(final Runnable action, final LineProcessor<T> processor) throws IOException {
+        if (Platform.isWindows()) {
+            throw new UnsupportedOperationException("Capturing stdout is not supported on Windows");
+        }
+
+        final NativeLibrary libc = NativeLibrary.getInstance(Platform.C_LIBRARY_NAME);
+        final File file = File.createTempFile("jq-stdout", ".txt");
+        try {
+            System.out.flush();
+            fflush(libc);
+
+            final Pointer stream = (Pointer) libc.getFunction("fopen")
+                    .invoke(Pointer.class, new Object[] { file.getAbsolutePath(), "w" });
+            if (stream == null) {
+                throw new IOException("Unable to open " + file);
+            }
+            try {
+                final int saved = libc.getFunction("dup").invokeInt(new Object[] { STDOUT });
+                if (saved < 0) {
+                    throw new IOException("Unable to duplicate stdout");
+                }
+                try {
+                    final int fd = libc.getFunction("fileno").invokeInt(new Object[] { stream });
+                    if (libc.getFunction("dup2").invokeInt(new Object[] { fd, STDOUT }) < 0) {
+                        throw new IOException("Unable to redirect stdout");
+                    }
+                    try {
+                        action.run();
+                    } finally {
+                        fflush(libc);
+                        libc.getFunction("dup2").invokeInt(new Object[] { saved, STDOUT });
+                    }
+                } finally {
+                    libc.getFunction("close").invokeInt(new Object[] { saved });
+                }
+            } finally {
+                libc.getFunction("fclose").invokeInt(new Object[] { stream });
+            }
+
+            return Files.asCharSource(file, Charsets.UTF_8).readLines(processor);
+        } finally {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    private static void fflush(final NativeLibrary libc) {
+        // flushes all open output streams, including stdout
+        libc.getFunction("fflush").invokeInt(new Object[] { null });
+    }
+
+    private StdoutCapture() {
+        // utility class
+    }
+}
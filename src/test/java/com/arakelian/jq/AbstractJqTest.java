@@ -220,6 +220,12 @@ public abstract class AbstractJqTest {
                 .build();
 
         final JqResponse response = request.execute();
+        if (JqFastPath.compile(program) != null) {
+            // fast path must produce exactly the same output as libjq
+            final JqResponse expectedResponse = ImmutableJqRequest.copyOf(request).withFastPath(false).execute();
+            assertEquals(expectedResponse, response);
+        }
+
         switch (type) {
         case MUST_FAIL:
             // fall through
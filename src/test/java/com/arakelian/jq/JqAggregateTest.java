@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.Lists;
+
+public class JqAggregateTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static JqAggregate aggregate(final String map, final String combine) {
+        return ImmutableJqAggregate.builder() //
+                .request(
+                        ImmutableJqRequest.builder() //
+                                .lib(library) //
+                                .input("") //
+                                .pretty(false) //
+                                .sortKeys(true) //
+                                .build()) //
+                .mapFilter(map) //
+                .combineFilter(combine) //
+                .parallelism(4) //
+                .sliceSize(100) //
+                .build();
+    }
+
+    private static List<String> events(final int count) {
+        final List<String> events = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            events.add("{\"user\":\"u" + i % 3 + "\",\"bytes\":" + i + "}");
+        }
+        return events;
+    }
+
+    @Test
+    public void testCounts() {
+        final JqResponse response = aggregate(
+                "reduce .[] as $e ({}; .[$e.user] += 1)",
+                "reduce .[] as $m ({}; reduce ($m | to_entries[]) as $e (.; .[$e.key] += $e.value))") //
+                        .run(events(1000));
+        assertEquals("{\"u0\":334,\"u1\":333,\"u2\":333}", response.getOutput());
+    }
+
+    @Test
+    public void testEmpty() {
+        final JqResponse response = aggregate("map(.bytes) | add", ".[0] + .[1]").run(Collections.emptyList());
+        assertEquals("", response.getOutput());
+        assertFalse(response.hasErrors());
+    }
+
+    @Test
+    public void testErrors() {
+        final JqResponse response = aggregate("map(.bytes) | add", ".[0] + .[1]") //
+                .run(Arrays.asList("{\"bytes\":1}", "{\"bytes\":\"x\"}"));
+        assertTrue(response.hasErrors());
+        assertEquals("", response.getOutput());
+
+        // combine filter must produce exactly one result
+        assertTrue(aggregate("map(.bytes) | add", ".[]").run(events(1000)).hasErrors());
+    }
+
+    @Test
+    public void testOrder() {
+        // partial results are combined in the order of the documents
+        final JqResponse response = aggregate("map(.bytes)", ".[0] + .[1]").run(events(1000));
+        final StringBuilder expected = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            expected.append(i == 0 ? "" : ",").append(i);
+        }
+        assertEquals(expected.append("]").toString(), response.getOutput());
+    }
+
+    @Test
+    public void testSum() {
+        final JqResponse response = aggregate("map(.bytes) | add", ".[0] + .[1]").run(events(100000));
+        assertEquals(Long.toString(99999L * 100000 / 2), response.getOutput());
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Memory;
+
+public class JqBufferPoolTest {
+    @Test
+    public void testMaxPooledBytes() {
+        final JqBufferPool pool = ImmutableJqBufferPool.builder() //
+                .maxPooledBytes(8192) //
+                .build();
+
+        final Memory a = pool.acquire(8192);
+        final Memory b = pool.acquire(8192);
+        pool.release(a);
+        pool.release(b);
+        assertEquals(8192, pool.getPooledBytes());
+        assertEquals(1, pool.getFreed());
+    }
+
+    @Test
+    public void testReuse() {
+        final JqBufferPool pool = ImmutableJqBufferPool.builder().build();
+
+        final Memory memory = pool.acquire(5000);
+        assertEquals(8192, memory.size());
+        pool.release(memory);
+        assertEquals(8192, pool.getPooledBytes());
+
+        assertSame(memory, pool.acquire(6000));
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(2, pool.getAcquired());
+        assertEquals(1, pool.getAllocated());
+    }
+
+    @Test
+    public void testSizeClasses() {
+        final JqBufferPool pool = ImmutableJqBufferPool.builder() //
+                .maxBufferSize(16384) //
+                .build();
+        assertEquals(4096, pool.acquire(0).size());
+        assertEquals(4096, pool.acquire(4096).size());
+        assertEquals(8192, pool.acquire(4097).size());
+        assertEquals(16384, pool.acquire(16384).size());
+
+        // too large to pool
+        final Memory large = pool.acquire(16385);
+        assertEquals(16385, large.size());
+        pool.release(large);
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(1, pool.getFreed());
+    }
+}
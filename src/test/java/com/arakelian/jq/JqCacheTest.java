@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class JqCacheTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private JqResponse execute(final JqCache cache, final String filter, final String input) {
+        final JqRequest request = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .cache(cache) //
+                .input(input) //
+                .filter(filter) //
+                .build();
+        return request.execute();
+    }
+
+    @Test
+    public void testEviction() {
+        final JqCache cache = ImmutableJqCache.builder() //
+                .maximumBytes(1024) //
+                .build();
+
+        for (int i = 0; i < 100; i++) {
+            execute(cache, ".a", "{\"a\":\"" + i + "\"}");
+        }
+        assertTrue(cache.getStats().evictionCount() > 0);
+        assertTrue(cache.getRetainedBytes() <= 1024);
+    }
+
+    @Test
+    public void testHit() {
+        final JqCache cache = ImmutableJqCache.builder().build();
+
+        final JqResponse first = execute(cache, ".a", "{\"a\":[1,2,3]}");
+        final JqResponse second = execute(cache, ".a", "{\"a\":[1,2,3]}");
+        assertEquals(first, second);
+        assertEquals(1, cache.getStats().hitCount());
+        assertEquals(1, cache.getStats().missCount());
+
+        execute(cache, ".a", "{\"a\":[1,2]}");
+        assertEquals(2, cache.getStats().missCount());
+    }
+
+    @Test
+    public void testOffHeap() {
+        final JqCache cache = ImmutableJqCache.builder() //
+                .offHeapThreshold(0) //
+                .build();
+
+        final JqResponse first = execute(cache, ".b", "{\"b\":\"héllo\"}");
+        final JqResponse second = execute(cache, ".b", "{\"b\":\"héllo\"}");
+        assertEquals("\"héllo\"", second.getOutput());
+        assertEquals(first, second);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Charsets;
+
+public class JqCodecTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static byte[] gzip(final String text) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(text.getBytes(Charsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private static JqRequest request(final String filter) {
+        return ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter(filter) //
+                .pretty(false) //
+                .build();
+    }
+
+    @Test
+    public void testForName() {
+        assertEquals(JqCodec.GZIP, JqCodec.forName("GZIP").get());
+        assertEquals(JqCodec.NONE, JqCodec.forName("none").get());
+        assertFalse(JqCodec.forName("unknown").isPresent());
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        final JqResponse response = request(".a") //
+                .execute(new ByteArrayInputStream(gzip("{\"a\":1}\n{\"a\":2}")), JqCodec.GZIP);
+        assertEquals("1\n2", response.getOutput());
+        assertFalse(response.hasErrors());
+    }
+
+    @Test
+    public void testInvalidInput() throws IOException {
+        final JqResponse response = request(".") //
+                .execute(new ByteArrayInputStream(gzip("1 {\"a\": 2 3")), JqCodec.GZIP);
+        assertEquals("1", response.getOutput());
+        assertTrue(response.hasErrors());
+    }
+
+    @Test
+    public void testManyChunks() throws IOException {
+        // values and multi-byte characters span chunk boundaries
+        final StringBuilder input = new StringBuilder();
+        final int count = 20000;
+        for (int i = 0; i < count; i++) {
+            input.append("{\"n\":").append(i).append(",\"s\":\"é€😀\"}\n");
+        }
+        assertTrue(input.length() > 4 * JqInputPump.CHUNK_SIZE);
+
+        final JqResponse response = request("select(.s == \"é€😀\") | .n") //
+                .execute(new ByteArrayInputStream(gzip(input.toString())), JqCodec.GZIP);
+        assertFalse(response.hasErrors(), response.getErrors().toString());
+        final String[] lines = response.getOutput().split("\n");
+        assertEquals(count, lines.length);
+        assertEquals(Integer.toString(count - 1), lines[count - 1]);
+    }
+
+    @Test
+    public void testNotCompressed() {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final InputStream input = new ByteArrayInputStream("[1,2,3]".getBytes(Charsets.UTF_8)) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        };
+        assertThrows(IOException.class, () -> request(".").execute(input, JqCodec.GZIP));
+        assertTrue(closed.get());
+    }
+
+    @Test
+    public void testStalledInput() throws Exception {
+        final CountDownLatch reading = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final InputStream input = new InputStream() {
+            private boolean done;
+
+            @Override
+            public int read() throws IOException {
+                if (done) {
+                    return -1;
+                }
+                reading.countDown();
+                try {
+                    resume.await();
+                } catch (final InterruptedException e) {
+                    throw new IOException(e);
+                }
+                done = true;
+                return '1';
+            }
+        };
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<JqResponse> stalled = executor.submit(() -> request(".").execute(input, JqCodec.NONE));
+            reading.await();
+
+            // jq lock is not held while the stream is stalled; filter is not evaluated by the fast path
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                assertEquals("2", ImmutableJqRequest.copyOf(request(". + 1")).withInput("1").execute().getOutput());
+            });
+
+            resume.countDown();
+            assertEquals("1", stalled.get().getOutput());
+        } finally {
+            resume.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTruncated() throws IOException {
+        final byte[] compressed = gzip("[1,2,3]");
+        final byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+        assertThrows(
+                IOException.class,
+                () -> request(".").execute(new ByteArrayInputStream(truncated), JqCodec.GZIP));
+    }
+
+    @Test
+    public void testUncompressed() throws IOException {
+        final byte[] input = "[1,2,3]".getBytes(Charsets.UTF_8);
+        assertEquals("3", request("length").execute(new ByteArrayInputStream(input), JqCodec.NONE).getOutput());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.Lists;
+
+public class JqCursorTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private JqCursor open(final String filter, final String input) {
+        return ImmutableJqRequest.builder() //
+                .lib(library) //
+                .filter(filter) //
+                .input(input) //
+                .build() //
+                .open();
+    }
+
+    @Test
+    public void testAllResults() {
+        try (JqCursor cursor = open(".[]", "[1,2] [3] []")) {
+            final List<String> results = Lists.newArrayList(cursor);
+            assertEquals(Lists.newArrayList("1", "2", "3"), results);
+            assertFalse(cursor.hasNext());
+            assertThrows(NoSuchElementException.class, () -> cursor.next());
+            assertTrue(cursor.getErrors().isEmpty());
+        }
+    }
+
+    @Test
+    public void testCompileError() {
+        try (JqCursor cursor = open(".[", "1")) {
+            assertFalse(cursor.hasNext());
+            assertFalse(cursor.getErrors().isEmpty());
+        }
+    }
+
+    @Test
+    public void testEarlyTermination() {
+        // filter produces an infinite stream of results
+        try (JqCursor cursor = open("repeat(.)", "1")) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(cursor.hasNext());
+                assertEquals("1", cursor.next());
+            }
+        }
+    }
+
+    @Test
+    public void testProgramCursor() {
+        try (JqProgram program = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter(".a") //
+                .build() //
+                .compile()) {
+            try (JqCursor cursor = program.open("{\"a\":1} {\"a\":2}")) {
+                assertEquals("1", cursor.next());
+                assertThrows(IllegalStateException.class, () -> program.execute("{}"));
+            }
+            assertEquals("3", program.execute("{\"a\":3}").getOutput());
+        }
+    }
+
+    @Test
+    public void testRuntimeError() {
+        try (JqCursor cursor = open(".a", "{\"a\":1} 2 {\"a\":3}")) {
+            assertEquals("1", cursor.next());
+            assertEquals("3", cursor.next());
+            assertFalse(cursor.hasNext());
+            assertEquals(1, cursor.getErrors().size());
+        }
+    }
+}
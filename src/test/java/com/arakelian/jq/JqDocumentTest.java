@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class JqDocumentTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static final String JSON = "{\"id\":7,\"user\":{\"name\":\"greg\",\"roles\":[\"a\",\"b\"]}}";
+
+    @Test
+    public void testClosed() {
+        final JqDocument document = JqDocument.parse(library, JSON);
+        document.close();
+        assertTrue(document.isClosed());
+        assertThrows(IllegalStateException.class, () -> document.runAll(ImmutableList.of(".")));
+    }
+
+    @Test
+    public void testInvalidJson() {
+        assertThrows(IllegalArgumentException.class, () -> JqDocument.parse(library, "{\"a\":"));
+    }
+
+    @Test
+    public void testRunAllFilters() {
+        try (JqDocument document = JqDocument.parse(library, JSON)) {
+            final Map<String, JqResponse> responses = document
+                    .runAll(ImmutableList.of(".id", ".user.name", ".user.roles | length", ".id.x"));
+            assertEquals(ImmutableList.of(".id", ".user.name", ".user.roles | length", ".id.x"),
+                    ImmutableList.copyOf(responses.keySet()));
+            assertEquals("7", responses.get(".id").getOutput());
+            assertEquals("\"greg\"", responses.get(".user.name").getOutput());
+            assertEquals("2", responses.get(".user.roles | length").getOutput());
+            assertTrue(responses.get(".id.x").hasErrors());
+        }
+    }
+
+    @Test
+    public void testRunAllPrograms() {
+        try (JqDocument document = JqDocument.parse(library, JSON);
+                JqProgram id = ImmutableJqRequest.builder().lib(library).input("").filter(".id").build().compile();
+                JqProgram roles = ImmutableJqRequest.builder() //
+                        .lib(library) //
+                        .input("") //
+                        .filter(".user.roles[]") //
+                        .rawOutput(true) //
+                        .build() //
+                        .compile()) {
+            final Map<String, JqResponse> responses = document.runAll(ImmutableMap.of("id", id, "roles", roles));
+            assertEquals("7", responses.get("id").getOutput());
+            assertEquals("a\nb", responses.get("roles").getOutput());
+
+            // document can be reused
+            assertEquals("7", document.run(id).getOutput());
+        }
+    }
+}
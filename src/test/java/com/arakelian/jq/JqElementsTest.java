@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Charsets;
+
+public class JqElementsTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static ByteBuffer bytes(final String input) {
+        return ByteBuffer.wrap(input.getBytes(Charsets.UTF_8));
+    }
+
+    private static JqElements elements(final String filter, final boolean fastPath) {
+        return ImmutableJqElements.builder() //
+                .request(
+                        ImmutableJqRequest.builder() //
+                                .lib(library) //
+                                .input("") //
+                                .filter(filter) //
+                                .pretty(false) //
+                                .fastPath(fastPath) //
+                                .build()) //
+                .parallelism(4) //
+                .rangeSize(1000) //
+                .build();
+    }
+
+    @Test
+    public void testErrors() {
+        // execution continues with the next element after an error
+        final JqResponse response = elements(".a", false).execute("[1, {\"a\":2}, \"x\", {\"a\":3}]");
+        assertEquals("2\n3", response.getOutput());
+        assertEquals(2, response.getErrors().size());
+    }
+
+    @Test
+    public void testExecute() {
+        final StringBuilder input = new StringBuilder("[");
+        for (int i = 0; i < 10000; i++) {
+            input.append(i == 0 ? "" : ",\n  ").append("{\"n\":").append(i).append(",\"s\":\"é,]\"}");
+        }
+        input.append("]");
+
+        for (final String filter : new String[] { ".n", "select(.n % 7 == 0) | {n, s}" }) {
+            final JqResponse expected = ImmutableJqRequest.builder() //
+                    .lib(library) //
+                    .filter(".[] | " + filter) //
+                    .input(input.toString()) //
+                    .pretty(false) //
+                    .build() //
+                    .execute();
+            assertEquals(expected, elements(filter, true).execute(input.toString()));
+            assertEquals(expected, elements(filter, false).execute(input.toString()));
+            assertEquals(expected, elements(filter, true).execute(bytes(input.toString())));
+        }
+    }
+
+    @Test
+    public void testNotArray() {
+        assertEquals("", elements(".", true).execute(" [ ] ").getOutput());
+        assertEquals("1\n2", elements(".", true).execute("{\"a\":1,\"b\":2}").getOutput());
+        assertEquals(1, elements(".", true).execute("[1 2]").getErrors().size());
+        assertEquals("1\n2", elements(".", true).execute(bytes("{\"a\":1,\"b\":2}")).getOutput());
+    }
+
+    @Test
+    public void testPool() {
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            final JqElements elements = ImmutableJqElements.copyOf(elements(".", true)) //
+                    .withRangeSize(1) //
+                    .withPool(pool);
+            for (int i = 0; i < 2; i++) {
+                // pool is reused, rather than shut down, after each execution
+                assertEquals("1\n2\n3", elements.execute("[1,\n2,\n3]").getOutput());
+                assertFalse(pool.isShutdown());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class JqEventsTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private RecordedEvent find(final List<RecordedEvent> events, final String name) {
+        for (final RecordedEvent event : events) {
+            if (name.equals(event.getEventType().getName())) {
+                return event;
+            }
+        }
+        throw new AssertionError("Event not recorded: " + name);
+    }
+
+    @Test
+    public void testEvents() throws IOException {
+        final Path file = Files.createTempFile("jq-", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jq.Compile");
+            recording.enable("jq.Execute");
+            recording.enable("jq.Dump");
+            recording.start();
+
+            final JqResponse response = ImmutableJqRequest.builder() //
+                    .lib(library) //
+                    .input("{\"a\":[1,2,3]}") //
+                    .filter(".a[]") //
+                    .build() //
+                    .execute();
+            assertEquals("1\n2\n3", response.getOutput());
+
+            recording.stop();
+            recording.dump(file);
+
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertTrue(find(events, "jq.Compile").getBoolean("success"));
+            assertEquals(".a[]", find(events, "jq.Compile").getString("filter"));
+
+            final RecordedEvent execute = find(events, "jq.Execute");
+            assertEquals(13L, execute.getLong("inputBytes"));
+            assertEquals(5L, execute.getLong("outputBytes"));
+            assertEquals(3, execute.getInt("resultCount"));
+            assertEquals(0, execute.getInt("errorCount"));
+            assertFalse(execute.getBoolean("fastPath"));
+
+            find(events, "jq.Dump");
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testFastPath() throws IOException {
+        final Path file = Files.createTempFile("jq-", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jq.Execute");
+            recording.start();
+
+            final JqResponse response = ImmutableJqRequest.builder() //
+                    .lib(library) //
+                    .input("{\"a\":1} {\"a\":22}") //
+                    .filter(".a") //
+                    .pretty(false) //
+                    .build() //
+                    .execute();
+            assertEquals("1\n22", response.getOutput());
+
+            recording.stop();
+            recording.dump(file);
+
+            final RecordedEvent execute = find(RecordingFile.readAllEvents(file), "jq.Execute");
+            assertTrue(execute.getBoolean("fastPath"));
+            assertEquals(".a", execute.getString("filter"));
+            assertEquals(16L, execute.getLong("inputBytes"));
+            assertEquals(4L, execute.getLong("outputBytes"));
+            assertEquals(2, execute.getInt("resultCount"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
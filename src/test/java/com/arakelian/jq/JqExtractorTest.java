@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class JqExtractorTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static final List<JqColumn> COLUMNS = ImmutableList.of( //
+            JqColumn.of("latency", JqColumn.Type.DOUBLE), //
+            JqColumn.of("status", JqColumn.Type.LONG), //
+            JqColumn.of("ok", JqColumn.Type.BOOLEAN), //
+            JqColumn.of("host", JqColumn.Type.STRING, ".host.name"));
+
+    private static JqRequest request(final String filter) {
+        return ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter(filter) //
+                .build();
+    }
+
+    private static BitSet bits(final int... indexes) {
+        final BitSet bits = new BitSet();
+        for (final int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+
+    @Test
+    public void testAppend() {
+        try (JqExtractor extractor = request(".").compileExtractor(COLUMNS)) {
+            final JqTable table = new JqTable(COLUMNS);
+            for (int i = 0; i < 1000; i++) {
+                extractor.extract("{\"latency\":" + i + ".5,\"status\":" + i + "}", table);
+            }
+            assertEquals(1000, table.getRowCount());
+            final double[] latencies = table.getDoubles("latency");
+            final long[] statuses = table.getLongs("status");
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(i + 0.5, latencies[i]);
+                assertEquals(i, statuses[i]);
+            }
+            assertEquals(1000, table.getNulls("host").cardinality());
+        }
+    }
+
+    @Test
+    public void testColumns() {
+        final String input = "{\"latency\":1.5,\"status\":200,\"ok\":true,\"host\":{\"name\":\"a\"}}\n" //
+                + "{\"latency\":\"x\",\"status\":2.5,\"ok\":false,\"host\":{\"name\":\"é€😀\"}}\n" //
+                + "{\"latency\":-2,\"status\":-9007199254740992,\"ok\":null,\"host\":null}";
+        try (JqExtractor extractor = request(".").compileExtractor(COLUMNS)) {
+            assertTrue(extractor.isValid());
+            final JqTable table = extractor.extract(input);
+            assertFalse(table.hasErrors(), table.getErrors().toString());
+            assertEquals(3, table.getRowCount());
+
+            assertArrayEquals(new double[] { 1.5, 0, -2 }, table.getDoubles("latency"));
+            assertEquals(bits(1), table.getNulls("latency"));
+
+            assertArrayEquals(new long[] { 200, 0, -9007199254740992L }, table.getLongs("status"));
+            assertEquals(bits(1), table.getNulls("status"));
+
+            assertArrayEquals(new boolean[] { true, false, false }, table.getBooleans("ok"));
+            assertEquals(bits(2), table.getNulls("ok"));
+            assertTrue(table.isNull("ok", 2));
+
+            assertArrayEquals(new String[] { "a", "é€😀", null }, table.getStrings("host"));
+            assertEquals(bits(2), table.getNulls("host"));
+        }
+    }
+
+    @Test
+    public void testCompileError() {
+        try (JqExtractor extractor = request(".").compileExtractor(
+                ImmutableList.of(JqColumn.of("a", JqColumn.Type.LONG, ".a[")))) {
+            assertFalse(extractor.isValid());
+            final JqTable table = extractor.extract("{}");
+            assertEquals(0, table.getRowCount());
+            assertTrue(table.hasErrors());
+        }
+    }
+
+    @Test
+    public void testRows() {
+        // each result of the filter is a row; paths that produce no values are null
+        final String input = "{\"records\":[{\"status\":1},{},{\"status\":3}]}";
+        try (JqExtractor extractor = request("# records\n.records[]").compileExtractor(
+                ImmutableList.of(JqColumn.of("status", JqColumn.Type.LONG, ".status // empty")))) {
+            final JqTable table = extractor.extract(input);
+            assertArrayEquals(new long[] { 1, 0, 3 }, table.getLongs("status"));
+            assertEquals(bits(1), table.getNulls("status"));
+        }
+    }
+
+    @Test
+    public void testRuntimeError() {
+        try (JqExtractor extractor = request(".").compileExtractor(
+                ImmutableList.of(JqColumn.of("a", JqColumn.Type.LONG, ".a.b")))) {
+            final JqTable table = extractor.extract("{\"a\":{\"b\":1}} {\"a\":1} {\"a\":{\"b\":3}}");
+            assertArrayEquals(new long[] { 1, 3 }, table.getLongs("a"));
+            assertEquals(1, table.getErrors().size());
+        }
+    }
+
+    @Test
+    public void testWrongType() {
+        final JqTable table = new JqTable(COLUMNS);
+        assertThrows(IllegalArgumentException.class, () -> table.getLongs("latency"));
+        assertThrows(IllegalArgumentException.class, () -> table.getDoubles("unknown"));
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class JqFastPathTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static final String JSON = "{\"id\":7,\"z\":0.50,\"a\":{\"b\":[{\"c\":\"x\\ty\"},2]}}";
+
+    private static void assertSameAsLibjq(final ImmutableJqRequest request) {
+        assertNotNull(JqFastPath.execute(request), "Expected fast path: " + request.getFilter());
+        assertEquals(request.withFastPath(false).execute(), request.execute());
+    }
+
+    private static ImmutableJqRequest request(final String filter, final String input) {
+        return ImmutableJqRequest.builder() //
+                .lib(library) //
+                .filter(filter) //
+                .input(input) //
+                .pretty(false) //
+                .build();
+    }
+
+    @Test
+    public void testFallback() {
+        // filters that are not trivial
+        assertNull(JqFastPath.compile(".[]"));
+        assertNull(JqFastPath.compile(".a | .b"));
+        assertNull(JqFastPath.compile(".[-1]"));
+        assertNull(JqFastPath.compile(".a?"));
+        assertNull(JqFastPath.compile("{a: .x, a: .y}"));
+        assertNull(JqFastPath.compile("{if}"));
+
+        // inputs and options the fast path cannot reproduce exactly
+        assertNull(JqFastPath.execute(request(".", "{\"a\":1,\"a\":2}")));
+        assertNull(JqFastPath.execute(request(".", "1e3")));
+        assertNull(JqFastPath.execute(request(".", "-0")));
+        assertNull(JqFastPath.execute(request(".", "12345678901234567")));
+        assertNull(JqFastPath.execute(request(".", "10000000000000000")));
+        assertNull(JqFastPath.execute(request(".", "\"\\ud800\"")));
+        assertNull(JqFastPath.execute(request(".a", "[1,2]")));
+        assertNull(JqFastPath.execute(request(".", "{\"a\":")));
+        assertNull(JqFastPath.execute(request(".", "1").withPretty(true).withIndent(JqRequest.Indent.NONE)));
+        assertNull(JqFastPath.execute(request(".", "1").withArgJson(ImmutableMap.of("x", "1"))));
+    }
+
+    @Test
+    public void testIdentity() {
+        assertSameAsLibjq(request(".", JSON));
+        assertSameAsLibjq(request(".", "1 \"a\\u0001\\u007f\\/\\ud83d\\ude00\" [] {} null true false"));
+        assertSameAsLibjq(request(".", "[0.001,0.0001,100,123.450,1000000,-3.25,1000000000000000]"));
+        assertSameAsLibjq(request(".", "{\"b\":1,\"\u00e9\":2,\"a\":3,\"\ud83d\ude00\":4}").withSortKeys(true));
+        assertSameAsLibjq(request(".", "  "));
+    }
+
+    @Test
+    public void testPaths() {
+        assertSameAsLibjq(request(".id", JSON));
+        assertSameAsLibjq(request(".a.b[0]", JSON));
+        assertSameAsLibjq(request(".a.b[0].c", JSON).withRawOutput(true));
+        assertSameAsLibjq(request(".a.b[9]", JSON));
+        assertSameAsLibjq(request(".[\"a\"][\"b\"][1]", JSON));
+        assertSameAsLibjq(request(".missing.x[0]", JSON));
+        assertSameAsLibjq(request(".id", "{\"id\":7,\"id\":8}"));
+        assertSameAsLibjq(request(".id", JSON + "\n" + JSON).withJoinOutput(true));
+    }
+
+    @Test
+    public void testProjection() {
+        assertSameAsLibjq(request("{a: .id, b: .a.b[0]}", JSON));
+        assertSameAsLibjq(request("{z, id, \"q\": .}", JSON).withSortKeys(true));
+        assertSameAsLibjq(request("{}", JSON));
+    }
+}
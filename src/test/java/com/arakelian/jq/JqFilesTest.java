@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.common.base.Charsets;
+
+public class JqFilesTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static JqFiles files(final String filter) {
+        return ImmutableJqFiles.builder() //
+                .request(
+                        ImmutableJqRequest.builder() //
+                                .lib(library) //
+                                .input("") //
+                                .filter(filter) //
+                                .pretty(false) //
+                                .build()) //
+                .parallelism(4) //
+                .build();
+    }
+
+    private static String lines(final int start, final int end) {
+        final StringBuilder buf = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            buf.append("{\"n\":").append(i).append(",\"s\":\"é€\"}\n");
+        }
+        return buf.toString();
+    }
+
+    private static Path write(final Path file, final String text) throws IOException {
+        Files.createDirectories(file.getParent());
+        return Files.write(file, text.getBytes(Charsets.UTF_8));
+    }
+
+    @TempDir
+    public Path directory;
+
+    @Test
+    public void testCompressed() throws IOException {
+        final Path file = directory.resolve("a.json.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write(lines(0, 3).getBytes(Charsets.UTF_8));
+        }
+
+        final Map<Path, JqResponse> responses = new ConcurrentHashMap<>();
+        files(".n").process(Arrays.asList(file), responses::put);
+        assertEquals("0\n1\n2", responses.get(file).getOutput());
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        final Path file = write(directory.resolve("a.json"), "{\"n\":1} {");
+        final Map<Path, JqResponse> responses = new ConcurrentHashMap<>();
+        files(".n").process(Arrays.asList(file), responses::put);
+        assertEquals("1", responses.get(file).getOutput());
+        assertTrue(responses.get(file).hasErrors());
+    }
+
+    @Test
+    public void testGlob() throws IOException {
+        write(directory.resolve("a.json"), "{\"n\":1}");
+        write(directory.resolve("sub/b.json"), "{\"n\":2}");
+        write(directory.resolve("sub/c.txt"), "{\"n\":3}");
+
+        final Map<Path, JqResponse> responses = new ConcurrentHashMap<>();
+        files(".n").process(directory, "**.json", responses::put);
+        assertEquals(2, responses.size());
+        assertEquals("1", responses.get(directory.resolve("a.json")).getOutput());
+        assertEquals("2", responses.get(directory.resolve("sub/b.json")).getOutput());
+    }
+
+    @Test
+    public void testMerged() throws IOException {
+        final Path a = write(directory.resolve("a.json"), lines(0, 2));
+        final Path b = write(directory.resolve("b.json"), lines(2, 4));
+
+        final StringWriter writer = new StringWriter();
+        files(".n").process(Arrays.asList(a, b), JqFiles.merged(writer));
+        final String[] lines = writer.toString().split("\n");
+        Arrays.sort(lines);
+        assertEquals(Arrays.asList("0", "1", "2", "3"), Arrays.asList(lines));
+    }
+
+    @Test
+    public void testMissingFile() {
+        assertThrows(
+                IOException.class,
+                () -> files(".").process(Arrays.asList(directory.resolve("missing.json")), (file, response) -> {
+                }));
+    }
+
+    @Test
+    public void testSplitLines() throws IOException {
+        final int count = 5000;
+        final Path file = write(directory.resolve("a.json"), lines(0, count));
+
+        for (final String filter : Arrays.asList(".n", "select(.s == \"é€\") | .n + 0")) {
+            final Map<Path, JqResponse> responses = new ConcurrentHashMap<>();
+            ImmutableJqFiles.copyOf(files(filter)) //
+                    .withSplitLines(true) //
+                    .withSplitSize(1000) //
+                    .process(Arrays.asList(file), responses::put);
+
+            final JqResponse response = responses.get(file);
+            assertFalse(response.hasErrors(), response.getErrors().toString());
+            final String[] lines = response.getOutput().split("\n");
+            assertEquals(count, lines.length);
+            for (int i = 0; i < count; i++) {
+                assertEquals(Integer.toString(i), lines[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class JqLibraryTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    @Test
+    public void testWarmUp() {
+        final Map<String, List<String>> errors = library.warmUp(Arrays.asList(".", ".a[0]", ".b | keys"));
+        assertTrue(errors.isEmpty(), errors.toString());
+    }
+
+    @Test
+    public void testWarmUpInvalidFilter() {
+        final Map<String, List<String>> errors = library.warmUp(Arrays.asList(".a", ".a["), "{\"a\":1}", 1);
+        assertEquals(Arrays.asList(".a["), Arrays.asList(errors.keySet().toArray()));
+        assertFalse(errors.get(".a[").isEmpty());
+    }
+
+    @Test
+    public void testWarmUpIterations() {
+        assertThrows(IllegalArgumentException.class, () -> library.warmUp(Arrays.asList("."), "{}", -1));
+    }
+
+    @Test
+    public void testWarmUpResource() {
+        final Map<String, List<String>> errors = library.warmUp();
+        assertTrue(errors.isEmpty(), errors.toString());
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+public class JqLockTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static final JqRequest REQUEST = ImmutableJqRequest.builder() //
+            .lib(library) //
+            .input("{\"a\":1}") //
+            .filter(".a") //
+            .build();
+
+    private void whileLocked(final Runnable runnable) throws InterruptedException {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread holder = new Thread(() -> {
+            JqLock.lock();
+            try {
+                locked.countDown();
+                done.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                JqLock.unlock();
+            }
+        });
+        holder.start();
+        try {
+            locked.await();
+            runnable.run();
+        } finally {
+            done.countDown();
+            holder.join();
+        }
+    }
+
+    @Test
+    public void testMaxWait() throws InterruptedException {
+        try {
+            JqLock.configure(ImmutableJqAdmissionPolicy.builder() //
+                    .maxWait(Duration.ofMillis(50)) //
+                    .fair(true) //
+                    .build());
+
+            final long rejected = JqLock.getInstance().getRejectedCount();
+            whileLocked(() -> {
+                assertThrows(RejectedExecutionException.class, () -> REQUEST.execute());
+            });
+            assertEquals(rejected + 1, JqLock.getInstance().getRejectedCount());
+            assertTrue(JqLock.getInstance().getMaxWaitNanos() >= Duration.ofMillis(50).toNanos());
+            assertEquals("1", REQUEST.execute().getOutput());
+        } finally {
+            JqLock.configure(ImmutableJqAdmissionPolicy.builder().build());
+        }
+    }
+
+    @Test
+    public void testMaxWaiters() throws InterruptedException {
+        try {
+            JqLock.configure(ImmutableJqAdmissionPolicy.builder() //
+                    .maxWaiters(0) //
+                    .build());
+
+            whileLocked(() -> {
+                assertThrows(RejectedExecutionException.class, () -> REQUEST.execute());
+            });
+            assertEquals("1", REQUEST.execute().getOutput());
+            assertEquals(0, JqLock.getInstance().getQueueLength());
+        } finally {
+            JqLock.configure(ImmutableJqAdmissionPolicy.builder().build());
+        }
+    }
+
+    @Test
+    public void testRelease() throws InterruptedException {
+        final JqProgram program = REQUEST.compile();
+        final CountDownLatch locked = new CountDownLatch(1);
+        final Thread holder = new Thread(() -> {
+            JqLock.lock();
+            try {
+                locked.countDown();
+                Thread.sleep(100);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                JqLock.unlock();
+            }
+        });
+        try {
+            JqLock.configure(ImmutableJqAdmissionPolicy.builder() //
+                    .maxWaiters(0) //
+                    .build());
+
+            // native resources are released even when waiting threads are rejected
+            holder.start();
+            locked.await();
+            program.close();
+            assertThrows(IllegalStateException.class, () -> program.execute("{}"));
+        } finally {
+            holder.join();
+            JqLock.configure(ImmutableJqAdmissionPolicy.builder().build());
+        }
+    }
+}
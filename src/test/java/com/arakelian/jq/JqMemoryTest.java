@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.OptionalLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.sun.jna.Platform;
+
+public class JqMemoryTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static final JqLibrary jna = ImmutableJqLibrary.builder() //
+            .shimEnabled(false) //
+            .build();
+
+    private static final long LIMIT = 1024 * 1024;
+
+    private static void checkTracked() {
+        JqLock.lock();
+        try {
+            final boolean tracked = library.getShim().map(shim -> shim.isMemoryTracked(library)).orElse(false);
+            if (Platform.isLinux() && Platform.isIntel() && Platform.is64Bit()) {
+                // shim is bundled for this platform; others require it to be built with docker-build.sh
+                assertTrue(tracked);
+            } else {
+                assumeTrue(tracked);
+            }
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    private static ImmutableJqRequest request(final String filter, final String input) {
+        return ImmutableJqRequest.builder() //
+                .lib(library) //
+                .filter(filter) //
+                .input(input) //
+                .pretty(false) //
+                .fastPath(false) //
+                .build();
+    }
+
+    @Test
+    public void testCachedByLimit() {
+        checkTracked();
+        final JqCache cache = ImmutableJqCache.builder().build();
+        final ImmutableJqRequest request = request("[range(1e5)] | length", "null").withCache(cache);
+        assertEquals("100000", request.execute().getOutput());
+
+        // response that was cached without a limit is not returned for a request with one
+        assertTrue(request.withMaxNativeBytes(LIMIT).execute().hasErrors());
+        assertEquals(2, cache.getStats().missCount());
+    }
+
+    @Test
+    public void testLimitExceeded() {
+        checkTracked();
+        final JqResponse response = request("[range(1e7)] | length", "null") //
+                .withMaxNativeBytes(LIMIT) //
+                .execute();
+        assertEquals("", response.getOutput());
+        assertEquals("jq exceeded native memory limit of " + LIMIT + " bytes", response.getErrors().get(0));
+
+        // process is still healthy
+        assertEquals("3", request("[range(3)] | length", "null").execute().getOutput());
+    }
+
+    @Test
+    public void testLimitNotEnforced() {
+        checkTracked();
+
+        // programs that bind variables are not executed by the shim, which alone enforces limits
+        final ImmutableJqRequest request = request("[range($n)] | length", "null") //
+                .withMaxNativeBytes(LIMIT);
+        try (JqProgram program = request.compile("n")) {
+            assertThrows(IllegalStateException.class, () -> program.execute("null", ImmutableMap.of("n", "1e9")));
+            assertThrows(IllegalStateException.class, () -> program.open("null"));
+        }
+
+        // program without the limit can be executed
+        try (JqProgram program = request.withMaxNativeBytes(OptionalLong.empty()).compile("n")) {
+            assertEquals("3", program.execute("null", ImmutableMap.of("n", "3")).getOutput());
+        }
+    }
+
+    @Test
+    public void testLimitNotExceeded() {
+        checkTracked();
+        final JqResponse response = request(".[] | . * 2", "[1,2,3]") //
+                .withMaxNativeBytes(LIMIT) //
+                .execute();
+        assertEquals("2\n4\n6", response.getOutput());
+        assertFalse(response.hasErrors());
+    }
+
+    @Test
+    public void testPeakNativeBytes() {
+        checkTracked();
+        final long small = request("[range(10)]", "null").execute().getPeakNativeBytes().getAsLong();
+        final long large = request("[range(100000)]", "null").execute().getPeakNativeBytes().getAsLong();
+        assertTrue(small > 0);
+        assertTrue(large > small * 10);
+    }
+
+    @Test
+    public void testRequiresShim() {
+        final ImmutableJqRequest request = request(".", "null").withLib(jna).withMaxNativeBytes(LIMIT);
+        assertThrows(IllegalStateException.class, request::execute);
+        assertFalse(request.withMaxNativeBytes(OptionalLong.empty()).execute().getPeakNativeBytes().isPresent());
+    }
+}
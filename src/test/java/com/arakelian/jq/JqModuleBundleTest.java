@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+public class JqModuleBundleTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static final JqModuleBundle MODULES = ImmutableJqModuleBundle.builder() //
+            .resourcePath("modules") //
+            .addModule("a.jq") //
+            .addModule("b/b.jq") //
+            .addModule("c/c.jq") //
+            .addModule("c/d.jq") //
+            .addModule("data.json") //
+            .addModule("lib/jq/e/e.jq") //
+            .addModule("lib/jq/f.jq") //
+            .build();
+
+    private static final JqModuleBundle SOURCES = ImmutableJqModuleBundle.builder() //
+            .putSource("util.jq", "def twice: . * 2;") //
+            .build();
+
+    @Test
+    public void testClasspathModules() {
+        final JqResponse response = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("null") //
+                .filter("import \"c\" as foo; [foo::a, foo::c]") //
+                .addModuleBundle(MODULES) //
+                .build() //
+                .execute();
+        assertFalse(response.hasErrors(), response.getErrors().toString());
+        assertEquals("[0,\"acmehbah\"]", response.getOutput());
+    }
+
+    @Test
+    public void testDirectoryIsReused() {
+        assertSame(SOURCES.getDirectory(), SOURCES.getDirectory());
+
+        // equal bundles built again share the same folder
+        assertSame(SOURCES.getDirectory(), ImmutableJqModuleBundle.copyOf(SOURCES).getDirectory());
+        assertSame(SOURCES.getDirectory(), ImmutableJqModuleBundle.builder() //
+                .putSource("util.jq", "def twice: . * 2;") //
+                .build() //
+                .getDirectory());
+        assertNotEquals(SOURCES.getDirectory(), ImmutableJqModuleBundle.builder() //
+                .putSource("util.jq", "def twice: . + .;") //
+                .build() //
+                .getDirectory());
+    }
+
+    @Test
+    public void testInMemoryModules() {
+        final JqResponse response = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("21") //
+                .filter("include \"util\"; twice") //
+                .addModuleBundle(SOURCES) //
+                .build() //
+                .execute();
+        assertFalse(response.hasErrors(), response.getErrors().toString());
+        assertEquals("42", response.getOutput());
+    }
+}
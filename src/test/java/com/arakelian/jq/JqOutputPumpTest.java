@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Charsets;
+
+public class JqOutputPumpTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static ByteArrayInputStream input(final String text) {
+        return new ByteArrayInputStream(text.getBytes(Charsets.UTF_8));
+    }
+
+    private static ImmutableJqRequest request(final String filter) {
+        return ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter(filter) //
+                .pretty(false) //
+                .build();
+    }
+
+    @Test
+    public void testFailedOutput() {
+        final OutputStream broken = new OutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        assertThrows(IOException.class, () -> request(".[]").execute(input("[1,2,3]"), JqCodec.NONE, broken));
+    }
+
+    @Test
+    public void testLargeOutput() throws IOException {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50000; i++) {
+            text.append("{\"id\":").append(i).append(",\"name\":\"élève\"}\n");
+        }
+        final ImmutableJqRequest request = request("{name, id}").withInput(text.toString()).withFastPath(false);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final JqResponse response = request.execute(input(text.toString()), JqCodec.NONE, out);
+        assertFalse(response.hasErrors(), response.getErrors().toString());
+        assertEquals("", response.getOutput());
+        assertTrue(out.size() > JqOutputPump.CAPACITY * JqOutputPump.CHUNK_SIZE);
+        assertEquals(request.execute().getOutput(), new String(out.toByteArray(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void testRawOutput() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final JqResponse response = request(".[]") //
+                .withJoinOutput(true) //
+                .execute(input("[\"a\",\"b\\n\",1]"), JqCodec.NONE, out);
+        assertFalse(response.hasErrors());
+        assertEquals("ab\n1", new String(out.toByteArray(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void testRuntimeErrors() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final JqResponse response = request(".a").execute(input("{\"a\":1} 2 {\"a\":3}"), JqCodec.NONE, out);
+        assertEquals("1\n3", new String(out.toByteArray(), Charsets.UTF_8));
+        assertEquals(1, response.getErrors().size());
+    }
+}
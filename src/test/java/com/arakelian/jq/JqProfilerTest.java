@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.sun.jna.Platform;
+
+public class JqProfilerTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static JqResponse execute(final String filter, final String input) {
+        return ImmutableJqRequest.builder() //
+                .lib(library) //
+                .filter(filter) //
+                .input(input) //
+                .fastPath(false) //
+                .build() //
+                .execute();
+    }
+
+    @AfterEach
+    public void disable() {
+        JqProfiler.disable();
+        JqProfiler.reset();
+    }
+
+    @BeforeEach
+    public void enable() {
+        JqProfiler.reset();
+        JqProfiler.enable();
+    }
+
+    @Test
+    public void testAnalyze() {
+        execute("[.[] | select(. > 1) | . * 2]", "[1,2,3]");
+
+        final List<JqProfile> profiles = JqProfiler.analyze(1);
+        assertEquals(1, profiles.size());
+        final JqProfile profile = profiles.get(0);
+        assertEquals(1, profile.getExecutionCount());
+        if (!Platform.isWindows()) {
+            assertTrue(profile.getDisassembly().get().contains("CALL_BUILTIN _multiply"));
+            assertEquals(Long.valueOf(2), profile.getOpcodeCounts().get("APPEND"));
+            assertEquals(Long.valueOf(6), profile.getOpcodeCounts().get("CALL_JQ"));
+        }
+
+        // analysis is not recorded
+        assertEquals(1, JqProfiler.getTopFilters(1).get(0).getExecutionCount());
+    }
+
+    @Test
+    public void testCursor() {
+        final JqRequest request = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .filter(".[]") //
+                .input("[1,2,3]") //
+                .build();
+        try (JqCursor cursor = request.open()) {
+            assertEquals("1", cursor.next());
+            assertTrue(JqProfiler.getTopFilters(10).isEmpty());
+        }
+
+        // cursor is recorded when it is closed
+        final JqProfile profile = JqProfiler.getTopFilters(10).get(0);
+        assertEquals(".[]", profile.getFilter());
+        assertEquals(1, profile.getExecutionCount());
+        assertEquals(1, profile.getResultCount());
+        assertEquals(7, profile.getInputBytes());
+    }
+
+    @Test
+    public void testDisabled() {
+        JqProfiler.disable();
+        execute(".a", "{\"a\":1}");
+        assertTrue(JqProfiler.getTopFilters(10).isEmpty());
+    }
+
+    @Test
+    public void testExtractor() {
+        final JqRequest request = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .filter(".[]") //
+                .input("") //
+                .build();
+        try (JqExtractor extractor = request
+                .compileExtractor(ImmutableList.of(JqColumn.of("n", JqColumn.Type.LONG)))) {
+            assertEquals(2, extractor.extract("[{\"n\":1},{\"n\":2}]").getRowCount());
+        }
+
+        final JqProfile profile = JqProfiler.getTopFilters(10).get(0);
+        assertEquals(1, profile.getExecutionCount());
+        assertEquals(2, profile.getResultCount());
+        assertEquals(17, profile.getInputBytes());
+    }
+
+    @Test
+    public void testFastPath() {
+        final JqResponse response = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .filter(".a") //
+                .input("{\"a\":1} {\"a\":2}") //
+                .pretty(false) //
+                .build() //
+                .execute();
+        assertEquals("1\n2", response.getOutput());
+
+        final JqProfile profile = JqProfiler.getTopFilters(10).get(0);
+        assertEquals(".a", profile.getFilter());
+        assertEquals(1, profile.getExecutionCount());
+        assertEquals(2, profile.getResultCount());
+    }
+
+    @Test
+    public void testSession() throws Exception {
+        final JqStreamSession session = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .filter(".[]") //
+                .input("") //
+                .build() //
+                .openSession(Runnable::run, result -> {
+                });
+        session.feed(ByteBuffer.wrap("[1,".getBytes(Charsets.UTF_8)));
+        session.feed(ByteBuffer.wrap("2]".getBytes(Charsets.UTF_8)));
+        assertTrue(JqProfiler.getTopFilters(10).isEmpty());
+        assertTrue(session.finish().get().isEmpty());
+
+        // session is recorded when it is finished
+        final JqProfile profile = JqProfiler.getTopFilters(10).get(0);
+        assertEquals(".[]", profile.getFilter());
+        assertEquals(1, profile.getExecutionCount());
+        assertEquals(2, profile.getResultCount());
+        assertEquals(5, profile.getInputBytes());
+        assertEquals(2, profile.getOutputBytes());
+    }
+
+    @Test
+    public void testTopFilters() {
+        final StringBuilder input = new StringBuilder("[");
+        for (int i = 0; i < 10000; i++) {
+            input.append(i != 0 ? "," : "").append(i);
+        }
+        input.append(']');
+
+        for (int i = 0; i < 3; i++) {
+            execute("[range(0; 20000)] | map(. * 2) | add", input.toString());
+            execute(".[0]", "[1,2]");
+        }
+        execute(".a.b", "{\"a\":1}");
+
+        final List<JqProfile> profiles = JqProfiler.getTopFilters(10);
+        assertEquals(3, profiles.size());
+
+        final JqProfile slowest = profiles.get(0);
+        assertEquals("[range(0; 20000)] | map(. * 2) | add", slowest.getFilter());
+        assertEquals(3, slowest.getExecutionCount());
+        assertEquals(3, slowest.getResultCount());
+        assertEquals(3L * input.length(), slowest.getInputBytes());
+        assertTrue(slowest.getCpuNanos() > 0);
+        assertFalse(slowest.getDisassembly().isPresent());
+
+        final JqProfile failed = profiles.stream().filter(p -> p.getFilter().equals(".a.b")).findFirst().get();
+        assertEquals(1, failed.getErrorCount());
+        assertEquals(1, JqProfiler.getTopFilters(1).size());
+    }
+}
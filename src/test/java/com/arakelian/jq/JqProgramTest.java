@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+public class JqProgramTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static final String EVENTS = "{\"tenant\":\"a\",\"n\":1} {\"tenant\":\"b\",\"n\":5} {\"tenant\":\"a\",\"n\":9}";
+
+    @Test
+    public void testCompileError() {
+        try (JqProgram program = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter(".a[") //
+                .build() //
+                .compile()) {
+            assertFalse(program.isValid());
+            assertTrue(program.getCompileErrors().size() != 0);
+            assertTrue(program.execute("{}").hasErrors());
+        }
+    }
+
+    @Test
+    public void testDirectives() {
+        final JqModuleBundle bundle = ImmutableJqModuleBundle.builder() //
+                .putSource("util.jq", "def twice: . * 2;") //
+                .build();
+
+        try (JqProgram program = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter("# comment\ninclude \"util\"; . + $n | twice") //
+                .addModuleBundle(bundle) //
+                .build() //
+                .compile("n")) {
+            assertTrue(program.isValid(), program.getCompileErrors().toString());
+            assertEquals("6", program.execute("1", ImmutableMap.of("n", "2")).getOutput());
+            assertEquals("10", program.execute("1", ImmutableMap.of("n", "4")).getOutput());
+        }
+    }
+
+    @Test
+    public void testInvalidValue() {
+        try (JqProgram program = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter(". + $n") //
+                .build() //
+                .compile("n")) {
+            final JqResponse response = program.execute("1", ImmutableMap.of("n", "{"));
+            assertEquals("", response.getOutput());
+            assertEquals(1, response.getErrors().size());
+
+            // program can still be used
+            assertEquals("3", program.execute("1", ImmutableMap.of("n", "2")).getOutput());
+        }
+    }
+
+    @Test
+    public void testUndeclaredVariable() {
+        try (JqProgram program = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter(".") //
+                .build() //
+                .compile("a")) {
+            assertThrows(IllegalArgumentException.class, () -> {
+                program.execute("1", ImmutableMap.of("b", "1"));
+            });
+
+            // rejected before any value is bound, so the program can still be used
+            assertThrows(IllegalArgumentException.class, () -> {
+                program.execute("1", ImmutableMap.of("a", "1", "b", "1"));
+            });
+            assertEquals("1", program.execute("1", ImmutableMap.of("a", "2")).getOutput());
+        }
+    }
+
+    @Test
+    public void testValues() {
+        try (JqProgram program = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter(".[] | select(. > $threshold)") //
+                .build() //
+                .compile("threshold");
+                JqValue input = JqValue.parse(library, "[1,5,9]");
+                JqValue one = JqValue.parse(library, "1");
+                JqValue six = JqValue.parse(library, "6")) {
+            assertEquals("5\n9", program.execute(input, ImmutableMap.of("threshold", one)).getOutput());
+            assertEquals("9", program.execute(input, ImmutableMap.of("threshold", six)).getOutput());
+        }
+    }
+
+    @Test
+    public void testVariables() {
+        try (JqProgram program = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter("select(.tenant == $tenant) | .n") //
+                .build() //
+                .compile("tenant")) {
+            assertTrue(program.isValid(), program.getCompileErrors().toString());
+            assertEquals("1\n9", program.execute(EVENTS, ImmutableMap.of("tenant", "\"a\"")).getOutput());
+            assertEquals("5", program.execute(EVENTS, ImmutableMap.of("tenant", "\"b\"")).getOutput());
+            assertEquals("", program.execute(EVENTS).getOutput());
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import org.junit.jupiter.api.Test;
+
+public class JqRequestTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static final String INPUT = "{\"a\":\"tab\\there\",\"b\":\"caf\\u00e9\",\"c\":[1,2],\"d\":\"\"}";
+
+    private JqResponse execute(final ImmutableJqRequest.Builder builder) {
+        final JqResponse response = builder //
+                .lib(library) //
+                .input(INPUT) //
+                .build() //
+                .execute();
+        assertFalse(response.hasErrors(), response.getErrors().toString());
+        return response;
+    }
+
+    @Test
+    public void testJoinOutput() {
+        final JqResponse response = execute(ImmutableJqRequest.builder() //
+                .filter(".a, .c, .b") //
+                .joinOutput(true));
+        assertEquals("tab\there[1,2]café", response.getOutput());
+    }
+
+    @Test
+    public void testRawOutput() {
+        final JqResponse response = execute(ImmutableJqRequest.builder() //
+                .filter(".a, .b, .c") //
+                .rawOutput(true));
+        assertEquals("tab\there\ncafé\n[1,2]", response.getOutput());
+    }
+
+    @Test
+    public void testRawOutputEmptyString() {
+        final JqResponse response = execute(ImmutableJqRequest.builder() //
+                .filter(".d, .b") //
+                .rawOutput(true));
+        assertEquals("\ncafé", response.getOutput());
+    }
+
+    @Test
+    public void testJsonOutput() {
+        final JqResponse response = execute(ImmutableJqRequest.builder() //
+                .filter(".a, .b"));
+        assertEquals("\"tab\\there\"\n\"café\"", response.getOutput());
+    }
+}
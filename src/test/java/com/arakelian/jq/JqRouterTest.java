@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+public class JqRouterTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static final Map<String, String> FILTERS = ImmutableMap.of( //
+            "error", "select(.level == \"error\") | .id", //
+            "warn", "select(.level != \"info\") | .id", //
+            "summary", "{id, n: (.tags | length)}", //
+            "tags", ".tags[]");
+
+    private static JqRequest request(final String filter) {
+        return ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter(filter) //
+                .pretty(false) //
+                .fastPath(false) //
+                .build();
+    }
+
+    @Test
+    public void testAll() {
+        final String input = "{\"id\":1,\"level\":\"error\",\"tags\":[\"a\",\"b\"]}\n" //
+                + "{\"id\":2,\"level\":\"warn\",\"tags\":[]}\n" //
+                + "{\"id\":3,\"level\":\"info\",\"tags\":[\"é\"]}";
+        try (JqRouter router = request(".").compileRouter(FILTERS, JqRouter.Mode.ALL)) {
+            assertTrue(router.isValid());
+            assertEquals(ImmutableList.copyOf(FILTERS.keySet()), router.getNames());
+            for (int i = 0; i < 3; i++) {
+                final Map<String, JqResponse> routed = router.route(input);
+                assertEquals(FILTERS.keySet(), routed.keySet());
+                for (final String name : FILTERS.keySet()) {
+                    // same as executing each filter separately
+                    final JqResponse expected = ImmutableJqRequest.copyOf(request(FILTERS.get(name))) //
+                            .withInput(input) //
+                            .execute();
+                    assertEquals(expected, routed.get(name), name);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        final Map<String, String> filters = ImmutableMap.of( //
+                "a", ".a", //
+                "invalid", ".a |", //
+                "type", "type");
+        try (JqRouter router = request(".").compileRouter(filters, JqRouter.Mode.ALL)) {
+            assertFalse(router.isValid());
+
+            // runtime errors only affect their own filter, and parse errors affect every filter
+            final Map<String, JqResponse> routed = router.route("{\"a\":1} 2 [3] {");
+            assertEquals("1", routed.get("a").getOutput());
+            assertEquals(3, routed.get("a").getErrors().size());
+            assertEquals("\"object\"\n\"number\"\n\"array\"", routed.get("type").getOutput());
+            assertEquals(1, routed.get("type").getErrors().size());
+            assertEquals(routed.get("a").getErrors().get(2), routed.get("type").getErrors().get(0));
+            assertEquals("", routed.get("invalid").getOutput());
+            assertFalse(routed.get("invalid").getErrors().isEmpty());
+            assertEquals(router.route("").get("invalid"), routed.get("invalid"));
+        }
+    }
+
+    @Test
+    public void testFirstMatch() {
+        final String input = "{\"id\":1,\"level\":\"error\",\"tags\":[\"a\",\"b\"]}\n" //
+                + "{\"id\":2,\"level\":\"warn\",\"tags\":[]}\n" //
+                + "{\"id\":3,\"level\":\"info\",\"tags\":[]}";
+        try (JqRouter router = request(".").compileRouter(FILTERS, JqRouter.Mode.FIRST_MATCH)) {
+            final Map<String, JqResponse> routed = router.route(input);
+            assertEquals("1", routed.get("error").getOutput());
+            assertEquals("2", routed.get("warn").getOutput());
+            assertEquals("{\"id\":3,\"n\":0}", routed.get("summary").getOutput());
+
+            // filters that follow a match are not evaluated
+            assertEquals("", routed.get("tags").getOutput());
+        }
+    }
+
+    @Test
+    public void testProfiled() {
+        JqProfiler.reset();
+        JqProfiler.enable();
+        try (JqRouter router = request(".").compileRouter(FILTERS, JqRouter.Mode.ALL)) {
+            router.route("{\"id\":1,\"level\":\"error\",\"tags\":[\"a\"]}");
+            router.route("{\"id\":2,\"level\":\"info\",\"tags\":[]}");
+
+            // every filter is recorded once per route, like a separate execution
+            final List<JqProfile> profiles = JqProfiler.getTopFilters(10);
+            assertEquals(FILTERS.size(), profiles.size());
+            for (final JqProfile profile : profiles) {
+                assertEquals(2, profile.getExecutionCount(), profile.getFilter());
+            }
+        } finally {
+            JqProfiler.disable();
+            JqProfiler.reset();
+        }
+    }
+}
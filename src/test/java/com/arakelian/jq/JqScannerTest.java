@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Charsets;
+
+public class JqScannerTest {
+    private static final String[] TOKENS = { "1", "-2.5e3", "true", "null", "\"a,]\"", "\"x\\\"y\\\\\"",
+            "{\"k\":[1,{\"z\":\"]}\"}]}", "[\"]\",[[]]]", "\"é€\"", "  ", ",", "[", "]", "{", "}", "\"" };
+
+    private static ByteBuffer bytes(final String text) {
+        return ByteBuffer.wrap(text.getBytes(Charsets.UTF_8));
+    }
+
+    private static ByteBuffer direct(final String text, final int offset) {
+        final byte[] bytes = text.getBytes(Charsets.UTF_8);
+        final ByteBuffer buf = ByteBuffer.allocateDirect(offset + bytes.length);
+        buf.position(offset);
+        buf.put(bytes).flip();
+        buf.position(offset);
+        return buf;
+    }
+
+    @Test
+    public void testElements() {
+        final String text = " [1, \"a,]\" ,{\"b\":[1,\"}\\\"\"]},\n[\"]\"],null,-1.5e3] ";
+        final int[] offsets = JqScanner.elements(bytes(text));
+        assertArrayEquals(new int[] { 2, 3, 5, 10, 12, 27, 29, 34, 35, 39, 40, 46 }, offsets);
+        assertEquals("{\"b\":[1,\"}\\\"\"]}", text.substring(offsets[4], offsets[5]));
+
+        assertArrayEquals(new int[0], JqScanner.elements(bytes("[ ]")));
+        assertNull(JqScanner.elements(bytes("{}")));
+        assertNull(JqScanner.elements(bytes("[1 2]")));
+        assertNull(JqScanner.elements(bytes("[1,]")));
+        assertNull(JqScanner.elements(bytes("[,1]")));
+        assertNull(JqScanner.elements(bytes("[1{}]")));
+        assertNull(JqScanner.elements(bytes("[1] 2")));
+        assertNull(JqScanner.elements(bytes("[\"x\\\"]")));
+        assertNull(JqScanner.elements(bytes("[[1]")));
+    }
+
+    @Test
+    public void testNewline() {
+        final ByteBuffer buf = bytes("{\"a\":\"é\"}\n{\"a\":2}\n\n3");
+        assertEquals(10, JqScanner.indexOfNewline(buf, 0));
+        assertEquals(18, JqScanner.indexOfNewline(buf, 11));
+        assertEquals(19, JqScanner.indexOfNewline(buf, 19));
+        assertEquals(-1, JqScanner.indexOfNewline(buf, 20));
+    }
+
+    @Test
+    public void testSameAsScalar() {
+        // words are examined eight bytes at a time, so boundaries must be found at every alignment
+        final Random random = new Random(0);
+        for (int n = 0; n < 20000; n++) {
+            final StringBuilder buf = new StringBuilder(random.nextInt(10) != 0 ? "[" : "");
+            for (int i = 0, count = random.nextInt(12); i < count; i++) {
+                buf.append(TOKENS[random.nextInt(random.nextInt(10) > 1 ? 10 : TOKENS.length)]);
+                buf.append(random.nextInt(8) != 0 ? "," : "\n");
+            }
+            buf.append(random.nextInt(10) != 0 ? "]" : "");
+
+            final String text = buf.toString();
+            final int[] expected = JqScanner.elements(bytes(text), false);
+            assertArrayEquals(expected, JqScanner.elements(bytes(text), true), text);
+
+            final int offset = random.nextInt(8);
+            final int[] shifted = JqScanner.elements(direct(text, offset));
+            if (expected == null) {
+                assertNull(shifted, text);
+            } else {
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(expected[i] + offset, shifted[i], text);
+                }
+            }
+
+            for (int from = 0; from < text.length(); from++) {
+                assertEquals(
+                        JqScanner.indexOfNewline(bytes(text), from, false),
+                        JqScanner.indexOfNewline(bytes(text), from, true),
+                        text);
+            }
+        }
+    }
+}
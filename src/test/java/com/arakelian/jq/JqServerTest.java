@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+public class JqServerTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static String read(final HttpURLConnection connection) throws IOException {
+        final InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream()
+                : connection.getErrorStream();
+        try (InputStream body = in) {
+            return body == null ? "" : new String(ByteStreams.toByteArray(body), Charsets.UTF_8);
+        }
+    }
+
+    private JqServer.Instance server;
+
+    @BeforeEach
+    public void start() throws IOException {
+        server = ImmutableJqServer.builder() //
+                .request(
+                        ImmutableJqRequest.builder() //
+                                .lib(library) //
+                                .input("") //
+                                .pretty(false) //
+                                .build()) //
+                .parallelism(2) //
+                .maxPrograms(2) //
+                .build() //
+                .start();
+    }
+
+    @AfterEach
+    public void stop() {
+        server.close();
+    }
+
+    @Test
+    public void testCompileError() throws IOException {
+        final HttpURLConnection connection = post(".a[", "{}".getBytes(Charsets.UTF_8), null);
+        assertEquals(400, connection.getResponseCode());
+        assertTrue(read(connection).contains("error"));
+    }
+
+    @Test
+    public void testCompressed() throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write("{\"a\":1} {\"a\":2}".getBytes(Charsets.UTF_8));
+        }
+        final HttpURLConnection connection = post(".a", bytes.toByteArray(), "gzip");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("1\n2", read(connection));
+
+        assertEquals(415, post(".a", bytes.toByteArray(), "br").getResponseCode());
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        // more filters than programs, so that programs are evicted while in use
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<String>> results = Lists.newArrayList();
+            for (int i = 0; i < 64; i++) {
+                final int n = i % 5;
+                results.add(executor.submit(() -> {
+                    final String input = "[" + n + "," + n + "]";
+                    return read(post(".[] + " + n, input.getBytes(Charsets.UTF_8), null));
+                }));
+            }
+            for (int i = 0; i < 64; i++) {
+                final int expected = 2 * (i % 5);
+                assertEquals(expected + "\n" + expected, results.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMethodNotAllowed() throws IOException {
+        final URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/?filter=.");
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    @Test
+    public void testRuntimeError() throws IOException {
+        final HttpURLConnection connection = post(".a", "{\"a\":1} 2".getBytes(Charsets.UTF_8), null);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("1\njq: error: Cannot index number with string \"a\"", read(connection));
+    }
+
+    @Test
+    public void testStreaming() throws IOException {
+        final StringBuilder input = new StringBuilder();
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            input.append("{\"n\":").append(i).append("}\n");
+            expected.append(i == 0 ? "" : "\n").append(i);
+        }
+        final HttpURLConnection connection = post(".n", input.toString().getBytes(Charsets.UTF_8), null);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("chunked", connection.getHeaderField("Transfer-Encoding"));
+        assertEquals(expected.toString(), read(connection));
+    }
+
+    private HttpURLConnection post(final String filter, final byte[] body, final String encoding)
+            throws IOException {
+        final URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/?filter="
+                + URLEncoder.encode(filter, Charsets.UTF_8.name()));
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(8192);
+        if (encoding != null) {
+            connection.setRequestProperty("Content-Encoding", encoding);
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        return connection;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.jna.Platform;
+
+public class JqShimTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static final JqLibrary jna = ImmutableJqLibrary.builder() //
+            .shimEnabled(false) //
+            .build();
+
+    private static void assertSameAsJna(final String filter, final String input) {
+        final ImmutableJqRequest request = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .filter(filter) //
+                .input(input) //
+                .pretty(false) //
+                .fastPath(false) //
+                .build();
+        assertEquals(request.withLib(jna).execute(), request.execute());
+        assertEquals(request.withLib(jna).withRawOutput(true).execute(), request.withRawOutput(true).execute());
+    }
+
+    @Test
+    public void testDisabled() {
+        assertFalse(jna.getShim().isPresent());
+    }
+
+    @Test
+    public void testLoaded() {
+        assertNotNull(JqShimTest.class.getClassLoader().getResource("lib/linux-x86_64/libjqshim.so"));
+
+        // shim must be loaded before libjq, so that it counts the memory that libjq allocates
+        assumeTrue(Platform.isLinux() && Platform.isIntel() && Platform.is64Bit());
+        assertTrue(library.getShim().isPresent());
+        JqLock.lock();
+        try {
+            assertTrue(library.getShim().get().isMemoryTracked(library));
+        } finally {
+            JqLock.unlock();
+        }
+    }
+
+    @Test
+    public void testSameAsJna() {
+        // whether or not the shim is bundled for this platform, results must not change
+        if (Platform.isLinux() && Platform.isIntel() && Platform.is64Bit()) {
+            assertTrue(library.getShim().isPresent());
+        }
+        assertSameAsJna(".a", "{\"a\":\"é\"} {\"a\":2} 3 {\"a\":[1,{\"b\":null}]}");
+        assertSameAsJna(".[]", "[\"x\",\"y\"] {");
+        assertSameAsJna("empty", "1 2 3");
+        assertSameAsJna(".", "");
+        assertSameAsJna("range(.)", "5000");
+    }
+}
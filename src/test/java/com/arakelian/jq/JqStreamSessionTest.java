@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+public class JqStreamSessionTest {
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    private static ByteBuffer bytes(final String text) {
+        return ByteBuffer.wrap(text.getBytes(Charsets.UTF_8));
+    }
+
+    private static ImmutableJqRequest request(final String filter) {
+        return ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter(filter) //
+                .pretty(false) //
+                .build();
+    }
+
+    @Test
+    public void testCallbackFails() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("results failed");
+        final JqStreamSession session = request(".").openSession(Runnable::run, result -> {
+            throw failure;
+        });
+        session.feed(bytes("1 2"));
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> session.finish().get());
+        assertSame(failure, e.getCause());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final List<String> results = Lists.newArrayList();
+        final JqStreamSession session = request(".").openSession(Runnable::run, results::add);
+        session.feed(bytes("1 2 [3"));
+        session.close();
+        assertEquals(Arrays.asList("1", "2"), results);
+        assertEquals(Collections.emptyList(), session.finish().get());
+        assertThrows(IllegalStateException.class, () -> session.feed(bytes("]")));
+    }
+
+    @Test
+    public void testCompileError() throws Exception {
+        final JqStreamSession session = request(".a[").openSession(Runnable::run, result -> {
+            throw new AssertionError("Unexpected result: " + result);
+        });
+        session.feed(bytes("{}"));
+        assertFalse(session.finish().get().isEmpty());
+    }
+
+    @Test
+    public void testContended() throws Exception {
+        final List<String> results = Collections.synchronizedList(Lists.newArrayList());
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final JqStreamSession session = request(".n").openSession(executor, results::add);
+
+            // event loop must not wait while another thread holds the jq lock
+            JqLock.lock();
+            try {
+                final Thread eventLoop = new Thread(() -> {
+                    session.feed(bytes("{\"n\":1} {\"n\""));
+                    session.feed(bytes(":2}"));
+                    session.finish();
+                });
+                eventLoop.start();
+                eventLoop.join(TimeUnit.SECONDS.toMillis(10));
+                assertFalse(eventLoop.isAlive());
+                assertTrue(results.isEmpty());
+            } finally {
+                JqLock.unlock();
+            }
+
+            assertEquals(Collections.emptyList(), session.finish().get(10, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("1", "2"), results);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFragments() throws Exception {
+        // split input at every byte, including in the middle of multi-byte characters
+        final List<String> results = Lists.newArrayList();
+        final JqStreamSession session = request(".a").openSession(Runnable::run, results::add);
+        for (final byte b : "{\"a\":\"é€\"}\n{\"a\":2} [".getBytes(Charsets.UTF_8)) {
+            session.feed(ByteBuffer.wrap(new byte[] { b }));
+            if (results.size() == 1) {
+                // results are produced as soon as each value is complete
+                assertEquals("\"é€\"", results.get(0));
+            }
+        }
+        assertEquals(Arrays.asList("\"é€\"", "2"), results);
+
+        // incomplete value is an error
+        assertEquals(1, session.finish().get().size());
+    }
+
+    @Test
+    public void testProgram() throws Exception {
+        try (JqProgram program = request(".[]").compile()) {
+            final List<String> results = Lists.newArrayList();
+            final JqStreamSession session = program.openSession(Runnable::run, results::add);
+            session.feed(bytes("[1,2]"));
+            assertEquals(Collections.emptyList(), session.finish().get());
+            assertEquals(Arrays.asList("1", "2"), results);
+
+            // program can be executed once session is finished
+            assertEquals("3", program.execute("[3]").getOutput());
+        }
+    }
+
+    @Test
+    public void testRejected() throws Exception {
+        final JqStreamSession session = request(".").openSession(command -> {
+            throw new RejectedExecutionException("overloaded");
+        }, result -> {
+            throw new AssertionError("Unexpected result: " + result);
+        });
+
+        // session fails, rather than hangs, when the executor rejects it
+        JqLock.lock();
+        try {
+            final Thread eventLoop = new Thread(() -> session.feed(bytes("1")));
+            eventLoop.start();
+            eventLoop.join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(eventLoop.isAlive());
+        } finally {
+            JqLock.unlock();
+        }
+        final ExecutionException e = assertThrows(
+                ExecutionException.class,
+                () -> session.finish().get(10, TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof RejectedExecutionException);
+        assertThrows(IllegalStateException.class, () -> session.feed(bytes("2")));
+        session.close();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.arakelian.jq;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Smoke test that is compiled into a GraalVM native image by the <code>nativeSmokeTest</code>
+ * task, to verify the reachability metadata in <code>META-INF/native-image</code>.
+ */
+public class NativeImageTest extends AbstractJqTest {
+    /** Number of tests of jq.test that are run **/
+    private static final int COUNT = 100;
+
+    private static final JqLibrary library = ImmutableJqLibrary.of();
+
+    public static Collection<Object[]> jqTest() throws IOException {
+        return new JqTestParser("/jq.test").data().stream() //
+                .limit(COUNT) //
+                .collect(Collectors.toList());
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource
+    public void jqTest(String testName, Type type, String program, String input, String expected) {
+        test(testName, type, program, input, expected);
+    }
+
+    @Test
+    public void testCompileError() {
+        // exercises the error callback
+        final JqResponse response = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("{}") //
+                .filter(".a[") //
+                .build() //
+                .execute();
+        assertTrue(response.hasErrors());
+    }
+
+    @Test
+    public void testStructures() {
+        // exercises structures that are returned by value
+        try (JqExtractor extractor = ImmutableJqRequest.builder() //
+                .lib(library) //
+                .input("") //
+                .filter(".[]") //
+                .build() //
+                .compileExtractor(ImmutableList.of(JqColumn.of("a", JqColumn.Type.DOUBLE)))) {
+            final JqTable table = extractor.extract("[{\"a\":1.5},{\"a\":\"x\"}]");
+            assertFalse(table.hasErrors());
+            assertEquals(1.5, table.getDoubles("a")[0]);
+        }
+    }
+}